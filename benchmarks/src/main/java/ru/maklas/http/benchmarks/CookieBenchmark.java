@@ -0,0 +1,73 @@
+package ru.maklas.http.benchmarks;
+
+import com.badlogic.gdx.utils.Array;
+import org.openjdk.jmh.annotations.*;
+import ru.maklas.http.Cookie;
+import ru.maklas.http.CookieStore;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+
+/** Parsing of Set-Cookie values and operations of {@link CookieStore} with a store of realistic size **/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CookieBenchmark {
+
+	@Param({"10", "100"})
+	public int cookies;
+
+	private URL url;
+	private CookieStore store;
+	private String header;
+	private int i;
+
+	@Setup
+	public void setup() throws MalformedURLException {
+		url = new URL("https://www.example.co.uk/account/settings");
+		store = new CookieStore();
+		for (int i = 0; i < cookies; i++) {
+			store.setCookie(new Cookie("cookie" + i, "value" + i, i % 2 == 0 ? "example.co.uk" : "www.example.co.uk"));
+		}
+		header = store.toHeaderString();
+	}
+
+	@Benchmark
+	public Cookie fromSetCookieSimple() {
+		return Cookie.fromSetCookieValue(url, "sid=31d4d96e407aad42");
+	}
+
+	@Benchmark
+	public Cookie fromSetCookieFull() {
+		return Cookie.fromSetCookieValue(url, "sid=31d4d96e407aad42; Path=/; Domain=example.co.uk; Expires=Wed, 09 Jun 2041 10:18:14 GMT; Max-Age=3600; Secure; HttpOnly; SameSite=Lax");
+	}
+
+	@Benchmark
+	public String setCookie() {
+		return store.setCookie(new Cookie("cookie" + (i++ % cookies), "changed", "example.co.uk"));
+	}
+
+	@Benchmark
+	public String getCookie() {
+		return store.getCookie("cookie" + (cookies / 2));
+	}
+
+	@Benchmark
+	public Array<Cookie> getCookiesFor() {
+		return store.getCookiesFor("www.example.co.uk");
+	}
+
+	@Benchmark
+	public String toHeaderString() {
+		return store.toHeaderString();
+	}
+
+	@Benchmark
+	public CookieStore parse() {
+		return CookieStore.parse(header);
+	}
+}
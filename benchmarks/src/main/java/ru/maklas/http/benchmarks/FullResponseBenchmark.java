@@ -0,0 +1,95 @@
+package ru.maklas.http.benchmarks;
+
+import com.sun.net.httpserver.HttpServer;
+import org.openjdk.jmh.annotations.*;
+import ru.maklas.http.ConnectionBuilder;
+import ru.maklas.http.ConnectionException;
+import ru.maklas.http.FullResponse;
+import ru.maklas.http.Header;
+import ru.maklas.http.Http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Full exchange with {@link FullResponse}: sending a GET request and reading the body,
+ * against an in-process server on loopback with keep-alive, so network doesn't dominate results.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FullResponseBenchmark {
+
+	@Param({"1024", "65536", "1048576"})
+	public int bodySize;
+
+	@Param({"false", "true"})
+	public boolean gzip;
+
+	private HttpServer server;
+	private ExecutorService executor;
+	private String url;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		byte[] body = new byte[bodySize];
+		Arrays.fill(body, (byte) 'a');
+		for (int i = 0; i < body.length; i += 64) {
+			body[i] = '\n';
+		}
+		byte[] payload = gzip ? gzip(body) : body;
+
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/", exchange -> {
+			try (InputStream is = exchange.getRequestBody()) {
+				while (is.read() != -1) { }
+			}
+			exchange.getResponseHeaders().add(Header.ContentType.key, "text/plain; charset=UTF-8");
+			if (gzip) exchange.getResponseHeaders().add(Header.ContentEncoding.key, "gzip");
+			exchange.sendResponseHeaders(200, payload.length);
+			try (OutputStream os = exchange.getResponseBody()) {
+				os.write(payload);
+			}
+		});
+		executor = Executors.newFixedThreadPool(4);
+		server.setExecutor(executor);
+		server.start();
+		url = "http://127.0.0.1:" + server.getAddress().getPort() + "/body";
+		Http.setDefaultKeepAlive(true);
+	}
+
+	private static byte[] gzip(byte[] data) throws IOException {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		try (GZIPOutputStream gos = new GZIPOutputStream(bos)) {
+			gos.write(data);
+		}
+		return bos.toByteArray();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		server.stop(0);
+		executor.shutdownNow();
+	}
+
+	@Benchmark
+	public byte[] bytes() throws ConnectionException {
+		return ConnectionBuilder.get(url).h(Header.AcceptEncoding.gzip).send().getResponseBytes();
+	}
+
+	@Benchmark
+	public String bodyAsIs() throws ConnectionException {
+		return ConnectionBuilder.get(url).h(Header.AcceptEncoding.gzip).send().getBodyAsIs();
+	}
+}
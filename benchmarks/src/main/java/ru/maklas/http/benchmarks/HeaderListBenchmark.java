@@ -0,0 +1,57 @@
+package ru.maklas.http.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import ru.maklas.http.Header;
+import ru.maklas.http.HeaderList;
+
+import java.util.concurrent.TimeUnit;
+
+/** Lookups in a {@link HeaderList} of a typical browser-like response **/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HeaderListBenchmark {
+
+	private HeaderList headers;
+
+	@Setup
+	public void setup() {
+		headers = new HeaderList()
+				.add(new Header("Date", "Mon, 19 Oct 2026 15:17:25 GMT"))
+				.add(new Header("Content-Type", "text/html; charset=UTF-8"))
+				.add(new Header("Content-Length", "12345"))
+				.add(new Header("Connection", "keep-alive"))
+				.add(new Header("Cache-Control", "private, max-age=0"))
+				.add(new Header("Content-Encoding", "gzip"))
+				.add(new Header("Server", "nginx"))
+				.add(new Header("Vary", "Accept-Encoding"))
+				.add(new Header("X-Frame-Options", "SAMEORIGIN"))
+				.add(new Header("Strict-Transport-Security", "max-age=31536000"))
+				.add(new Header("Set-Cookie", "a=1; Path=/"))
+				.add(new Header("Set-Cookie", "b=2; Path=/"))
+				.add(new Header("Set-Cookie", "c=3; Path=/"));
+	}
+
+	@Benchmark
+	public Header getHeader() {
+		return headers.getHeader(Header.ContentEncoding.key);
+	}
+
+	@Benchmark
+	public Header getHeaderIgnoreCase() {
+		return headers.getHeader("content-encoding", false);
+	}
+
+	@Benchmark
+	public Header getHeaderMissing() {
+		return headers.getHeader("X-Missing", false);
+	}
+
+	@Benchmark
+	public int getHeaders() {
+		return headers.getHeaders(Header.SetCookie.key, false).size;
+	}
+}
@@ -0,0 +1,69 @@
+package ru.maklas.http.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import ru.maklas.http.MultipartWriter;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/** {@link MultipartWriter#encode(java.io.OutputStream, String)} of text fields and a file part from memory or disk **/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MultipartBenchmark {
+
+	private static final String BOUNDARY = "----MHttpBenchmarkBoundary7MA4YWxkTrZu0gW";
+
+	@Param({"1024", "1048576"})
+	public int fileSize;
+
+	private MultipartWriter bytes;
+	private MultipartWriter file;
+	private Path path;
+	private final NullOutputStream out = new NullOutputStream();
+
+	@Setup
+	public void setup() throws IOException {
+		byte[] data = new byte[fileSize];
+		new Random(0).nextBytes(data);
+		path = Files.createTempFile("mhttp-bench-", ".bin");
+		Files.write(path, data);
+		bytes = fields().add("file", data, "data.bin", "application/octet-stream");
+		file = fields().add("file", path, "data.bin", "application/octet-stream");
+	}
+
+	private static MultipartWriter fields() {
+		return new MultipartWriter()
+				.add("do", "upload")
+				.add("description", "Файл для проверки")
+				.add("visibility", "private");
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		Files.deleteIfExists(path);
+	}
+
+	@Benchmark
+	public long encodeBytes() throws IOException {
+		bytes.encode(out, BOUNDARY);
+		return out.getCount();
+	}
+
+	@Benchmark
+	public long encodeFile() throws IOException {
+		file.encode(out, BOUNDARY);
+		return out.getCount();
+	}
+
+	@Benchmark
+	public long contentLength() {
+		return file.contentLength(BOUNDARY);
+	}
+}
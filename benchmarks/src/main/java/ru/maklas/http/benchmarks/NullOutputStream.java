@@ -0,0 +1,23 @@
+package ru.maklas.http.benchmarks;
+
+import java.io.OutputStream;
+
+/** Discards everything, but counts bytes, so JIT can't eliminate writing **/
+class NullOutputStream extends OutputStream {
+
+	private long count;
+
+	@Override
+	public void write(int b) {
+		count++;
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) {
+		count += len;
+	}
+
+	long getCount() {
+		return count;
+	}
+}
@@ -0,0 +1,41 @@
+package ru.maklas.http.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import ru.maklas.http.Unescaper;
+
+import java.util.concurrent.TimeUnit;
+
+/** {@link Unescaper} on a JSON body with and without escaped characters **/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UnescaperBenchmark {
+
+	private String plain;
+	private String escaped;
+
+	@Setup
+	public void setup() {
+		StringBuilder plain = new StringBuilder();
+		StringBuilder escaped = new StringBuilder();
+		for (int i = 0; i < 200; i++) {
+			plain.append("{\"id\":").append(i).append(",\"name\":\"Item number ").append(i).append("\",\"tags\":[\"a\",\"b\"]},");
+			escaped.append("{\"id\":").append(i).append(",\"name\":\"\\u0418\\u0442\\u0435\\u043c ").append(i).append("\",\"path\":\"a\\/b\\\\c\"},");
+		}
+		this.plain = plain.toString();
+		this.escaped = escaped.toString();
+	}
+
+	@Benchmark
+	public String plain() {
+		return Unescaper.translateSafely(plain);
+	}
+
+	@Benchmark
+	public String escaped() {
+		return Unescaper.translateSafely(escaped);
+	}
+}
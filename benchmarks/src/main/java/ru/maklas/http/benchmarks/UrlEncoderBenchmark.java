@@ -0,0 +1,61 @@
+package ru.maklas.http.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import ru.maklas.http.HttpUtils;
+import ru.maklas.http.UrlEncoder;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/** Encoding of a typical form with ascii, reserved and cyrillic characters in every flavor of {@link UrlEncoder} **/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UrlEncoderBenchmark {
+
+	@Param({"java", "js", "jsPlus"})
+	public String flavor;
+
+	private UrlEncoder encoder;
+	private final NullOutputStream out = new NullOutputStream();
+
+	@Setup
+	public void setup() {
+		encoder = new UrlEncoder()
+				.add("login", "user@example.com")
+				.add("password", "p@ss w0rd&=?")
+				.add("name", "Иван Иванович")
+				.add("redirect", "https://example.com/path/to/page?query=value&other=1")
+				.add("remember", true)
+				.add("count", 42);
+		switch (flavor) {
+			case "java": encoder.usingJavaEncoding(); break;
+			case "js": encoder.usingJsEncoding(); break;
+			case "jsPlus": encoder.usingJsAndPlus(); break;
+		}
+	}
+
+	@Benchmark
+	public String encode() {
+		return encoder.encode();
+	}
+
+	@Benchmark
+	public byte[] encodeBytes() {
+		return encoder.encode(HttpUtils.utf_8);
+	}
+
+	@Benchmark
+	public long encodeTo() throws IOException {
+		encoder.encodeTo(out);
+		return out.getCount();
+	}
+
+	@Benchmark
+	public String encodeURIComponent() {
+		return UrlEncoder.encodeURIComponent("Иван Иванович & p@ss w0rd");
+	}
+}
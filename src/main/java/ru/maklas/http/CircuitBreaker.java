@@ -0,0 +1,196 @@
+package ru.maklas.http;
+
+import com.badlogic.gdx.utils.IntSet;
+
+import java.util.EnumSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ * Stops sending requests to a host that keeps failing, so that threads don't pile up waiting on timeouts.
+ * Outcomes of the last {@link #windowSize(int)} requests are kept. When at least {@link #minimumCalls(int)} of them are known and
+ * failure rate reaches {@link #failureRateThreshold(double)}, circuit opens and requests fail right away with
+ * {@link ConnectionException.Type#CIRCUIT_OPEN}. After {@link #openDuration(long)} circuit becomes half-open and lets a few probe requests through.
+ * If all of them succeed, circuit closes. If any fails, it opens again.
+ * </p>
+ * Failures are {@link ConnectionException.Type#TIME_OUT}, {@link ConnectionException.Type#UNKNOWN_ADDRESS},
+ * {@link ConnectionException.Type#CONNECTION_ERROR} and statuses 500, 502, 503 and 504 by default.
+ * Thread-safe. Usually created by {@link CircuitBreakers} for every host.
+ */
+public class CircuitBreaker {
+
+	public enum State {
+		/** Requests are sent, outcomes are recorded **/
+		CLOSED,
+		/** Requests are not sent **/
+		OPEN,
+		/** Limited number of probe requests are sent **/
+		HALF_OPEN
+	}
+
+	private final String name;
+	private final EnumSet<ConnectionException.Type> failureTypes = EnumSet.of(ConnectionException.Type.TIME_OUT, ConnectionException.Type.UNKNOWN_ADDRESS, ConnectionException.Type.CONNECTION_ERROR);
+	private final IntSet failureStatuses = new IntSet();
+	private double failureRateThreshold = 0.5;
+	private int minimumCalls = 20;
+	private long openDurationNanos = TimeUnit.SECONDS.toNanos(30);
+	private int halfOpenCalls = 3;
+
+	private State state = State.CLOSED;
+	/** Incremented on every change of state, so that outcomes of requests started in previous state are ignored **/
+	private long generation;
+	private boolean[] window = new boolean[100];
+	private int windowIndex;
+	private int windowCount;
+	private int failures;
+	private long openedAt;
+	private int halfOpenInFlight;
+	private int halfOpenSuccesses;
+
+	public CircuitBreaker(String name) {
+		this.name = name;
+		failureStatuses.addAll(500, 502, 503, 504);
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/** Replaces types of exceptions that are counted as failures **/
+	public CircuitBreaker failOn(ConnectionException.Type... types) {
+		failureTypes.clear();
+		for (ConnectionException.Type type : types) {
+			failureTypes.add(type);
+		}
+		return this;
+	}
+
+	/** Replaces response codes that are counted as failures **/
+	public CircuitBreaker failOnStatus(int... statuses) {
+		failureStatuses.clear();
+		failureStatuses.addAll(statuses);
+		return this;
+	}
+
+	/** Part of failed requests, from 0 to 1, at which circuit opens. 0.5 by default **/
+	public CircuitBreaker failureRateThreshold(double threshold) {
+		this.failureRateThreshold = threshold;
+		return this;
+	}
+
+	/** Number of outcomes required before failure rate is checked. 20 by default **/
+	public CircuitBreaker minimumCalls(int calls) {
+		this.minimumCalls = Math.max(1, calls);
+		return this;
+	}
+
+	/** Number of last outcomes that are used to calculate failure rate. 100 by default **/
+	public synchronized CircuitBreaker windowSize(int size) {
+		this.window = new boolean[Math.max(1, size)];
+		clearWindow();
+		return this;
+	}
+
+	/** How long circuit stays open before probe requests are allowed. 30 seconds by default **/
+	public CircuitBreaker openDuration(long ms) {
+		this.openDurationNanos = TimeUnit.MILLISECONDS.toNanos(ms);
+		return this;
+	}
+
+	/** Number of probe requests in half-open state. 3 by default **/
+	public CircuitBreaker halfOpenCalls(int calls) {
+		this.halfOpenCalls = Math.max(1, calls);
+		return this;
+	}
+
+	public synchronized State getState() {
+		if (state == State.OPEN && System.nanoTime() - openedAt >= openDurationNanos) {
+			return State.HALF_OPEN;
+		}
+		return state;
+	}
+
+	/** Failure rate of recorded outcomes in closed state, from 0 to 1 **/
+	public synchronized double getFailureRate() {
+		return windowCount == 0 ? 0 : failures / (double) windowCount;
+	}
+
+	/** Closes circuit and forgets all outcomes **/
+	public synchronized void reset() {
+		transition(State.CLOSED);
+	}
+
+	boolean isFailure(ConnectionException.Type type) {
+		return failureTypes.contains(type);
+	}
+
+	boolean isFailure(int status) {
+		return failureStatuses.contains(status);
+	}
+
+	/** @return permit to send request that must be passed to {@link #record(long, boolean)} or {@link #release(long)}, or -1 if circuit is open **/
+	synchronized long acquire() {
+		if (state == State.OPEN) {
+			if (System.nanoTime() - openedAt < openDurationNanos) return -1;
+			transition(State.HALF_OPEN);
+		}
+		if (state == State.HALF_OPEN) {
+			if (halfOpenInFlight >= halfOpenCalls) return -1;
+			halfOpenInFlight++;
+		}
+		return generation;
+	}
+
+	/** Records outcome of request **/
+	synchronized void record(long permit, boolean failure) {
+		if (permit != generation) return;
+		if (state == State.HALF_OPEN) {
+			halfOpenInFlight--;
+			if (failure) {
+				transition(State.OPEN);
+			} else if (++halfOpenSuccesses >= halfOpenCalls) {
+				transition(State.CLOSED);
+			}
+			return;
+		}
+		if (state != State.CLOSED) return;
+		if (windowCount == window.length) {
+			if (window[windowIndex]) failures--;
+		} else {
+			windowCount++;
+		}
+		window[windowIndex] = failure;
+		if (failure) failures++;
+		windowIndex = (windowIndex + 1) % window.length;
+		if (windowCount >= minimumCalls && failures >= failureRateThreshold * windowCount) {
+			transition(State.OPEN);
+		}
+	}
+
+	/** Releases permit of request that ended without outcome, like cancelled one **/
+	synchronized void release(long permit) {
+		if (permit == generation && state == State.HALF_OPEN) {
+			halfOpenInFlight--;
+		}
+	}
+
+	private void transition(State state) {
+		this.state = state;
+		generation++;
+		halfOpenInFlight = 0;
+		halfOpenSuccesses = 0;
+		if (state == State.OPEN) openedAt = System.nanoTime();
+		if (state == State.CLOSED) clearWindow();
+	}
+
+	private void clearWindow() {
+		windowIndex = 0;
+		windowCount = 0;
+		failures = 0;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "CircuitBreaker{" + name + ", " + getState() + ", failureRate=" + getFailureRate() + "}";
+	}
+}
@@ -0,0 +1,61 @@
+package ru.maklas.http;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.net.URL;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * <p>
+ * Registry of {@link CircuitBreaker} by host or by route. Breakers are created on the first request to the host.
+ * </p>
+ * <p>ex:
+ * <br>
+ * Http.setDefaultCircuitBreakers(new CircuitBreakers(name -&gt; new CircuitBreaker(name).openDuration(10_000)));
+ * </p>
+ */
+public class CircuitBreakers {
+
+	private final ConcurrentHashMap<String, CircuitBreaker> breakers = new ConcurrentHashMap<>();
+	private final Function<String, CircuitBreaker> factory;
+	private Function<URL, String> keyFunction = url -> url.getHost().toLowerCase(Locale.ROOT);
+
+	/** Breakers with default settings by host **/
+	public CircuitBreakers() {
+		this(CircuitBreaker::new);
+	}
+
+	/** @param factory creates breaker for the key, which is host unless {@link #keyBy(Function)} is used **/
+	public CircuitBreakers(@NotNull Function<String, CircuitBreaker> factory) {
+		this.factory = factory;
+	}
+
+	/** Route of the url. Use host and first segment of the path, for example, to have separate breakers for services behind one host **/
+	public CircuitBreakers keyBy(@NotNull Function<URL, String> keyFunction) {
+		this.keyFunction = keyFunction;
+		return this;
+	}
+
+	/** Breaker for the url **/
+	public CircuitBreaker get(@NotNull URL url) {
+		return get(keyFunction.apply(url));
+	}
+
+	/** Breaker with the key **/
+	public CircuitBreaker get(@NotNull String key) {
+		CircuitBreaker breaker = breakers.get(key);
+		if (breaker == null) {
+			breaker = breakers.computeIfAbsent(key, factory);
+		}
+		return breaker;
+	}
+
+	/** All breakers by key **/
+	public Map<String, CircuitBreaker> getAll() {
+		return Collections.unmodifiableMap(breakers);
+	}
+}
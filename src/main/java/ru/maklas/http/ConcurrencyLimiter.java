@@ -0,0 +1,253 @@
+package ru.maklas.http;
+
+import com.badlogic.gdx.utils.IntSet;
+
+import java.util.EnumSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
+
+/**
+ * <p>
+ * Limits number of requests in flight to a destination and finds the limit by itself, so that throughput stays near capacity of the server
+ * without queueing on its side. Latency to response headers and failures of every request are used to adjust the limit:
+ * </p>
+ * <ul>
+ *     <li>{@link Algorithm#VEGAS} (default) estimates queue of the server as limit * (1 - minRtt / rtt). Limit grows by one while queue is below alpha
+ *     and shrinks by one when it's above beta</li>
+ *     <li>{@link Algorithm#AIMD} grows limit by one per limit of successful requests</li>
+ * </ul>
+ * <p>
+ * With both algorithms limit is multiplied by {@link #backoffRatio(double)} on {@link ConnectionException.Type#TIME_OUT},
+ * {@link ConnectionException.Type#CONNECTION_ERROR} and statuses 429, 502, 503 and 504.
+ * Limit grows only when at least half of it is in use. Requests above the limit wait in queue up to {@link #maxWait(long)},
+ * or fail with {@link ConnectionException.Type#CONCURRENCY_LIMITED} if the queue is full.
+ * </p>
+ * Thread-safe. Usually created by {@link ConcurrencyLimiters} for every host.
+ */
+public class ConcurrencyLimiter {
+
+	public enum Algorithm {
+		/** Latency based, like TCP Vegas **/
+		VEGAS,
+		/** Additive increase, multiplicative decrease on failure **/
+		AIMD
+	}
+
+	/** Samples after which min RTT is forgotten, so that limit can adapt to slower server **/
+	private static final int MIN_RTT_RESET = 1000;
+
+	private final String name;
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition available = lock.newCondition();
+	private final EnumSet<ConnectionException.Type> dropTypes = EnumSet.of(ConnectionException.Type.TIME_OUT, ConnectionException.Type.CONNECTION_ERROR);
+	private final IntSet dropStatuses = new IntSet();
+	private Algorithm algorithm = Algorithm.VEGAS;
+	private double minLimit = 1;
+	private double maxLimit = 1000;
+	private double backoffRatio = 0.9;
+	private double alpha = 3;
+	private double beta = 6;
+	private int maxQueue = 1000;
+	private long maxWaitNanos = TimeUnit.SECONDS.toNanos(10);
+
+	private double limit = 20;
+	private int inFlight;
+	private int queued;
+	private long minRtt = Long.MAX_VALUE;
+	private int samples;
+
+	public ConcurrencyLimiter(String name) {
+		this.name = name;
+		dropStatuses.addAll(429, 502, 503, 504);
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/** {@link Algorithm#VEGAS} by default **/
+	public ConcurrencyLimiter algorithm(Algorithm algorithm) {
+		lock.lock();
+		try {
+			this.algorithm = algorithm;
+		} finally {
+			lock.unlock();
+		}
+		return this;
+	}
+
+	/** Initial, min and max limit. 20, 1 and 1000 by default **/
+	public ConcurrencyLimiter limits(int initial, int min, int max) {
+		lock.lock();
+		try {
+			this.minLimit = Math.max(1, min);
+			this.maxLimit = Math.max(minLimit, max);
+			this.limit = Math.max(minLimit, Math.min(maxLimit, initial));
+			available.signalAll();
+		} finally {
+			lock.unlock();
+		}
+		return this;
+	}
+
+	/** Limit is multiplied by this on failure. 0.9 by default **/
+	public ConcurrencyLimiter backoffRatio(double ratio) {
+		this.backoffRatio = Math.max(0.1, Math.min(1, ratio));
+		return this;
+	}
+
+	/** Bounds of estimated queue of the server in {@link Algorithm#VEGAS}. 3 and 6 by default **/
+	public ConcurrencyLimiter vegas(double alpha, double beta) {
+		this.alpha = alpha;
+		this.beta = Math.max(alpha, beta);
+		return this;
+	}
+
+	/** Max number of requests waiting for the limit. 0 to fail right away. 1000 by default **/
+	public ConcurrencyLimiter maxQueue(int maxQueue) {
+		this.maxQueue = Math.max(0, maxQueue);
+		return this;
+	}
+
+	/** Longest wait in queue. 10 seconds by default **/
+	public ConcurrencyLimiter maxWait(long ms) {
+		this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(ms);
+		return this;
+	}
+
+	/** Replaces response codes that are counted as overload **/
+	public ConcurrencyLimiter dropOnStatus(int... statuses) {
+		dropStatuses.clear();
+		dropStatuses.addAll(statuses);
+		return this;
+	}
+
+	public int getLimit() {
+		lock.lock();
+		try {
+			return (int) limit;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public int getInFlight() {
+		lock.lock();
+		try {
+			return inFlight;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public int getQueued() {
+		lock.lock();
+		try {
+			return queued;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	boolean isDrop(ConnectionException.Type type) {
+		return dropTypes.contains(type);
+	}
+
+	boolean isDrop(int status) {
+		return dropStatuses.contains(status);
+	}
+
+	/**
+	 * Takes a place in flight, waiting in queue if limit is reached. Must be followed by {@link #release()}.
+	 * @return false if queue is full, wait is too long or request was cancelled
+	 */
+	boolean acquire(BooleanSupplier cancelled) throws InterruptedException {
+		lock.lock();
+		try {
+			if (inFlight < (int) limit) {
+				inFlight++;
+				return true;
+			}
+			if (queued >= maxQueue) return false;
+			queued++;
+			try {
+				long left = maxWaitNanos;
+				while (inFlight >= (int) limit) {
+					if (left <= 0 || cancelled.getAsBoolean()) return false;
+					left = available.awaitNanos(left);
+					if (cancelled.getAsBoolean()) {
+						if (inFlight < (int) limit) available.signal(); //Place is passed to the next request in queue
+						return false;
+					}
+				}
+				inFlight++;
+				return true;
+			} finally {
+				queued--;
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	void release() {
+		lock.lock();
+		try {
+			inFlight--;
+			available.signal();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/** Wakes up waiting requests, so that cancelled ones leave the queue **/
+	void wakeUp() {
+		lock.lock();
+		try {
+			available.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/** Adjusts limit. @param rtt time from the end of request body till response headers, 0 if unknown **/
+	void record(long rtt, boolean drop) {
+		lock.lock();
+		try {
+			int before = (int) limit;
+			boolean utilized = inFlight * 2 >= limit;
+			if (drop) {
+				limit = Math.max(minLimit, limit * backoffRatio);
+			} else if (algorithm == Algorithm.AIMD) {
+				if (utilized) limit = Math.min(maxLimit, limit + 1 / limit);
+			} else {
+				if (rtt <= 0) return;
+				if (rtt < minRtt || ++samples >= MIN_RTT_RESET) {
+					minRtt = rtt;
+					samples = 0;
+				}
+				double queue = limit * (1 - minRtt / (double) rtt);
+				if (queue < alpha) {
+					if (utilized) limit = Math.min(maxLimit, limit + 1);
+				} else if (queue > beta) {
+					limit = Math.max(minLimit, limit - 1);
+				}
+			}
+			if ((int) limit > before) available.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public String toString() {
+		lock.lock();
+		try {
+			return "ConcurrencyLimiter{" + name + ", " + algorithm + ", limit=" + (int) limit + ", inFlight=" + inFlight + ", queued=" + queued + "}";
+		} finally {
+			lock.unlock();
+		}
+	}
+}
@@ -0,0 +1,62 @@
+package ru.maklas.http;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.net.URL;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * <p>
+ * Registry of {@link ConcurrencyLimiter} by host or by route. Limiters are created on the first request to the host,
+ * so hundreds of hosts get their own limits without tuning.
+ * </p>
+ * <p>ex:
+ * <br>
+ * Http.setDefaultConcurrencyLimiters(new ConcurrencyLimiters(name -&gt; new ConcurrencyLimiter(name).limits(10, 2, 200)));
+ * </p>
+ */
+public class ConcurrencyLimiters {
+
+	private final ConcurrentHashMap<String, ConcurrencyLimiter> limiters = new ConcurrentHashMap<>();
+	private final Function<String, ConcurrencyLimiter> factory;
+	private Function<URL, String> keyFunction = url -> url.getHost().toLowerCase(Locale.ROOT);
+
+	/** Limiters with default settings by host **/
+	public ConcurrencyLimiters() {
+		this(ConcurrencyLimiter::new);
+	}
+
+	/** @param factory creates limiter for the key, which is host unless {@link #keyBy(Function)} is used **/
+	public ConcurrencyLimiters(@NotNull Function<String, ConcurrencyLimiter> factory) {
+		this.factory = factory;
+	}
+
+	/** Route of the url. Use host and first segment of the path, for example, to limit services behind one host separately **/
+	public ConcurrencyLimiters keyBy(@NotNull Function<URL, String> keyFunction) {
+		this.keyFunction = keyFunction;
+		return this;
+	}
+
+	/** Limiter for the url **/
+	public ConcurrencyLimiter get(@NotNull URL url) {
+		return get(keyFunction.apply(url));
+	}
+
+	/** Limiter with the key **/
+	public ConcurrencyLimiter get(@NotNull String key) {
+		ConcurrencyLimiter limiter = limiters.get(key);
+		if (limiter == null) {
+			limiter = limiters.computeIfAbsent(key, factory);
+		}
+		return limiter;
+	}
+
+	/** All limiters by key **/
+	public Map<String, ConcurrencyLimiter> getAll() {
+		return Collections.unmodifiableMap(limiters);
+	}
+}
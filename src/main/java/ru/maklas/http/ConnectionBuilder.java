@@ -6,6 +6,7 @@ import org.intellij.lang.annotations.MagicConstant;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import javax.net.ssl.HttpsURLConnection;
 import java.io.IOException;
 import java.net.*;
 import java.nio.charset.Charset;
@@ -13,6 +14,7 @@ import java.util.regex.Pattern;
 
 public class ConnectionBuilder {
 
+	/** Not used to parse urls anymore, see {@link UrlBuilder#parse(String)} **/
 	public static final Pattern PROTOCOL_PATTERN = Pattern.compile("^[.\\-+a-zA-Z0-9]+://.+");
 
 	private final String method;
@@ -24,10 +26,18 @@ public class ConnectionBuilder {
 	private Boolean followRedirect;
 	private Boolean useCache;
 	private byte[] output = null;
+	private RequestBody body = null; //Either of output or body can be set
+	private UrlEncoder query = null; //Query of GET request. Appended to the url during build
 	private String multipartBoundary = null;
 	private MultipartWriter multipartWriter = null;
 	private boolean built = false;
 	private CookieStore assignedCookieStore; //Cookie database that will be changed according to set-cookie header
+	private RetryPolicy retryPolicy; //If null, Http.defaultRetryPolicy is used
+	private CircuitBreakers circuitBreakers; //If null, Http.defaultCircuitBreakers is used
+	private RateLimiters rateLimiters; //If null, Http.defaultRateLimiters is used
+	private ConcurrencyLimiters concurrencyLimiters; //If null, Http.defaultConcurrencyLimiters is used
+	private long deadline; //If 0, Http.defaultDeadline is used
+	private TlsConfig tls; //If null, Http.defaultTls is used
 
 	public ConnectionBuilder(@NotNull @MagicConstant(valuesFromClass = Http.class) String method) {
 		this.method = method;
@@ -48,14 +58,22 @@ public class ConnectionBuilder {
 		cb.proxy = proxy;
 		cb.followRedirect = followRedirect;
 		cb.useCache = useCache;
+		cb.query = query;
 		cb.built = built;
 		if (output != null) {
 			cb.output = new byte[output.length];
 			System.arraycopy(output, 0, cb.output, 0, output.length);
 		}
+		cb.body = body;
 		cb.multipartWriter = multipartWriter;
 		cb.multipartBoundary = multipartBoundary;
 		cb.assignedCookieStore = assignedCookieStore;
+		cb.retryPolicy = retryPolicy;
+		cb.circuitBreakers = circuitBreakers;
+		cb.rateLimiters = rateLimiters;
+		cb.concurrencyLimiters = concurrencyLimiters;
+		cb.deadline = deadline;
+		cb.tls = tls;
 	}
 
 	/** new ConnectionBuilder starting with get method request **/
@@ -91,7 +109,7 @@ public class ConnectionBuilder {
 
 	/** new ConnectionBuilder starting with get method request **/
 	public static ConnectionBuilder get(String base, @Nullable String path, @Nullable UrlEncoder query) {
-		return get(combineUrl(base, path)).write(query == null ? null : query.encode(HttpUtils.utf_8));
+		return get(combineUrl(base, path)).query(query);
 	}
 
 	/** new ConnectionBuilder starting with pot method request **/
@@ -116,10 +134,28 @@ public class ConnectionBuilder {
 		return this;
 	}
 
-	/** Specify connection address. **/
+	/**
+	 * Specify connection address.
+	 * If this request is GET, query is appended to the url. Otherwise it's written to the output.
+	 */
 	public ConnectionBuilder url(String base, String path, @Nullable UrlEncoder query) {
 		url(combineUrl(base, path));
-		if (query != null) write(query.encode().getBytes(HttpUtils.utf_8));
+		if (query != null) {
+			if (Http.GET.equals(method)) {
+				query(query);
+			} else {
+				write(query.encode().getBytes(HttpUtils.utf_8));
+			}
+		}
+		return this;
+	}
+
+	/**
+	 * Query that will be appended to the url of GET request. Encoded during {@link #build()}.
+	 * Url is not parsed again, see {@link UrlBuilder}
+	 */
+	public ConnectionBuilder query(@Nullable UrlEncoder query) {
+		this.query = query;
 		return this;
 	}
 
@@ -241,13 +277,12 @@ public class ConnectionBuilder {
 	 * <p>
 	 * Assigns cookies from the store and uses it in Cookie header.
 	 * If this request succeed, cookies will be affected by Set-Cookie header.
+	 * Cookies are taken from the store when request is sent, only the ones of the request host are looked up.
+	 * Cookies added with {@link #addCookie(Cookie)} replace cookies of the store with the same key.
 	 * <b>Cookie with non-empty and non-url-matching domain won't be added to the request.</b>
 	 * </p>
 	 */
 	public ConnectionBuilder assignCookieStore(CookieStore cookieStore) {
-		for (Cookie cookie : cookieStore) {
-			addCookie(cookie);
-		}
 		this.assignedCookieStore = cookieStore;
 		return this;
 	}
@@ -270,6 +305,49 @@ public class ConnectionBuilder {
 		return this;
 	}
 
+	/**
+	 * Policy for sending request again on failure. Overrides {@link Http#setDefaultRetryPolicy(RetryPolicy)}.
+	 * Use {@link RetryPolicy#none()} to disable retries of this request
+	 */
+	public ConnectionBuilder retry(@Nullable RetryPolicy policy) {
+		this.retryPolicy = policy;
+		return this;
+	}
+
+	/** Circuit breakers that guard this request. Overrides {@link Http#setDefaultCircuitBreakers(CircuitBreakers)} **/
+	public ConnectionBuilder circuitBreakers(@Nullable CircuitBreakers breakers) {
+		this.circuitBreakers = breakers;
+		return this;
+	}
+
+	/** Rate limiters that pace this request. Overrides {@link Http#setDefaultRateLimiters(RateLimiters)} **/
+	public ConnectionBuilder rateLimiters(@Nullable RateLimiters limiters) {
+		this.rateLimiters = limiters;
+		return this;
+	}
+
+	/** Limiters of requests in flight. Overrides {@link Http#setDefaultConcurrencyLimiters(ConcurrencyLimiters)} **/
+	public ConnectionBuilder concurrencyLimiters(@Nullable ConcurrencyLimiters limiters) {
+		this.concurrencyLimiters = limiters;
+		return this;
+	}
+
+	/**
+	 * Limits total time of the request in milliseconds, counting from the call of send(): waiting for limiters, connecting, writing body,
+	 * waiting for response, reading full body and all retries. When it passes, connection is closed and request fails with {@link ConnectionException.Type#TIME_OUT}.
+	 * Overrides {@link Http#setDefaultDeadline(long)}
+	 */
+	public ConnectionBuilder deadline(long ms) {
+		this.deadline = ms;
+		return this;
+	}
+
+	/** SSLContext, protocols and cipher suites of HTTPS connection. Overrides {@link Http#setDefaultTls(TlsConfig)} **/
+	public ConnectionBuilder tls(@Nullable TlsConfig tls) {
+		this.tls = tls;
+		return this;
+	}
+
 	/** @see URLConnection#setUseCaches(boolean) **/
 	public ConnectionBuilder cache(boolean enabled) {
 		this.useCache = enabled;
@@ -313,7 +391,28 @@ public class ConnectionBuilder {
 	 * </p>
 	 */
 	public ConnectionBuilder writeUrlEncoded(UrlEncoder encoder) {
-		return write(Header.ContentType.form_urlencoded, encoder.encode());
+		if (Http.GET.equals(method)) {
+			headers.addUnique(Header.ContentType.form_urlencoded);
+			return query(encoder);
+		}
+		return write(Header.ContentType.form_urlencoded, new FormBody(encoder));
+	}
+
+	/** Appends Content-Type header and writes body to the output when request is sent **/
+	public ConnectionBuilder write(Header.ContentType contentType, RequestBody body) {
+		headers.addUnique(contentType);
+		return write(body);
+	}
+
+	/**
+	 * Body will be written straight to the output of connection when request is sent.
+	 * Replaces data specified with {@link #write(byte[])}
+	 * @see RequestBody
+	 */
+	public ConnectionBuilder write(@NotNull RequestBody body) {
+		this.body = body;
+		this.output = null;
+		return this;
 	}
 
 	/** Specifies Content-Type as 'application/javascript; charset=UTF-8' and writes jsonString to the output **/
@@ -373,6 +472,7 @@ public class ConnectionBuilder {
 	 */
 	public ConnectionBuilder write(byte[] data) {
 		this.output = data;
+		this.body = null;
 		return this;
 	}
 
@@ -399,6 +499,20 @@ public class ConnectionBuilder {
 			headers.add(cookieHeader);
 		}
 
+		preprocessHeaders(url);
+		HttpURLConnection javaCon = prepareConnection(url, headers);
+		Request request = new Request(javaCon, url, method, output, body, multipartBoundary, multipartWriter, headers, this);
+		request.streamed = isStreamed();
+		return request;
+	}
+
+	/** Opens connection to the url with method, settings, headers and streaming mode of this builder. Doesn't connect **/
+	HttpURLConnection prepareConnection(URL url, HeaderList headers) throws ConnectionException {
+		return prepareConnection(url, headers, method);
+	}
+
+	/** Opens connection with another method. Body of this builder is not sent with GET **/
+	HttpURLConnection prepareConnection(URL url, HeaderList headers, String method) throws ConnectionException {
 		HttpURLConnection javaCon = null;
 		try {
 			javaCon = openConnection(url);
@@ -412,16 +526,51 @@ public class ConnectionBuilder {
 		}
 		if (followRedirect != null) javaCon.setInstanceFollowRedirects(followRedirect);
 		if (useCache != null) javaCon.setUseCaches(useCache);
+		TlsConfig tls = this.tls != null ? this.tls : Http.defaultTls;
+		if (tls != null && javaCon instanceof HttpsURLConnection) {
+			((HttpsURLConnection) javaCon).setSSLSocketFactory(tls.getSocketFactory());
+		}
 
-		preprocessHeaders(url);
 		for (Header header : headers) {
 			javaCon.addRequestProperty(header.key, header.value);
 		}
-		if ((multipartWriter != null || output != null) && !Http.GET.equals(method)) {
+		if (hasBody() && !Http.GET.equals(method)) {
 			javaCon.setDoOutput(true);
+			long length = bodyLength();
+			if (isStreamed(length)) {
+				if (length < 0) {
+					javaCon.setChunkedStreamingMode(0);
+				} else {
+					javaCon.setFixedLengthStreamingMode(length);
+				}
+			}
 		}
+		return javaCon;
+	}
+
+	private boolean hasBody() {
+		return (multipartWriter != null || output != null || body != null) && !Http.GET.equals(method);
+	}
+
+	/** Length of multipart or RequestBody, -1 if unknown **/
+	private long bodyLength() {
+		if (multipartWriter != null) return multipartWriter.contentLength(multipartBoundary);
+		if (body != null) return body.contentLength();
+		return output != null ? output.length : 0;
+	}
 
-		return new Request(javaCon, url, method, output, multipartBoundary, multipartWriter, headers, this);
+	/** Whether body is streamed, so that HttpUrlConnection can't follow redirects by itself **/
+	private boolean isStreamed() {
+		return hasBody() && isStreamed(bodyLength());
+	}
+
+	/**
+	 * Bodies of known length, starting from {@link Http#setStreamingThreshold(long)}, are streamed with fixed length.
+	 * Bodies of unknown length are sent chunked. Otherwise HttpUrlConnection buffers whole body in memory
+	 */
+	private boolean isStreamed(long length) {
+		if (output != null || Http.streamingThreshold == Long.MAX_VALUE) return false;
+		return length < 0 || length >= Http.streamingThreshold;
 	}
 
 	public FullResponse send() throws ConnectionException {
@@ -429,49 +578,35 @@ public class ConnectionBuilder {
 		return request.send();
 	}
 
+	/**
+	 * Compiles this builder into immutable {@link RequestTemplate} that can be used to send requests of the same shape
+	 * without building and parsing everything again. This builder is not affected.
+	 */
+	public RequestTemplate toTemplate() throws ConnectionException {
+		return RequestTemplate.compile(this);
+	}
+
 	//************//
 	//* PRIVATES *//
 	//************//
 
 	private URL buildUrl() throws MalformedURLException {
-		URL url;
+		URL url = this.url != null ? this.url : parseUrl(stringUrl);
 
-		if (Http.GET.equals(method) && output != null) {
-			String query = new String(output);
-			if (this.url != null) {
-				url = parseUrl(construct(this.url.toString(), query));
-			} else {
-				url = parseUrl(construct(stringUrl, query));
+		if (Http.GET.equals(method)) {
+			if (output != null) {
+				url = UrlBuilder.appendQuery(url, new String(output, HttpUtils.utf_8));
 			}
-		} else {
-			if (this.url != null) {
-				url = this.url;
-			} else {
-				url = parseUrl(stringUrl);
+			if (query != null && query.getPairs().size > 0) {
+				url = UrlBuilder.appendQuery(url, query.encode());
 			}
 		}
 		return url;
 	}
 
-	/** appends query string to the url **/
-	private static String construct(String url, @NotNull String query) {
-		if (url == null) url = "";
-
-		if (url.endsWith("?")) {
-			return url + query;
-		} else {
-			if (url.endsWith("/")) {
-				url = url.substring(0, url.length() - 1);
-			}
-			return url + "?" + query;
-		}
-	}
-
-	private static URL parseUrl(String fullQuery) throws MalformedURLException {
-		if (!PROTOCOL_PATTERN.matcher(fullQuery).matches()) {
-			return new URL("http://" + fullQuery);
-		}
-		return new URL(fullQuery);
+	static URL parseUrl(String fullQuery) throws MalformedURLException {
+		if (fullQuery == null) throw new MalformedURLException("Url is not specified");
+		return UrlBuilder.parse(fullQuery);
 	}
 
 	private static String combineUrl(String baseUrl, @Nullable String path) {
@@ -499,16 +634,18 @@ public class ConnectionBuilder {
 		}
 	}
 
-	private Header buildCookieHeader(URL url) {
-		if (cookies.size == 0) return null;
+	Header buildCookieHeader(URL url) {
+		CookieStore store = assignedCookieStore;
+		if (cookies.size == 0 && (store == null || store.size() == 0)) return null;
 		StringBuilder builder = new StringBuilder();
+		if (store != null) {
+			for (Cookie cookie : store.getCookiesFor(url.getHost())) {
+				if (!hasCookie(cookie.key)) appendCookie(builder, cookie);
+			}
+		}
 		for (Cookie cookie : cookies) {
 			if (StringUtils.isEmpty(cookie.getDomain()) || cookie.appliesToDomain(url.getHost())) {
-				builder
-						.append(cookie.getKey())
-						.append("=")
-						.append(cookie.getValue())
-						.append("; ");
+				appendCookie(builder, cookie);
 			}
 		}
 
@@ -517,6 +654,21 @@ public class ConnectionBuilder {
 		return new Header(Cookie.headerKey, builder.toString());
 	}
 
+	private boolean hasCookie(String key) {
+		for (Cookie cookie : cookies) {
+			if (cookie.key.equals(key)) return true;
+		}
+		return false;
+	}
+
+	private static void appendCookie(StringBuilder builder, Cookie cookie) {
+		builder
+				.append(cookie.getKey())
+				.append("=")
+				.append(cookie.getValue())
+				.append("; ");
+	}
+
 	private HttpURLConnection openConnection(URL url) throws IOException {
 		HttpURLConnection con;
 		if (proxy == null) {
@@ -541,6 +693,49 @@ public class ConnectionBuilder {
 		return proxy;
 	}
 
+	Array<Cookie> getCookies() {
+		return cookies;
+	}
+
+	@Nullable
+	Boolean getFollowRedirect() {
+		return followRedirect;
+	}
+
+	@Nullable
+	RetryPolicy getRetryPolicy() {
+		return retryPolicy;
+	}
+
+	@Nullable
+	CircuitBreakers getCircuitBreakers() {
+		return circuitBreakers;
+	}
+
+	@Nullable
+	RateLimiters getRateLimiters() {
+		return rateLimiters;
+	}
+
+	@Nullable
+	ConcurrencyLimiters getConcurrencyLimiters() {
+		return concurrencyLimiters;
+	}
+
+	long getDeadline() {
+		return deadline;
+	}
+
+	@Nullable
+	TlsConfig getTls() {
+		return tls;
+	}
+
+	@Nullable
+	Boolean getUseCache() {
+		return useCache;
+	}
+
 	URL getUrl() {
 		return url;
 	}
@@ -554,6 +749,16 @@ public class ConnectionBuilder {
 		return output;
 	}
 
+	@Nullable
+	RequestBody getBody() {
+		return body;
+	}
+
+	@Nullable
+	UrlEncoder getQuery() {
+		return query;
+	}
+
 	public String getMultipartBoundary() {
 		return multipartBoundary;
 	}
@@ -44,6 +44,18 @@ public class ConnectionException extends Exception {
 		 */
 		CONNECTION_ERROR,
 
+		/** Request was aborted by {@link Request#cancel()} **/
+		CANCELLED,
+
+		/** Request wasn't sent, because {@link CircuitBreaker} of the host is open after too many failures **/
+		CIRCUIT_OPEN,
+
+		/** Request wasn't sent, because {@link RateLimiters} had no permit for it in time **/
+		RATE_LIMITED,
+
+		/** Request wasn't sent, because {@link ConcurrencyLimiter} of the host had too many requests in flight and in queue **/
+		CONCURRENCY_LIMITED,
+
 	}
 
 	private final Type type;
@@ -124,6 +136,8 @@ public class ConnectionException extends Exception {
 			if (builder.getOutput() != null) {
 				w.println("HTTP Body:");
 				w.println(new String(builder.getOutput(), HttpUtils.utf_8));
+			} else if (builder.getBody() != null) {
+				w.println("HTTP Body: " + builder.getBody());
 			}
 			w.println();
 			w.println("Exception Type: " + type + ". Trace:");
@@ -22,7 +22,9 @@ public class ConsumedResponse extends Response {
 	public ConsumedResponse(HttpURLConnection javaCon, URL url, int msToConnect, Request request, @NotNull ResponseReceiver receiver) {
 		super(javaCon, url, msToConnect, request);
 		this.receiver = receiver;
+		long start = System.nanoTime();
 		receive(receiver);
+		request.timings.add(Timings.Phase.DOWNLOAD, System.nanoTime() - start);
 	}
 
 	public boolean isErrorStreamUsed() {
@@ -75,6 +77,7 @@ public class ConsumedResponse extends Response {
 		}
 		try {
 			hasBody = true;
+			received = counter;
 			receiver.receive(this, contentLength, is, counter, errorStreamUsed);
 		} catch (Exception e) {
 			e.printStackTrace();
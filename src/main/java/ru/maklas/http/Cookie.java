@@ -1,5 +1,6 @@
 package ru.maklas.http;
 
+import com.badlogic.gdx.utils.Array;
 import org.apache.commons.lang3.StringUtils;
 import org.jetbrains.annotations.NotNull;
 
@@ -25,6 +26,7 @@ public class Cookie {
 	private String path;
 	private boolean secure;
 	private boolean httpOnly;
+	private final Array<CookieStore> stores = new Array<>(false, 1); //Stores that contain this cookie. Changes of domain invalidate their domain index
 
 
 	public Cookie(Cookie cookie) {
@@ -60,7 +62,9 @@ public class Cookie {
 		this.created = cookie.created;
 		this.expires = cookie.expires;
 		this.maxAge = cookie.maxAge;
+		boolean domainChanged = !StringUtils.equals(this.domain, cookie.domain);
 		this.domain = cookie.domain;
+		if (domainChanged) domainChanged();
 		this.path = cookie.path;
 		this.secure = cookie.secure;
 		this.httpOnly = cookie.httpOnly;
@@ -120,15 +124,36 @@ public class Cookie {
 	 * <li>www.example.com -> example.com</li>
 	 * <li>.www.example.com -> example.com</li>
 	 * <li>eXamPle.com -> example.com</li>
+	 * <li>www.co.uk -> www.co.uk (www. is not stripped if the rest is a public suffix)</li>
 	 */
 	public void setDomain(String domain) {
 		this.domain = formatDomain(domain);
+		domainChanged();
+	}
+
+	/** Cookie was added to the store **/
+	synchronized void addedTo(CookieStore store) {
+		stores.add(store);
+	}
+
+	/** Cookie was removed from the store **/
+	synchronized void removedFrom(CookieStore store) {
+		stores.removeValue(store, true);
+	}
+
+	private synchronized void domainChanged() {
+		for (int i = 0; i < stores.size; i++) {
+			stores.get(i).domainChanged();
+		}
 	}
 
 	private static String formatDomain(String unformatted) {
 		if (unformatted != null) {
-			unformatted = unformatted.startsWith(".") ? unformatted.substring(1) : unformatted;
-			return unformatted.startsWith("www.") ? unformatted.substring(4).toLowerCase() : unformatted.toLowerCase();
+			String domain = (unformatted.startsWith(".") ? unformatted.substring(1) : unformatted).toLowerCase();
+			if (domain.startsWith("www.") && !PublicSuffixList.getDefault().isPublicSuffix(domain.substring(4))) {
+				return domain.substring(4);
+			}
+			return domain;
 		}
 		return null;
 	}
@@ -255,8 +280,7 @@ public class Cookie {
 					} catch (Throwable ignore) { }
 				} else if ("Domain".equalsIgnoreCase(mKey)) {
 					String domain = formatDomain(mValue);
-					if (domain.equals(lowerCaseHost) ||
-							(domain.length() > lowerCaseHost.length() && domain.endsWith(lowerCaseHost) && domain.charAt(domain.length() - lowerCaseHost.length() - 1) == '.')) {
+					if (isAllowedDomain(domain, lowerCaseHost)) {
 						this.domain = domain;
 					}
 				} else if ("Path".equalsIgnoreCase(mKey)) {
@@ -274,6 +298,21 @@ public class Cookie {
 		}
 	}
 
+	/**
+	 * Domain attribute is only accepted if request host domain-matches it and it's not a public suffix.
+	 * Otherwise cookie stays bound to the request host.
+	 */
+	private static boolean isAllowedDomain(String domain, String lowerCaseHost) {
+		if (StringUtils.isEmpty(domain)) return false;
+		if (domain.equals(lowerCaseHost)) return true;
+		boolean domainMatches = lowerCaseHost.length() > domain.length()
+				&& lowerCaseHost.endsWith(domain)
+				&& lowerCaseHost.charAt(lowerCaseHost.length() - domain.length() - 1) == '.';
+		return domainMatches
+				&& !PublicSuffixList.isIpAddress(lowerCaseHost)
+				&& !PublicSuffixList.getDefault().isPublicSuffix(domain);
+	}
+
 	private static long parseExpires(String date) {
 		if (date.length() == 29) { //Sun, 06 Nov 1994 08:49:37 GMT
 			try {
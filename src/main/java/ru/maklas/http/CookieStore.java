@@ -1,6 +1,7 @@
 package ru.maklas.http;
 
 import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.ObjectMap;
 import com.badlogic.gdx.utils.Predicate;
 import org.apache.commons.lang3.StringUtils;
 import org.jetbrains.annotations.NotNull;
@@ -9,9 +10,14 @@ import org.jetbrains.annotations.Nullable;
 import java.io.UnsupportedEncodingException;
 import java.net.URLDecoder;
 import java.util.Iterator;
+import java.util.NoSuchElementException;
 import java.util.function.Consumer;
 
-/** Storage for cookies. Stores cookies and manages cookie changes **/
+/**
+ * Storage for cookies. Stores cookies and manages cookie changes.
+ * Methods are synchronized, so the store can be assigned to requests sent from different threads.
+ * Iteration over the store must be synchronized on it.
+ */
 public class CookieStore implements Iterable<Cookie> {
 
 	public static final Predicate<Cookie> COOKIE_PREDICATE_ALLOW_ALL = new Predicate<Cookie>() {
@@ -23,6 +29,8 @@ public class CookieStore implements Iterable<Cookie> {
 
 	private Array<Cookie> cookies;
 	private Predicate<Cookie> cookieChangePredicate = COOKIE_PREDICATE_ALLOW_ALL;
+	private final ObjectMap<String, Array<Cookie>> domainIndex = new ObjectMap<>(); //Registrable domain -> cookies. Updated with cookies
+	private volatile boolean indexDirty; //Domain of a stored cookie was changed. Index is rebuilt on next lookup
 
 	public CookieStore() {
 		cookies = new Array<>(5);
@@ -32,7 +40,7 @@ public class CookieStore implements Iterable<Cookie> {
 	 * @return null if there was no cookie before, otherwise returns old cookie value
 	 * which is never null or empty string.
 	 */
-	public String setCookie(Cookie cookie) {
+	public synchronized String setCookie(Cookie cookie) {
 		if (Cookie.shouldBeDeleted(cookie.getValue())) {
 			return remove(cookie.getKey());
 		}
@@ -45,23 +53,55 @@ public class CookieStore implements Iterable<Cookie> {
 			}
 		}
 
-		cookies.add(cookie);
+		add(cookie);
 		return null;
 	}
 
 	/** Adds a cookie even if it's already present **/
-	public void addCookie(Cookie cookie) {
+	public synchronized void addCookie(Cookie cookie) {
 		if (Cookie.shouldBeDeleted(cookie.getValue())) {
 			remove(cookie.getKey());
 			return;
 		}
+		add(cookie);
+	}
+
+	private void add(Cookie cookie) {
 		cookies.add(cookie);
+		cookie.addedTo(this);
+		index(cookie);
+	}
+
+	private void index(Cookie cookie) {
+		String key = domainKey(cookie);
+		Array<Cookie> bucket = domainIndex.get(key);
+		if (bucket == null) {
+			bucket = new Array<>(4);
+			domainIndex.put(key, bucket);
+		}
+		bucket.add(cookie);
+	}
+
+	private void removed(Cookie cookie) {
+		cookie.removedFrom(this);
+		String key = domainKey(cookie);
+		Array<Cookie> bucket = domainIndex.get(key);
+		if (bucket == null || !bucket.removeValue(cookie, true)) {
+			indexDirty = true; //Domain was changed after the cookie was indexed
+		} else if (bucket.size == 0) {
+			domainIndex.remove(key);
+		}
+	}
+
+	private static String domainKey(Cookie cookie) {
+		String domain = cookie.getDomain();
+		return domain.isEmpty() ? "" : PublicSuffixList.getDefault().getDomainKey(domain);
 	}
 
 	@NotNull
 	@Override
 	public Iterator<Cookie> iterator() {
-		return cookies.iterator();
+		return new IndexedIterator();
 	}
 
 	/** @return null if there is no cookie with this name **/
@@ -70,7 +110,7 @@ public class CookieStore implements Iterable<Cookie> {
 	}
 
 	/** @return null if there is no cookie with this name **/
-	public Cookie getCookieFull(String key) {
+	public synchronized Cookie getCookieFull(String key) {
 		for (Cookie cookie : cookies) {
 			if (cookie.getKey().equals(key)) {
 				return cookie;
@@ -80,7 +120,7 @@ public class CookieStore implements Iterable<Cookie> {
 	}
 
 	/** @return default value if there is no cookie with this name **/
-	public String getCookie(String key, String def) {
+	public synchronized String getCookie(String key, String def) {
 		for (Cookie cookie : cookies) {
 			if (cookie.getKey().equals(key)) {
 				return cookie.getValue();
@@ -95,7 +135,11 @@ public class CookieStore implements Iterable<Cookie> {
 	}
 
 	public void addAll(CookieStore cookies) {
-		addAll(cookies.cookies);
+		Array<Cookie> copy;
+		synchronized (cookies) {
+			copy = new Array<>(cookies.cookies);
+		}
+		addAll(copy);
 	}
 
 	public void addAll(Array<Cookie> cookies) {
@@ -105,7 +149,7 @@ public class CookieStore implements Iterable<Cookie> {
 	}
 
 	/** @return null if there was no cookie with the same key. Otherwise returns old cookie value **/
-	public String remove(String key) {
+	public synchronized String remove(String key) {
 		Cookie toRemove = null;
 
 		for (Cookie cookie : cookies) {
@@ -117,27 +161,63 @@ public class CookieStore implements Iterable<Cookie> {
 		if (toRemove == null) return null;
 
 		cookies.removeValue(toRemove, true);
+		removed(toRemove);
 		return toRemove.getValue();
 	}
 
+	/**
+	 * Cookies that apply to the host: cookies with empty domain and cookies whose domain matches the host.
+	 * Only cookies of the same site (registrable domain, see {@link PublicSuffixList}) are checked,
+	 * so lookup doesn't depend on the number of cookies of other sites stored here.
+	 */
+	public synchronized Array<Cookie> getCookiesFor(@NotNull String host) {
+		if (indexDirty) reindex();
+		Array<Cookie> result = new Array<>();
+		Array<Cookie> noDomain = domainIndex.get("");
+		if (noDomain != null) result.addAll(noDomain);
+		Array<Cookie> sameSite = domainIndex.get(PublicSuffixList.getDefault().getDomainKey(host));
+		if (sameSite != null) {
+			for (Cookie cookie : sameSite) {
+				if (cookie.appliesToDomain(host)) {
+					result.add(cookie);
+				}
+			}
+		}
+		return result;
+	}
+
+	/** Domain of a cookie of this store was changed **/
+	void domainChanged() {
+		indexDirty = true;
+	}
+
+	private void reindex() {
+		indexDirty = false;
+		domainIndex.clear();
+		for (Cookie cookie : cookies) {
+			index(cookie);
+		}
+	}
+
 	/** @return null if there is no cookies!!! **/
-	public Header toHeader() {
+	public synchronized Header toHeader() {
 		if (cookies.size == 0) return null;
 		return new Header(Cookie.headerKey, toHeaderString());
 	}
 
-	CookieStore removeByHost(String host) {
+	synchronized CookieStore removeByHost(String host) {
 		Array.ArrayIterator<Cookie> it = new Array.ArrayIterator<>(this.cookies);
 		while (it.hasNext()) {
 			Cookie next = it.next();
-			if (StringUtils.isNotEmpty(next.getDomain()) && !host.endsWith(next.getDomain())) {
+			if (StringUtils.isNotEmpty(next.getDomain()) && !next.appliesToDomain(host)) {
 				it.remove();
+				removed(next);
 			}
 		}
 		return this;
 	}
 
-	public String toHeaderString() {
+	public synchronized String toHeaderString() {
 		if (cookies.size == 0) return "";
 		StringBuilder builder = new StringBuilder();
 		for (Cookie cookie : cookies) {
@@ -164,7 +244,7 @@ public class CookieStore implements Iterable<Cookie> {
 	}
 
 	@Override
-	public String toString() {
+	public synchronized String toString() {
 		if (cookies.size == 0) return "";
 		StringBuilder builder = new StringBuilder();
 		for (Cookie cookie : cookies) {
@@ -176,7 +256,7 @@ public class CookieStore implements Iterable<Cookie> {
 		return builder.toString();
 	}
 
-	public String toStringFull() {
+	public synchronized String toStringFull() {
 		if (cookies.size == 0) return "";
 		StringBuilder builder = new StringBuilder();
 		for (Cookie cookie : cookies) {
@@ -186,7 +266,7 @@ public class CookieStore implements Iterable<Cookie> {
 		return builder.toString();
 	}
 
-	public int size() {
+	public synchronized int size() {
 		return cookies.size;
 	}
 
@@ -233,4 +313,26 @@ public class CookieStore implements Iterable<Cookie> {
 		return text;
 	}
 
+	/** Iterator that keeps domain index in step on removal **/
+	private class IndexedIterator implements Iterator<Cookie> {
+		private int index;
+
+		@Override
+		public boolean hasNext() {
+			return index < cookies.size;
+		}
+
+		@Override
+		public Cookie next() {
+			if (index >= cookies.size) throw new NoSuchElementException(String.valueOf(index));
+			return cookies.get(index++);
+		}
+
+		@Override
+		public void remove() {
+			synchronized (CookieStore.this) {
+				removed(cookies.removeIndex(--index));
+			}
+		}
+	}
 }
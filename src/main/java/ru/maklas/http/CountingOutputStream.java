@@ -0,0 +1,42 @@
+package ru.maklas.http;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+public class CountingOutputStream extends OutputStream implements Counter {
+
+	private final OutputStream delegate;
+	private long count;
+
+	public CountingOutputStream(OutputStream os) {
+		this.delegate = os;
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		delegate.write(b);
+		count++;
+	}
+
+	@Override
+	public void write(@NotNull byte[] b, int off, int len) throws IOException {
+		delegate.write(b, off, len);
+		count += len;
+	}
+
+	@Override
+	public void flush() throws IOException {
+		delegate.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		delegate.close();
+	}
+
+	public long getCount() {
+		return count;
+	}
+}
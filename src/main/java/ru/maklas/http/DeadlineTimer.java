@@ -0,0 +1,147 @@
+package ru.maklas.http;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Hashed timer wheel that aborts requests when their deadline passes. One daemon thread serves all requests,
+ * scheduling and cancelling are O(1) and don't block. Precision is one tick, 10 ms. Thread sleeps while there are no deadlines
+ */
+final class DeadlineTimer implements Runnable {
+
+	private static final long TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+	private static final int WHEEL_SIZE = 512;
+	private static final int MASK = WHEEL_SIZE - 1;
+	private static volatile DeadlineTimer instance;
+
+	/** Heads of linked lists of timeouts. Accessed only by the thread of timer **/
+	private final Timeout[] wheel = new Timeout[WHEEL_SIZE];
+	private final ConcurrentLinkedQueue<Timeout> added = new ConcurrentLinkedQueue<>();
+	/** Number of timeouts that are neither expired nor cancelled **/
+	private final AtomicInteger pending = new AtomicInteger();
+	private final long start = System.nanoTime();
+	private final Thread thread;
+	private long tick;
+
+	private DeadlineTimer() {
+		thread = new Thread(this, "MHttp-Deadlines");
+		thread.setDaemon(true);
+	}
+
+	private static DeadlineTimer instance() {
+		if (instance == null) {
+			synchronized (DeadlineTimer.class) {
+				if (instance == null) {
+					DeadlineTimer timer = new DeadlineTimer();
+					timer.thread.start();
+					instance = timer;
+				}
+			}
+		}
+		return instance;
+	}
+
+	/** Calls {@link Request#expire()} at deadline, unless returned timeout is cancelled before that **/
+	static Timeout schedule(Request request, long deadlineNanos) {
+		DeadlineTimer timer = instance();
+		Timeout timeout = new Timeout(timer, request, deadlineNanos);
+		timer.added.add(timeout);
+		if (timer.pending.getAndIncrement() == 0) LockSupport.unpark(timer.thread);
+		return timeout;
+	}
+
+	@Override
+	public void run() {
+		while (true) {
+			if (pending.get() == 0) {
+				LockSupport.park(this);
+				if (pending.get() == 0) continue;
+				tick = Math.max(tick, (System.nanoTime() - start) / TICK_NANOS); //Nothing to expire in skipped ticks
+			}
+			long current = (System.nanoTime() - start) / TICK_NANOS;
+			transferAdded();
+			while (tick <= current) {
+				expire(wheel, (int) (tick & MASK));
+				tick++;
+			}
+			long sleep = start + tick * TICK_NANOS - System.nanoTime();
+			if (sleep > 0) LockSupport.parkNanos(this, sleep);
+		}
+	}
+
+	private void transferAdded() {
+		Timeout timeout;
+		while ((timeout = added.poll()) != null) {
+			if (timeout.state != Timeout.PENDING) continue;
+			long ticks = (timeout.deadline - start + TICK_NANOS - 1) / TICK_NANOS;
+			long target = Math.max(ticks, tick);
+			timeout.rounds = (target - tick) / WHEEL_SIZE;
+			int index = (int) (target & MASK);
+			timeout.next = wheel[index];
+			wheel[index] = timeout;
+		}
+	}
+
+	private void expire(Timeout[] wheel, int index) {
+		Timeout prev = null;
+		Timeout timeout = wheel[index];
+		while (timeout != null) {
+			Timeout next = timeout.next;
+			if (timeout.state == Timeout.PENDING && timeout.rounds > 0) {
+				timeout.rounds--;
+				prev = timeout;
+			} else {
+				if (prev == null) wheel[index] = next; else prev.next = next;
+				timeout.next = null;
+				timeout.expire();
+			}
+			timeout = next;
+		}
+	}
+
+	static final class Timeout {
+
+		private static final int PENDING = 0;
+		private static final int CANCELLED = 1;
+		private static final int EXPIRED = 2;
+		private static final AtomicIntegerFieldUpdater<Timeout> STATE = AtomicIntegerFieldUpdater.newUpdater(Timeout.class, "state");
+
+		private final DeadlineTimer timer;
+		private final long deadline;
+		private volatile Request request;
+		private volatile int state;
+		private long rounds;
+		private Timeout next;
+
+		Timeout(DeadlineTimer timer, Request request, long deadline) {
+			this.timer = timer;
+			this.request = request;
+			this.deadline = deadline;
+		}
+
+		/** Request finished in time. Timeout is removed from the wheel when its tick comes **/
+		void cancel() {
+			if (STATE.compareAndSet(this, PENDING, CANCELLED)) {
+				request = null;
+				timer.pending.decrementAndGet();
+			}
+		}
+
+		private void expire() {
+			if (STATE.compareAndSet(this, PENDING, EXPIRED)) {
+				timer.pending.decrementAndGet();
+				Request request = this.request;
+				this.request = null;
+				if (request != null) {
+					try {
+						request.expire();
+					} catch (RuntimeException ignored) { //Timer must survive
+					}
+				}
+			}
+		}
+	}
+}
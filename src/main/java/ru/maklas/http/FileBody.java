@@ -0,0 +1,47 @@
+package ru.maklas.http;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Body read from a file. File is opened every time body is written, so it can be sent again on retries and redirects.
+ * Length is known, so body can be streamed with fixed length.
+ */
+public class FileBody implements RequestBody {
+
+	private final Path path;
+
+	public FileBody(@NotNull Path path) {
+		this.path = path;
+	}
+
+	public Path getPath() {
+		return path;
+	}
+
+	@Override
+	public long contentLength() {
+		try {
+			return Files.size(path);
+		} catch (IOException e) {
+			return -1;
+		}
+	}
+
+	@Override
+	public void writeTo(OutputStream os) throws IOException {
+		try (InputStream is = Files.newInputStream(path)) {
+			HttpUtils.copy(is, os, new byte[8192]);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "FileBody{" + path + "}";
+	}
+}
@@ -0,0 +1,39 @@
+package ru.maklas.http;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * x-www-form-urlencoded body. Pairs of {@link UrlEncoder} are encoded straight into the output
+ * and Content-Length is computed beforehand without encoding, so neither encoded String nor byte[] of the whole form is created.
+ * Encoder must not be modified after request is built.
+ */
+public class FormBody implements RequestBody {
+
+	private final UrlEncoder encoder;
+
+	public FormBody(@NotNull UrlEncoder encoder) {
+		this.encoder = encoder;
+	}
+
+	public UrlEncoder getEncoder() {
+		return encoder;
+	}
+
+	@Override
+	public long contentLength() {
+		return encoder.encodedLength();
+	}
+
+	@Override
+	public void writeTo(OutputStream os) throws IOException {
+		encoder.encodeTo(os);
+	}
+
+	@Override
+	public String toString() {
+		return "FormBody{" + encoder.getPairs().size + " pairs}";
+	}
+}
@@ -24,7 +24,9 @@ public class FullResponse extends Response {
 
 	FullResponse(HttpURLConnection javaCon, URL url, int msToConnect, Request request) {
 		super(javaCon, url, msToConnect, request);
+		long start = System.nanoTime();
 		downloadResponse();
+		request.timings.add(Timings.Phase.DOWNLOAD, System.nanoTime() - start);
 	}
 
 	/** Exception that was thrown while attempting to obtain body of the response **/
@@ -13,7 +13,7 @@ import java.util.Locale;
 public class Header extends KeyValuePair {
 
 	public Header(String key, String value) {
-		super(key, value);
+		super(HeaderTable.intern(key), value);
 	}
 
 	/** @return new Header instance with the same key, but changed value **/
@@ -1,57 +1,123 @@
 package ru.maklas.http;
 
 import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.IntArray;
+import com.badlogic.gdx.utils.ObjectMap;
 import org.jetbrains.annotations.Nullable;
 
 import java.util.Iterator;
-
-/** Header list. Used for storage and access. **/
+import java.util.Locale;
+import java.util.NoSuchElementException;
+
+/**
+ * Header list. Used for storage and access.
+ * Keeps headers in insertion order (duplicates allowed) and indexes positions of headers by case-folded key,
+ * so lookups, replacement and removal by key don't scan the whole list.
+ * Removed headers leave empty slots, which are compacted once they make up half of the list.
+ */
 public class HeaderList implements Iterable<Header> {
 
-	Array<Header> headers = new Array<>();
+	final Array<Header> headers = new Array<>(); //Slots in insertion order. Null if header was removed
+	private final ObjectMap<String, IntArray> index = new ObjectMap<>(); //case-folded key -> slots of headers in insertion order
+	private int removed;
 
+	/** Iterator doesn't support removal. Use {@link #remove(String)} instead **/
 	@Override
 	public Iterator<Header> iterator() {
-		return headers.iterator();
+		return new Iterator<Header>() {
+			int next = skipRemoved(0);
+
+			@Override
+			public boolean hasNext() {
+				return next < headers.size;
+			}
+
+			@Override
+			public Header next() {
+				if (next >= headers.size) throw new NoSuchElementException(String.valueOf(next));
+				Header header = headers.get(next);
+				next = skipRemoved(next + 1);
+				return header;
+			}
+		};
+	}
+
+	private int skipRemoved(int slot) {
+		while (slot < headers.size && headers.get(slot) == null) {
+			slot++;
+		}
+		return slot;
 	}
 
 	/** Adds all the cookies. Duplicates are allowed **/
 	public void addAll(HeaderList headers) {
-		this.headers.addAll(headers.headers);
+		Array<Header> other = headers.headers;
+		for (int i = 0; i < other.size; i++) {
+			Header header = other.get(i);
+			if (header != null) add(header);
+		}
 	}
 
 	/** Adds a header. Duplicates are allowed **/
 	public HeaderList add(Header header) {
 		headers.add(header);
+		if (header.key != null) {
+			String folded = fold(header.key);
+			IntArray bucket = index.get(folded);
+			if (bucket == null) {
+				bucket = new IntArray(2);
+				index.put(folded, bucket);
+			}
+			bucket.add(headers.size - 1);
+		}
 		return this;
 	}
 
 	/** Adds header. If there already was a header with the same Key, it gets replaced **/
 	public HeaderList addUnique(Header header) {
 		if (header == null || header.key == null) return this;
-		String key = header.key;
-		int targetIndex = -1;
-		for (int i = 0; i < headers.size; i++) {
-			if (key.equalsIgnoreCase(headers.get(i).key)) {
-				targetIndex = i;
-				break;
-			}
-		}
-		if (targetIndex == -1) {
-			headers.add(header);
-		} else {
-			headers.set(targetIndex, header);
+		IntArray bucket = index.get(fold(header.key));
+		if (bucket == null || bucket.size == 0) {
+			return add(header);
 		}
+		headers.set(bucket.first(), header);
 		return this;
 	}
 
+	/** Removes first header with this key. Doesn't care about upper/lower case **/
 	public void remove(String key) {
-		Iterator<Header> iter = headers.iterator();
-		while (iter.hasNext()) {
-			if (key.equalsIgnoreCase(iter.next().key)) {
-				iter.remove();
-				return;
+		String folded = fold(key);
+		IntArray bucket = index.get(folded);
+		if (bucket == null || bucket.size == 0) return;
+		headers.set(bucket.removeIndex(0), null);
+		if (bucket.size == 0) {
+			index.remove(folded);
+		}
+		if (++removed > 8 && removed * 2 > headers.size) {
+			compact();
+		}
+	}
+
+	/** Removes empty slots and renumbers the index **/
+	private void compact() {
+		int size = 0;
+		for (int i = 0; i < headers.size; i++) {
+			Header header = headers.get(i);
+			if (header != null) headers.set(size++, header);
+		}
+		headers.truncate(size);
+		removed = 0;
+		index.clear();
+		for (int i = 0; i < headers.size; i++) {
+			Header header = headers.get(i);
+			if (header.key == null) continue;
+			String folded = fold(header.key);
+			IntArray bucket = index.get(folded);
+			if (bucket == null) {
+				bucket = new IntArray(2);
+				index.put(folded, bucket);
 			}
+			bucket.add(i);
 		}
 	}
 
@@ -63,8 +129,12 @@ public class HeaderList implements Iterable<Header> {
 
 	@Nullable
 	public Header getHeader(String key, boolean caseSensitive) {
-		for (Header header : headers) {
-			if (equals(key, header.key, caseSensitive)) {
+		IntArray bucket = index.get(fold(key));
+		if (bucket == null || bucket.size == 0) return null;
+		if (!caseSensitive) return headers.get(bucket.first());
+		for (int i = 0; i < bucket.size; i++) {
+			Header header = headers.get(bucket.get(i));
+			if (key.equals(header.key)) {
 				return header;
 			}
 		}
@@ -79,23 +149,20 @@ public class HeaderList implements Iterable<Header> {
 
 	@Nullable
 	public String getHeaderValue(String key, boolean caseSensitive) {
-		for (Header header : headers) {
-			if (equals(key, header.key, caseSensitive)) {
-				return header.value;
-			}
-		}
-		return null;
+		Header header = getHeader(key, caseSensitive);
+		return header != null ? header.value : null;
 	}
 
 	public Array<Header> getHeaders(String key, boolean caseSensitive) {
-		Array<Header> arr = new Array<>();
-
-		for (Header header : headers) {
-			if (equals(key, header.key, caseSensitive)) {
+		IntArray bucket = index.get(fold(key));
+		if (bucket == null) return new Array<>();
+		Array<Header> arr = new Array<>(bucket.size);
+		for (int i = 0; i < bucket.size; i++) {
+			Header header = headers.get(bucket.get(i));
+			if (!caseSensitive || key.equals(header.key)) {
 				arr.add(header);
 			}
 		}
-
 		return arr;
 	}
 
@@ -104,13 +171,13 @@ public class HeaderList implements Iterable<Header> {
 	}
 
 	public int size() {
-		return headers.size;
+		return headers.size - removed;
 	}
 
 	@Override
 	public String toString() {
 		StringBuilder builder = new StringBuilder();
-		for (Header header : headers) {
+		for (Header header : this) {
 			builder.append(header.key)
 					.append(": ")
 					.append(header.value).append('\n');
@@ -120,15 +187,20 @@ public class HeaderList implements Iterable<Header> {
 
 	public HeaderList addIfNotPresent(Header header) {
 		if (header == null || header.key == null) return this;
-		String key = header.key;
-		for (int i = 0; i < headers.size; i++) {
-			if (key.equals(headers.get(i).key)) {
-				return this;
+		if (getHeader(header.key, true) != null) return this;
+		return add(header);
+	}
+
+	/** Case-folded key used for indexing. Doesn't allocate for well-known names or if key is already in lower case **/
+	static String fold(String key) {
+		String wellKnown = HeaderTable.fold(key);
+		if (wellKnown != null) return wellKnown;
+		for (int i = 0; i < key.length(); i++) {
+			char c = key.charAt(i);
+			if (c >= 'A' && c <= 'Z' || c > 127) {
+				return key.toLowerCase(Locale.ROOT);
 			}
 		}
-		headers.add(header);
-		return this;
+		return key;
 	}
 }
-
-
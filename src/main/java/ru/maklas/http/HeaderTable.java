@@ -0,0 +1,77 @@
+package ru.maklas.http;
+
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Static table of well-known header names.
+ * Looks names up case-insensitively without allocating, so that canonical and case-folded
+ * instances can be shared by every {@link Header} and {@link HeaderList}.
+ */
+class HeaderTable {
+
+	private static final String[] NAMES = {
+			Header.UserAgent.key, Header.Host.key, Header.Connection.key, Header.Accept.key, Header.Origin.key,
+			Header.CacheControl.key, "Pragma", Header.RequestedWith.key, Header.AcceptEncoding.key,
+			Header.ContentEncoding.key, Header.AcceptLanguage.key, Header.TransferEncoding.key, Header.Referer.key,
+			Header.ContentType.key, Header.ContentLength.key, Header.ContentDisposition.key, Header.SetCookie.key,
+			Cookie.headerKey, Header.UpgradeInsecure.key, Header.ContentLocation.key, Header.DateHeader.key,
+			Header.Location.key, "Authorization", "Proxy-Authorization", "Keep-Alive", "Expect", "Range",
+			"Content-Range", "Accept-Ranges", "Accept-Charset", "If-None-Match", "If-Modified-Since", "ETag",
+			"Last-Modified", "Expires", "Age", "Vary", "Server", "Retry-After", "WWW-Authenticate", "Upgrade",
+			"Access-Control-Allow-Origin", "Strict-Transport-Security", "X-Forwarded-For", "X-RateLimit-Limit",
+			"X-RateLimit-Remaining", "X-RateLimit-Reset", "X-Content-Type-Options", "X-Frame-Options",
+	};
+
+	private static final int MASK = 255;
+	private static final String[] canonical = new String[MASK + 1];
+	private static final String[] folded = new String[MASK + 1];
+
+	static {
+		for (String name : NAMES) {
+			int slot = hash(name) & MASK;
+			while (canonical[slot] != null) {
+				slot = (slot + 1) & MASK;
+			}
+			canonical[slot] = name;
+			folded[slot] = name.toLowerCase();
+		}
+	}
+
+	/** @return slot of the well-known name or -1 if it's not in the table **/
+	private static int slot(String name) {
+		int slot = hash(name) & MASK;
+		String candidate;
+		while ((candidate = canonical[slot]) != null) {
+			if (candidate.length() == name.length() && candidate.equalsIgnoreCase(name)) {
+				return slot;
+			}
+			slot = (slot + 1) & MASK;
+		}
+		return -1;
+	}
+
+	/** Case-insensitive hash. Only ASCII letters are folded, as header names are ASCII tokens **/
+	private static int hash(String name) {
+		int h = 0;
+		for (int i = 0; i < name.length(); i++) {
+			char c = name.charAt(i);
+			if (c >= 'A' && c <= 'Z') c += 32;
+			h = 31 * h + c;
+		}
+		return h ^ (h >>> 16);
+	}
+
+	/** Canonical instance of the name if it's well-known and spelled exactly the same. Otherwise the name itself **/
+	static String intern(String name) {
+		if (name == null) return null;
+		int slot = slot(name);
+		return slot != -1 && canonical[slot].equals(name) ? canonical[slot] : name;
+	}
+
+	/** Shared lower-case instance of well-known name or null if the name is not in the table **/
+	@Nullable
+	static String fold(String name) {
+		int slot = slot(name);
+		return slot == -1 ? null : folded[slot];
+	}
+}
@@ -0,0 +1,236 @@
+package ru.maklas.http;
+
+import org.jetbrains.annotations.NotNull;
+import ru.maklas.http.metrics.HistogramSnapshot;
+import ru.maklas.http.metrics.LatencyHistogram;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>
+ * Sends hedged requests to cut tail latency. If response doesn't come within a delay, a second copy of the request
+ * is sent to the same or an alternate host. The first successful response wins, the other request is cancelled and its connection closed.
+ * </p>
+ * <p>
+ * Delay is a percentile (p95 by default) of latencies observed by this hedger for the host, so that only the slowest requests are hedged.
+ * Latency is measured from the moment primary request is sent, and every copy that completes is observed, including the one that lost.
+ * Until enough latencies are observed, initial delay is used. Number of hedges is limited by {@link RetryBudget}, 10% of requests by default.
+ * Only idempotent requests without multipart body, whose body can be written more than once, are hedged. Others are just sent.
+ * </p>
+ * <p>ex:
+ * <br>
+ * Hedger hedger = new Hedger();
+ * <br>
+ * FullResponse response = hedger.send(ConnectionBuilder.get(url));
+ * </p>
+ * Thread-safe. Requests are sent from the threads of executor.
+ */
+public class Hedger {
+
+	private static final long RECOMPUTE_NANOS = TimeUnit.SECONDS.toNanos(1);
+	private static volatile ExecutorService defaultExecutor;
+
+	private final ExecutorService executor;
+	private final ConcurrentHashMap<String, HostLatency> hosts = new ConcurrentHashMap<>();
+	private final LongAdder hedged = new LongAdder();
+	private final LongAdder hedgeWins = new LongAdder();
+	private double percentile = 95;
+	private long initialDelayMs = 100;
+	private long minDelayMs = 5;
+	private long maxDelayMs = 10_000;
+	private int minSamples = 20;
+	private RetryBudget budget = new RetryBudget(0.1, 1);
+
+	/** Uses shared pool of daemon threads **/
+	public Hedger() {
+		this(defaultExecutor());
+	}
+
+	public Hedger(@NotNull ExecutorService executor) {
+		this.executor = executor;
+	}
+
+	private static ExecutorService defaultExecutor() {
+		if (defaultExecutor == null) {
+			synchronized (Hedger.class) {
+				if (defaultExecutor == null) {
+					AtomicInteger counter = new AtomicInteger();
+					defaultExecutor = Executors.newCachedThreadPool(r -> {
+						Thread thread = new Thread(r, "MHttp-Hedger-" + counter.incrementAndGet());
+						thread.setDaemon(true);
+						return thread;
+					});
+				}
+			}
+		}
+		return defaultExecutor;
+	}
+
+	/** Percentile of observed latency after which request is hedged. 95 by default **/
+	public Hedger percentile(double percentile) {
+		this.percentile = percentile;
+		return this;
+	}
+
+	/** Delay used until enough latencies of the host are observed. 100 ms by default **/
+	public Hedger initialDelay(long ms) {
+		this.initialDelayMs = ms;
+		return this;
+	}
+
+	/** Limits of delay. 5 ms and 10 seconds by default **/
+	public Hedger delayBounds(long minMs, long maxMs) {
+		this.minDelayMs = minMs;
+		this.maxDelayMs = Math.max(minMs, maxMs);
+		return this;
+	}
+
+	/** Number of latencies of the host to observe before percentile is used. 20 by default **/
+	public Hedger minSamples(int minSamples) {
+		this.minSamples = minSamples;
+		return this;
+	}
+
+	/** Budget that limits number of hedges **/
+	public Hedger budget(@NotNull RetryBudget budget) {
+		this.budget = budget;
+		return this;
+	}
+
+	/** Number of requests for which a second copy was sent **/
+	public long getHedged() {
+		return hedged.sum();
+	}
+
+	/** Number of times the second copy won **/
+	public long getHedgeWins() {
+		return hedgeWins.sum();
+	}
+
+	/** Current delay before hedging requests to the host in milliseconds **/
+	public long getDelay(String host) {
+		return TimeUnit.NANOSECONDS.toMillis(host(host).delayNanos());
+	}
+
+	/** Sends request, hedging it with a copy to the same url **/
+	public FullResponse send(@NotNull ConnectionBuilder builder) throws ConnectionException {
+		ConnectionBuilder copy = builder.cpy();
+		return send(builder, copy);
+	}
+
+	/**
+	 * Sends request, hedging it with another one. Usually a copy with alternate host.
+	 * Builders must not be built yet.
+	 */
+	public FullResponse send(@NotNull ConnectionBuilder primary, @NotNull ConnectionBuilder hedge) throws ConnectionException {
+		Request first = primary.build();
+		if (primary.getMultipartWriter() != null || !first.isReplayable() || !RetryPolicy.isIdempotent(first.getMethod(), first.getRequestHeaders())) {
+			return first.send();
+		}
+		budget.deposit();
+		HostLatency latency = host(first.getRequestUrl().getHost());
+		LinkedBlockingQueue<Outcome> outcomes = new LinkedBlockingQueue<>();
+		long start = System.nanoTime();
+		submit(first, outcomes, latency, start);
+
+		Request second = null;
+		Outcome outcome;
+		try {
+			outcome = outcomes.poll(latency.delayNanos(), TimeUnit.NANOSECONDS);
+			if (outcome == null && budget.tryWithdraw()) {
+				try {
+					second = hedge.build();
+					submit(second, outcomes, latency, start);
+					hedged.increment();
+				} catch (ConnectionException e) {
+					second = null;
+				}
+			}
+			int pending = second == null ? 1 : 2;
+			if (outcome == null) outcome = outcomes.take();
+			pending--;
+			while (outcome.error != null && pending > 0) {
+				outcome = outcomes.take();
+				pending--;
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			first.cancel();
+			if (second != null) second.cancel();
+			throw new ConnectionException(ConnectionException.Type.CANCELLED, new InterruptedIOException("Interrupted while waiting for response"), primary, first);
+		}
+
+		Request loser = outcome.request == first ? second : first;
+		if (loser != null) loser.cancel();
+		if (outcome.error != null) throw outcome.error;
+		if (outcome.request == second) hedgeWins.increment();
+		return outcome.response;
+	}
+
+	/** @param start when primary request was sent. Latency of every successful copy is recorded from that moment, even if the copy lost **/
+	private void submit(Request request, LinkedBlockingQueue<Outcome> outcomes, HostLatency latency, long start) {
+		executor.execute(() -> {
+			try {
+				FullResponse response = request.send();
+				latency.histogram.record(System.nanoTime() - start);
+				outcomes.add(new Outcome(request, response, null));
+			} catch (ConnectionException e) {
+				outcomes.add(new Outcome(request, null, e));
+			} catch (RuntimeException e) {
+				outcomes.add(new Outcome(request, null, new ConnectionException(ConnectionException.Type.IO, new IOException(e), request.getBuilder(), request)));
+			}
+		});
+	}
+
+	private HostLatency host(String host) {
+		host = host.toLowerCase(Locale.ROOT);
+		HostLatency latency = hosts.get(host);
+		if (latency == null) {
+			latency = hosts.computeIfAbsent(host, h -> new HostLatency());
+		}
+		return latency;
+	}
+
+	private class HostLatency {
+
+		final LatencyHistogram histogram = new LatencyHistogram();
+		volatile long delayNanos = -1;
+		volatile long computedAt;
+
+		/** Percentile of latency, recomputed at most once a second **/
+		long delayNanos() {
+			long now = System.nanoTime();
+			long delay = delayNanos;
+			if (delay < 0 || now - computedAt > RECOMPUTE_NANOS) {
+				computedAt = now;
+				HistogramSnapshot snapshot = histogram.snapshot();
+				delay = snapshot.getCount() < minSamples ? TimeUnit.MILLISECONDS.toNanos(initialDelayMs) : snapshot.getPercentile(percentile);
+				delay = Math.max(TimeUnit.MILLISECONDS.toNanos(minDelayMs), Math.min(TimeUnit.MILLISECONDS.toNanos(maxDelayMs), delay));
+				delayNanos = delay;
+			}
+			return delay;
+		}
+	}
+
+	private static class Outcome {
+
+		final Request request;
+		final FullResponse response;
+		final ConnectionException error;
+
+		Outcome(Request request, FullResponse response, ConnectionException error) {
+			this.request = request;
+			this.response = response;
+			this.error = error;
+		}
+	}
+}
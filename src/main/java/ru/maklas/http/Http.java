@@ -19,6 +19,13 @@ public class Http {
 	static boolean fetchJavaHeaders = false;
 	static boolean autoAddHostHeader = true;
 	static boolean generateCookieChanges = true;
+	static long streamingThreshold = 1024 * 1024;
+	@Nullable static RetryPolicy defaultRetryPolicy = null;
+	@Nullable static CircuitBreakers defaultCircuitBreakers = null;
+	@Nullable static RateLimiters defaultRateLimiters = null;
+	@Nullable static ConcurrencyLimiters defaultConcurrencyLimiters = null;
+	static long defaultDeadline = 0;
+	@Nullable static TlsConfig defaultTls = null;
 
 	@Nullable
 	public static String getResponseCodeMeaning(int code, String def) {
@@ -82,7 +89,7 @@ public class Http {
 		setProperty("http.keepAlive", Boolean.toString(enabled));
 	}
 
-	/** How many connection can be used at the same time **/
+	/** How many connection can be used at the same time. See {@link #setDefaultConcurrencyLimiters(ConcurrencyLimiters)} for limits that adapt to every host **/
 	public static void setDefaultMaxConnections(int connections) {
 		setProperty("http.maxConnections", Integer.toString(connections));
 	}
@@ -102,6 +109,65 @@ public class Http {
 		setProperty("http.agent", userAgent);
 	}
 
+	/**
+	 * Bodies of {@link RequestBody} and {@link MultipartWriter} with known length of at least this many bytes are streamed to the server
+	 * with fixed length streaming mode instead of being buffered by HttpUrlConnection. Default is 1 MB.
+	 * Bodies of unknown length (like stream parts added without length) are sent with chunked transfer encoding.
+	 * Note that HttpUrlConnection doesn't follow redirects of streamed requests, since body can't be sent again.
+	 * Use {@link Long#MAX_VALUE} to never stream.
+	 */
+	public static void setStreamingThreshold(long bytes) {
+		streamingThreshold = bytes;
+	}
+
+	/**
+	 * Policy for sending requests again on failure, used when {@link ConnectionBuilder#retry(RetryPolicy)} is not set.
+	 * Null by default, requests are not retried.
+	 */
+	public static void setDefaultRetryPolicy(@Nullable RetryPolicy policy) {
+		defaultRetryPolicy = policy;
+	}
+
+	/**
+	 * Circuit breakers that guard all requests, unless {@link ConnectionBuilder#circuitBreakers(CircuitBreakers)} is set.
+	 * Null by default.
+	 */
+	public static void setDefaultCircuitBreakers(@Nullable CircuitBreakers breakers) {
+		defaultCircuitBreakers = breakers;
+	}
+
+	/**
+	 * Rate limiters that pace all requests, unless {@link ConnectionBuilder#rateLimiters(RateLimiters)} is set.
+	 * Null by default.
+	 */
+	public static void setDefaultRateLimiters(@Nullable RateLimiters limiters) {
+		defaultRateLimiters = limiters;
+	}
+
+	/**
+	 * Adaptive limiters of requests in flight to every host, unless {@link ConnectionBuilder#concurrencyLimiters(ConcurrencyLimiters)} is set.
+	 * Null by default.
+	 */
+	public static void setDefaultConcurrencyLimiters(@Nullable ConcurrencyLimiters limiters) {
+		defaultConcurrencyLimiters = limiters;
+	}
+
+	/**
+	 * Limit of total time of every request in milliseconds, unless {@link ConnectionBuilder#deadline(long)} is set.
+	 * 0 by default, requests are limited only by connect and read timeouts.
+	 */
+	public static void setDefaultDeadline(long ms) {
+		defaultDeadline = ms;
+	}
+
+	/**
+	 * SSLContext of all HTTPS requests, unless {@link ConnectionBuilder#tls(TlsConfig)} is set.
+	 * Null by default, default SSLSocketFactory of HttpsURLConnection is used.
+	 */
+	public static void setDefaultTls(@Nullable TlsConfig tls) {
+		defaultTls = tls;
+	}
+
 	/** Default timeouts for connection and reading **/
 	public static void setDefaultTimeOut(int connectTimeOutMs, int readTimeOutMs) {
 		defaultConnectTimeOut = connectTimeOutMs;
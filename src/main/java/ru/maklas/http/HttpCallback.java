@@ -20,12 +20,21 @@ public interface HttpCallback {
 	/** Called after request's body was written to the Http request and only if it's POST method with body. **/
 	void wroteBody();
 
-	/** Called before attempting to execute HTTP request. **/
+	/** Called before attempting to execute HTTP request. Called again before every retry of {@link RetryPolicy}. **/
 	void connecting();
 
 	/** Called after establishing connection with server and receiving Http response code. **/
 	void connected(int responseCode);
 
+	/**
+	 * Called when a phase of the request is completed with nanoseconds spent in it. See {@link Timings}.
+	 * Phases are reported in the order they happen, skipping those that didn't happen.
+	 * DOWNLOAD is reported right before {@link #finished(Response)}.
+	 */
+	default void phaseCompleted(Timings.Phase phase, long nanos) {
+
+	}
+
 	/**
 	 * Indicates that HTTP request was successfully finished.
 	 * At the end either this method or {@link #interrupted(ConnectionException)} is called to indicate finality of request.
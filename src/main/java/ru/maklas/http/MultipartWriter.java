@@ -1,13 +1,32 @@
 package ru.maklas.http;
 
 import com.badlogic.gdx.utils.Array;
+import org.jetbrains.annotations.Nullable;
 
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 
 public class MultipartWriter {
 
+	private static final byte[] CRLF = "\r\n".getBytes(HttpUtils.ascii);
+	private static final byte[] DASHES = "--".getBytes(HttpUtils.ascii);
+	private static final byte[] DISPOSITION = "Content-Disposition: form-data; name=\"".getBytes(HttpUtils.ascii);
+	private static final byte[] FILE_NAME = "\"; filename=\"".getBytes(HttpUtils.ascii);
+	private static final byte[] QUOTE = "\"".getBytes(HttpUtils.ascii);
+	private static final byte[] CONTENT_TYPE = "\r\nContent-Type: ".getBytes(HttpUtils.ascii);
+	private static final byte[] HEADER_END = "\r\n\r\n".getBytes(HttpUtils.ascii);
+
 	private final Array<Data> sources = new Array<>();
 	private boolean hasStream = false;
 
@@ -30,29 +49,134 @@ public class MultipartWriter {
 		return this;
 	}
 
+	public MultipartWriter add(String key, byte[] value, @Nullable String fileName, @Nullable String contentType) {
+		sources.add(new ByteArrayMultipartData(key, value, fileName, contentType));
+		return this;
+	}
+
+	/** Remaining bytes of the buffer are sent. Position of the buffer is not changed **/
+	public MultipartWriter add(String key, ByteBuffer value, @Nullable String fileName, @Nullable String contentType) {
+		sources.add(new ByteBufferMultipartData(key, value, fileName, contentType));
+		return this;
+	}
+
+	/** File part. File name is used as filename of the part **/
+	public MultipartWriter add(String key, Path path, @Nullable String contentType) {
+		return add(key, path, path.getFileName().toString(), contentType);
+	}
+
+	/**
+	 * File part. File is opened only when body is written and can be sent again on retry or redirect.
+	 * Size of the file is known, so body can be streamed with fixed length.
+	 * If body is written with {@link #encode(WritableByteChannel, String)}, file is transferred with {@link FileChannel#transferTo(long, long, WritableByteChannel)}
+	 */
+	public MultipartWriter add(String key, Path path, @Nullable String fileName, @Nullable String contentType) {
+		sources.add(new FileMultipartData(key, path, fileName, contentType));
+		hasStream = true;
+		return this;
+	}
+
+	/** File part. File name is used as filename of the part **/
+	public MultipartWriter add(String key, File file, @Nullable String contentType) {
+		return add(key, file.toPath(), file.getName(), contentType);
+	}
+
 	public MultipartWriter add(String key, InputStream is) {
-		sources.add(new StreamMultipartData(key, is, null, null));
+		sources.add(new StreamMultipartData(key, is, null, null, -1));
 		hasStream = true;
 		return this;
 	}
 
 	public MultipartWriter add(String key, InputStream is, String fileName) {
-		sources.add(new StreamMultipartData(key, is, fileName, null));
+		sources.add(new StreamMultipartData(key, is, fileName, null, -1));
 		hasStream = true;
 		return this;
 	}
 
 	public MultipartWriter add(String key, InputStream is, String fileName, String contentType) {
-		sources.add(new StreamMultipartData(key, is, fileName, contentType));
+		sources.add(new StreamMultipartData(key, is, fileName, contentType, -1));
 		hasStream = true;
 		return this;
 	}
 
+	/**
+	 * Stream part of known length. If lengths of all parts are known, whole body is streamed with fixed length.
+	 * Exactly <b>length</b> bytes are read from the stream.
+	 */
+	public MultipartWriter add(String key, InputStream is, String fileName, String contentType, long length) {
+		sources.add(new StreamMultipartData(key, is, fileName, contentType, length));
+		hasStream = true;
+		return this;
+	}
+
+	/**
+	 * Releases copies of streams that don't support mark/reset, including temporary files.
+	 * Called when request is finished. Such streams can't be sent again after that.
+	 */
+	public void release() {
+		for (Data data : sources) {
+			if (data instanceof StreamMultipartData) {
+				((StreamMultipartData) data).release();
+			}
+		}
+	}
+
+	/**
+	 * Whether streams that don't support mark/reset are copied while being sent, so that body can be sent again. True by default.
+	 * Request turns it off when it can't be retried or redirected, so that large streams are not copied for nothing
+	 */
+	void keepForReplay(boolean keep) {
+		for (Data data : sources) {
+			if (data instanceof StreamMultipartData) {
+				((StreamMultipartData) data).keep = keep;
+			}
+		}
+	}
+
+	/** Whether body can be sent again. False once a stream that doesn't support mark/reset was sent without being copied **/
+	boolean isReplayable() {
+		for (Data data : sources) {
+			if (data instanceof StreamMultipartData && !((StreamMultipartData) data).isReplayable()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/** Whether there are stream or file parts, which are not kept in memory **/
 	public boolean hasStream() {
 		return hasStream;
 	}
 
+	/**
+	 * Exact length of encoded body in bytes.
+	 * @return -1 if length of any part is unknown (stream part added without length)
+	 */
+	public long contentLength(String boundary) {
+		if (sources.size == 0) return 0;
+		int splitterLength = 4 + boundary.length();
+		long length = 0;
+		for (Data data : sources) {
+			long partLength = data.contentLength();
+			if (partLength < 0) return -1;
+			length += splitterLength + data.header().length + partLength + 2;
+		}
+		return length + splitterLength + 2;
+	}
+
 	public void encode(OutputStream os, String boundary) throws IOException {
+		WritableByteChannel channel = os instanceof FileOutputStream ? ((FileOutputStream) os).getChannel() : null;
+		encode(os, channel, boundary);
+	}
+
+	/** Writes body into the channel. File parts are transferred directly from file channels **/
+	public void encode(WritableByteChannel channel, String boundary) throws IOException {
+		OutputStream os = new BufferedOutputStream(Channels.newOutputStream(channel), 8192);
+		encode(os, channel, boundary);
+	}
+
+	/** @param channel channel that os writes to. If not null, os is flushed before writing into channel directly **/
+	private void encode(OutputStream os, @Nullable WritableByteChannel channel, String boundary) throws IOException {
 		if (sources.size == 0) return;
 		byte[] encodedBoundary = boundary.getBytes(HttpUtils.ascii);
 		byte[] splitter = new byte[4 + encodedBoundary.length];
@@ -67,38 +191,18 @@ public class MultipartWriter {
 
 		for (Data data : sources) {
 			os.write(splitter);
-			os.write("Content-Disposition: form-data; name=\"".getBytes(HttpUtils.utf_8));
-			os.write(encodeString(data.key));
-			os.write("\"".getBytes(HttpUtils.utf_8));
-			if (data.fileName != null) {
-				os.write("; filename=\"".getBytes(HttpUtils.utf_8));
-				os.write(encodeString(data.fileName));
-				os.write('\"');
-			}
-			if (data.contentType != null) {
-				os.write("\r\nContent-Type: ".getBytes(HttpUtils.utf_8));
-				os.write(encodeString(data.contentType));
-			}
-			os.write("\r\n\r\n".getBytes(HttpUtils.utf_8));
-
-			if (data instanceof StringMultipartData) {
-				os.write(((StringMultipartData) data).value.getBytes(HttpUtils.utf_8));
-			} else if (data instanceof ByteArrayMultipartData) {
-				os.write(((ByteArrayMultipartData) data).value);
-			} else if (data instanceof StreamMultipartData) {
-				StreamMultipartData streamData = (StreamMultipartData) data;
-				if (!streamData.used || streamData.is.markSupported()) {
-					if (streamData.used) {
-						streamData.is.reset();
-					}
-					HttpUtils.copy(streamData.is, os, buffer);
-					streamData.used = true;
-				}
+			os.write(data.header());
+			if (channel != null && data instanceof FileMultipartData) {
+				os.flush();
+				((FileMultipartData) data).transferTo(channel);
+			} else {
+				data.writeContent(os, buffer);
 			}
-			os.write("\r\n".getBytes(HttpUtils.utf_8));
+			os.write(CRLF);
 		}
 		os.write(splitter, 0, splitter.length - 2);
-		os.write("--\r\n".getBytes(HttpUtils.utf_8));
+		os.write(DASHES);
+		os.write(CRLF);
 		os.flush();
 	}
 
@@ -128,6 +232,10 @@ public class MultipartWriter {
 				sb.append(HttpUtils.trim(((StringMultipartData) source).value, 1024));
 			} else if (source instanceof ByteArrayMultipartData) {
 				sb.append(HttpUtils.trim(new String(((ByteArrayMultipartData) source).value, HttpUtils.utf_8), 1024));
+			} else if (source instanceof ByteBufferMultipartData) {
+				sb.append("***Data from ByteBuffer (").append(source.contentLength()).append(" bytes)***");
+			} else if (source instanceof FileMultipartData) {
+				sb.append("***Data from File ").append(((FileMultipartData) source).path).append("***");
 			} else if (source instanceof StreamMultipartData) {
 				sb.append("***Data from Stream***");
 			}
@@ -142,19 +250,130 @@ public class MultipartWriter {
 		String key;
 		String fileName;
 		String contentType;
+		private byte[] header;
+
+		/** Headers of the part including empty line after them. Encoded once **/
+		byte[] header() {
+			if (header == null) {
+				byte[] key = encodeString(this.key);
+				byte[] fileName = this.fileName != null ? encodeString(this.fileName) : null;
+				byte[] contentType = this.contentType != null ? encodeString(this.contentType) : null;
+				int length = DISPOSITION.length + key.length + QUOTE.length + HEADER_END.length;
+				if (fileName != null) length += FILE_NAME.length + fileName.length;
+				if (contentType != null) length += CONTENT_TYPE.length + contentType.length;
+
+				ByteBuffer bb = ByteBuffer.allocate(length).put(DISPOSITION).put(key);
+				if (fileName != null) bb.put(FILE_NAME).put(fileName);
+				bb.put(QUOTE);
+				if (contentType != null) bb.put(CONTENT_TYPE).put(contentType);
+				bb.put(HEADER_END);
+				header = bb.array();
+			}
+			return header;
+		}
+
+		/** Length of the content in bytes or -1 if unknown **/
+		abstract long contentLength();
+
+		abstract void writeContent(OutputStream os, byte[] buffer) throws IOException;
 	}
 
 	private static class ByteArrayMultipartData extends Data {
 		final byte[] value;
 
-		public ByteArrayMultipartData(String key, byte[] value) {
+		public ByteArrayMultipartData(String key, byte[] value, String fileName, String contentType) {
+			this.key = key;
+			this.value = value;
+			this.fileName = fileName;
+			this.contentType = contentType;
+		}
+
+		@Override
+		long contentLength() {
+			return value.length;
+		}
+
+		@Override
+		void writeContent(OutputStream os, byte[] buffer) throws IOException {
+			os.write(value);
+		}
+	}
+
+	private static class ByteBufferMultipartData extends Data {
+		final ByteBuffer value;
+
+		public ByteBufferMultipartData(String key, ByteBuffer value, String fileName, String contentType) {
 			this.key = key;
 			this.value = value;
+			this.fileName = fileName;
+			this.contentType = contentType;
+		}
+
+		@Override
+		long contentLength() {
+			return value.remaining();
+		}
+
+		@Override
+		void writeContent(OutputStream os, byte[] buffer) throws IOException {
+			if (value.hasArray()) {
+				os.write(value.array(), value.arrayOffset() + value.position(), value.remaining());
+				return;
+			}
+			ByteBuffer duplicate = value.duplicate();
+			byte[] chunk = new byte[Math.min(8192, duplicate.remaining())];
+			while (duplicate.hasRemaining()) {
+				int n = Math.min(chunk.length, duplicate.remaining());
+				duplicate.get(chunk, 0, n);
+				os.write(chunk, 0, n);
+			}
+		}
+	}
+
+	private static class FileMultipartData extends Data {
+		final Path path;
+
+		public FileMultipartData(String key, Path path, String fileName, String contentType) {
+			this.key = key;
+			this.path = path;
+			this.fileName = fileName;
+			this.contentType = contentType;
+		}
+
+		@Override
+		long contentLength() {
+			try {
+				return Files.size(path);
+			} catch (IOException e) {
+				return -1;
+			}
+		}
+
+		@Override
+		void writeContent(OutputStream os, byte[] buffer) throws IOException {
+			try (InputStream is = Files.newInputStream(path)) {
+				HttpUtils.copy(is, os, buffer);
+			}
+		}
+
+		void transferTo(WritableByteChannel target) throws IOException {
+			try (FileChannel fc = FileChannel.open(path, StandardOpenOption.READ)) {
+				long size = fc.size();
+				long position = 0;
+				while (position < size) {
+					long transferred = fc.transferTo(position, size - position, target);
+					if (transferred == 0 && position >= fc.size()) {
+						throw new IOException("File " + path + " was truncated during upload at " + position + " of " + size + " bytes");
+					}
+					position += transferred;
+				}
+			}
 		}
 	}
 
 	private static class StringMultipartData extends Data {
 		final String value;
+		private byte[] encoded;
 
 		public StringMultipartData(String key, String value, String fileName, String contentType) {
 			this.key = key;
@@ -163,17 +382,89 @@ public class MultipartWriter {
 			this.contentType = contentType;
 		}
 
+		private byte[] encoded() {
+			if (encoded == null) encoded = value.getBytes(HttpUtils.utf_8);
+			return encoded;
+		}
+
+		@Override
+		long contentLength() {
+			return encoded().length;
+		}
+
+		@Override
+		void writeContent(OutputStream os, byte[] buffer) throws IOException {
+			os.write(encoded());
+		}
 	}
 
 	private static class StreamMultipartData extends Data {
 		private final InputStream is;
+		private final long length;
 		private boolean used;
+		private SpillBuffer replay; //Copy of bytes read from the stream, if it doesn't support mark/reset
+		private boolean keep = true; //Whether stream is copied into replay
 
-		public StreamMultipartData(String key, InputStream is, String fileName, String contentType) {
+		public StreamMultipartData(String key, InputStream is, String fileName, String contentType, long length) {
 			this.key = key;
 			this.is = is;
 			this.fileName = fileName;
 			this.contentType = contentType;
+			this.length = length;
+		}
+
+		@Override
+		long contentLength() {
+			return length;
+		}
+
+		/**
+		 * Streams that support mark/reset are reset before sending again.
+		 * Other streams are copied into {@link SpillBuffer} while being sent for the first time,
+		 * so that the part can be sent again on retry or redirect, unless there will be no retry or redirect
+		 */
+		@Override
+		void writeContent(OutputStream os, byte[] buffer) throws IOException {
+			long sent = 0;
+			SpillBuffer tee = null;
+			if (is.markSupported()) {
+				if (used) is.reset();
+			} else if (used) {
+				if (replay == null) {
+					throw new IOException("Stream of part '" + key + "' was already sent and can't be sent again");
+				}
+				replay.writeTo(os);
+				sent = replay.size();
+				tee = replay;
+			} else if (keep) {
+				tee = replay = new SpillBuffer();
+			}
+			used = true;
+
+			long remaining = length < 0 ? Long.MAX_VALUE : length - sent;
+			while (remaining > 0) {
+				int n = is.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+				if (n == -1) {
+					if (length < 0) break;
+					throw new IOException("Stream of part '" + key + "' ended " + remaining + " bytes before its specified length");
+				}
+				if (tee != null) tee.write(buffer, 0, n);
+				os.write(buffer, 0, n);
+				remaining -= n;
+			}
+		}
+
+		boolean isReplayable() {
+			return !used || is.markSupported() || replay != null;
+		}
+
+		void release() {
+			if (replay != null) {
+				try {
+					replay.close();
+				} catch (IOException ignore) { }
+				replay = null;
+			}
 		}
 	}
 
@@ -0,0 +1,219 @@
+package ru.maklas.http;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.BufferedReader;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.IDN;
+import java.util.HashMap;
+import java.util.Locale;
+
+/**
+ * Public Suffix List (https://publicsuffix.org) compiled into a trie of reversed domain labels.
+ * Used to find registrable domains (eTLD+1) of hosts, so that cookies can't be set for
+ * domains like <b>co.uk</b> or <b>github.io</b>.
+ * Default instance is loaded once from the list bundled with the library.
+ */
+public class PublicSuffixList {
+
+	private static final String RESOURCE = "public_suffix_list.dat";
+	private static final String WILDCARD = "*";
+
+	private final Node root = new Node();
+
+	private PublicSuffixList() {
+
+	}
+
+	/** List bundled with the library. Loaded on first access **/
+	public static PublicSuffixList getDefault() {
+		return DefaultHolder.INSTANCE;
+	}
+
+	/**
+	 * @return Why bundled list couldn't be loaded. In this case {@link #getDefault()} knows only the default rule '*',
+	 * so every registrable domain is second-level. Null if the list was loaded.
+	 */
+	@Nullable
+	public static IOException getDefaultLoadError() {
+		return DefaultHolder.error;
+	}
+
+	/** Compiles list in the format of public_suffix_list.dat **/
+	public static PublicSuffixList parse(Reader reader) throws IOException {
+		PublicSuffixList list = new PublicSuffixList();
+		BufferedReader br = reader instanceof BufferedReader ? (BufferedReader) reader : new BufferedReader(reader);
+		String line;
+		while ((line = br.readLine()) != null) {
+			line = line.trim();
+			if (line.isEmpty() || line.startsWith("//")) continue;
+			int space = line.indexOf(' ');
+			if (space != -1) line = line.substring(0, space);
+			list.addRule(line);
+		}
+		return list;
+	}
+
+	/** Compiles list in the format of public_suffix_list.dat. Stream is expected to be in UTF-8 **/
+	public static PublicSuffixList parse(InputStream is) throws IOException {
+		return parse(new InputStreamReader(is, HttpUtils.utf_8));
+	}
+
+	private void addRule(String rule) {
+		boolean exception = rule.startsWith("!");
+		if (exception) rule = rule.substring(1);
+		rule = toAscii(rule);
+
+		Node node = root;
+		int end = rule.length();
+		while (end > 0) {
+			int dot = rule.lastIndexOf('.', end - 1);
+			String label = rule.substring(dot + 1, end);
+			Node child = node.children.get(label);
+			if (child == null) {
+				child = new Node();
+				node.children.put(label, child);
+			}
+			node = child;
+			end = dot;
+		}
+		if (exception) {
+			node.exception = true;
+		} else {
+			node.rule = true;
+		}
+	}
+
+	/** True if domain is a public suffix itself. Cookies must not be set for such domains **/
+	public boolean isPublicSuffix(@NotNull String domain) {
+		domain = normalize(domain);
+		if (domain.isEmpty()) return false;
+		return suffixStart(domain) == 0;
+	}
+
+	/**
+	 * Public suffix of the host.
+	 * <li>www.example.co.uk -> co.uk</li>
+	 * <li>user.github.io -> github.io</li>
+	 * @return null if host is empty or an IP address
+	 */
+	@Nullable
+	public String getPublicSuffix(@NotNull String host) {
+		host = normalize(host);
+		if (host.isEmpty() || isIpAddress(host)) return null;
+		return host.substring(suffixStart(host));
+	}
+
+	/**
+	 * Registrable domain (public suffix plus one label) of the host.
+	 * <li>www.example.co.uk -> example.co.uk</li>
+	 * <li>user.github.io -> user.github.io</li>
+	 * @return null if host is empty, an IP address or a public suffix itself
+	 */
+	@Nullable
+	public String getRegistrableDomain(@NotNull String host) {
+		host = normalize(host);
+		if (host.isEmpty() || isIpAddress(host)) return null;
+		int suffixStart = suffixStart(host);
+		if (suffixStart == 0) return null;
+		int dot = host.lastIndexOf('.', suffixStart - 2);
+		return host.substring(dot + 1);
+	}
+
+	/**
+	 * Key used to group hosts by the site they belong to.
+	 * Returns registrable domain if there is one, otherwise the host itself.
+	 */
+	@NotNull
+	public String getDomainKey(@NotNull String host) {
+		String registrable = getRegistrableDomain(host);
+		return registrable != null ? registrable : normalize(host);
+	}
+
+	/** Index of the first char of public suffix in host. Implements the algorithm from publicsuffix.org **/
+	private int suffixStart(String host) {
+		Node node = root;
+		int end = host.length();
+		int suffixStart = host.lastIndexOf('.') + 1; //Default rule "*"
+
+		while (end > 0 && node != null) {
+			int dot = host.lastIndexOf('.', end - 1);
+			String label = host.substring(dot + 1, end);
+
+			Node exact = node.children.get(label);
+			Node wildcard = node.children.get(WILDCARD);
+			if (exact != null && exact.exception) {
+				return end + 1; //Exception rule: public suffix is the rule without its leftmost label
+			}
+			if ((exact != null && exact.rule) || (wildcard != null && wildcard.rule)) {
+				suffixStart = dot + 1;
+			}
+			node = exact != null ? exact : wildcard;
+			end = dot;
+		}
+		return suffixStart;
+	}
+
+	private static String normalize(String domain) {
+		domain = domain.trim();
+		if (domain.startsWith(".")) domain = domain.substring(1);
+		if (domain.endsWith(".")) domain = domain.substring(0, domain.length() - 1);
+		return toAscii(domain.toLowerCase(Locale.ROOT));
+	}
+
+	private static String toAscii(String domain) {
+		for (int i = 0; i < domain.length(); i++) {
+			if (domain.charAt(i) > 127) {
+				try {
+					return IDN.toASCII(domain, IDN.ALLOW_UNASSIGNED).toLowerCase(Locale.ROOT);
+				} catch (Exception e) {
+					return domain;
+				}
+			}
+		}
+		return domain;
+	}
+
+	static boolean isIpAddress(String host) {
+		if (host.indexOf(':') != -1) return true; //IPv6
+		for (int i = 0; i < host.length(); i++) {
+			char c = host.charAt(i);
+			if ((c < '0' || c > '9') && c != '.') return false;
+		}
+		return true;
+	}
+
+	private static class Node {
+		final HashMap<String, Node> children = new HashMap<>(4);
+		boolean rule;
+		boolean exception;
+	}
+
+	private static class DefaultHolder {
+		static IOException error; //Assigned by load(), before INSTANCE
+		static final PublicSuffixList INSTANCE = load();
+
+		private static PublicSuffixList load() {
+			InputStream is = PublicSuffixList.class.getResourceAsStream(RESOURCE);
+			if (is == null) {
+				error = new FileNotFoundException("Public suffix list '" + RESOURCE + "' is not found");
+				return new PublicSuffixList();
+			}
+			try {
+				return parse(is);
+			} catch (IOException e) {
+				error = e;
+				return new PublicSuffixList();
+			} finally {
+				try {
+					is.close();
+				} catch (IOException ignore) { }
+			}
+		}
+	}
+}
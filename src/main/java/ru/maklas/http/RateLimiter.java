@@ -0,0 +1,145 @@
+package ru.maklas.http;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * <p>
+ * Token bucket. Permits are added at a constant rate up to burst size, every request takes one.
+ * Requests that come when bucket is empty are scheduled after the ones that are already waiting, so pace is kept even under contention.
+ * </p>
+ * <p>
+ * Adapts to the server: 429 pauses the bucket for Retry-After (1 second if absent) and halves the rate,
+ * which then recovers slowly with every successful response. X-RateLimit-Remaining: 0 pauses the bucket till X-RateLimit-Reset.
+ * </p>
+ * Thread-safe. Usually created by {@link RateLimiters} for every host.
+ */
+public class RateLimiter {
+
+	private static final long NANOS = TimeUnit.SECONDS.toNanos(1);
+	/** Server can't pause requests for longer than this **/
+	private static final long MAX_PAUSE_MS = TimeUnit.HOURS.toMillis(1);
+
+	private final double rate;
+	private final double burst;
+	private double currentRate;
+	private double tokens;
+	/** Time at which tokens were last counted. Can be in the future if bucket is paused **/
+	private long lastRefill;
+
+	/** @param permitsPerSecond rate of requests. Burst is one second of requests **/
+	public RateLimiter(double permitsPerSecond) {
+		this(permitsPerSecond, Math.max(1, permitsPerSecond));
+	}
+
+	/**
+	 * @param permitsPerSecond rate of requests
+	 * @param burst max number of requests that can be sent at once after a period of inactivity
+	 */
+	public RateLimiter(double permitsPerSecond, double burst) {
+		if (permitsPerSecond <= 0) throw new IllegalArgumentException("Rate must be positive");
+		this.rate = permitsPerSecond;
+		this.currentRate = permitsPerSecond;
+		this.burst = Math.max(1, burst);
+		this.tokens = this.burst;
+		this.lastRefill = System.nanoTime();
+	}
+
+	/** Configured rate **/
+	public double getRate() {
+		return rate;
+	}
+
+	/** Rate after adaptation to responses of the server **/
+	public synchronized double getCurrentRate() {
+		return currentRate;
+	}
+
+	/** Takes a permit if it's available right away **/
+	public boolean tryAcquire() {
+		return reserve(System.nanoTime(), 0) == 0;
+	}
+
+	/**
+	 * Reserves a permit.
+	 * @return nanoseconds to wait before using the permit or -1 if it's longer than maxWaitNanos. In this case nothing is reserved
+	 */
+	public synchronized long reserve(long now, long maxWaitNanos) {
+		long wait = delay(now);
+		if (wait > maxWaitNanos) return -1;
+		tokens -= 1;
+		return wait;
+	}
+
+	/** Gives back permit that was reserved, but not used **/
+	synchronized void unreserve() {
+		tokens = Math.min(burst, tokens + 1);
+	}
+
+	/** Nanoseconds till the next permit is available **/
+	synchronized long delay(long now) {
+		refill(now);
+		long from = Math.max(now, lastRefill);
+		long tokenWait = tokens >= 1 ? 0 : (long) Math.ceil((1 - tokens) / currentRate * NANOS);
+		return from - now + tokenWait;
+	}
+
+	/** Stops giving permits for the duration **/
+	public synchronized void pause(long nanos) {
+		long now = System.nanoTime();
+		refill(now);
+		long until = now + nanos;
+		if (until > lastRefill) {
+			lastRefill = until;
+			tokens = Math.min(tokens, 0);
+		}
+	}
+
+	/** Adapts to response of the server **/
+	void onResponse(int status, Function<String, String> headers) {
+		if (status == 429) {
+			long retryAfter = RetryPolicy.parseRetryAfter(headers.apply("Retry-After"));
+			synchronized (this) {
+				currentRate = Math.max(rate / 16, currentRate / 2);
+			}
+			pause(retryAfter >= 0 ? TimeUnit.MILLISECONDS.toNanos(Math.min(retryAfter, MAX_PAUSE_MS)) : NANOS);
+			return;
+		}
+		synchronized (this) {
+			if (currentRate < rate) currentRate = Math.min(rate, currentRate + rate / 100);
+		}
+		String remaining = headers.apply("X-RateLimit-Remaining");
+		if (remaining != null && remaining.trim().equals("0")) {
+			long reset = parseReset(headers.apply("X-RateLimit-Reset"));
+			if (reset > 0) pause(TimeUnit.MILLISECONDS.toNanos(Math.min(reset, MAX_PAUSE_MS)));
+		}
+	}
+
+	/** X-RateLimit-Reset in seconds or epoch seconds to ms from now, -1 if absent or invalid **/
+	private static long parseReset(@Nullable String value) {
+		if (value == null) return -1;
+		try {
+			long seconds = Long.parseLong(value.trim());
+			if (seconds > 1_000_000_000L) { //Epoch seconds
+				return Math.max(0, seconds * 1000 - System.currentTimeMillis());
+			}
+			return Math.max(0, seconds * 1000);
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	private void refill(long now) {
+		if (now > lastRefill) {
+			tokens = Math.min(burst, tokens + (now - lastRefill) * currentRate / NANOS);
+			lastRefill = now;
+		}
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "RateLimiter{rate=" + rate + ", currentRate=" + currentRate + ", tokens=" + tokens + "}";
+	}
+}
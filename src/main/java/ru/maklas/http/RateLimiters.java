@@ -0,0 +1,144 @@
+package ru.maklas.http;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.net.URL;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * <p>
+ * Registry of {@link RateLimiter} by host or by route, plus optional global limiter shared by all hosts.
+ * Request takes a permit from both before every attempt.
+ * In {@link Mode#BLOCK} sending thread waits for permit up to {@link #maxWait(long)}, in {@link Mode#FAIL_FAST} request fails right away
+ * with {@link ConnectionException.Type#RATE_LIMITED} if there is no permit.
+ * </p>
+ * <p>ex:
+ * <br>
+ * Http.setDefaultRateLimiters(new RateLimiters(10).global(new RateLimiter(50)));
+ * </p>
+ */
+public class RateLimiters {
+
+	public enum Mode {
+		/** Wait for permit **/
+		BLOCK,
+		/** Fail if permit isn't available right away **/
+		FAIL_FAST
+	}
+
+	private final ConcurrentHashMap<String, RateLimiter> limiters = new ConcurrentHashMap<>();
+	@Nullable private final Function<String, RateLimiter> factory;
+	private Function<URL, String> keyFunction = url -> url.getHost().toLowerCase(Locale.ROOT);
+	@Nullable private RateLimiter global;
+	private Mode mode = Mode.BLOCK;
+	private long maxWaitNanos = TimeUnit.SECONDS.toNanos(60);
+
+	/** No limits by host. Use with {@link #global(RateLimiter)} **/
+	public RateLimiters() {
+		this.factory = null;
+	}
+
+	/** Limits every host to the rate **/
+	public RateLimiters(double permitsPerSecond) {
+		this(key -> new RateLimiter(permitsPerSecond));
+	}
+
+	/** @param factory creates limiter for the key, which is host unless {@link #keyBy(Function)} is used **/
+	public RateLimiters(@NotNull Function<String, RateLimiter> factory) {
+		this.factory = factory;
+	}
+
+	/** Route of the url. Use host and first segment of the path, for example, to limit services behind one host separately **/
+	public RateLimiters keyBy(@NotNull Function<URL, String> keyFunction) {
+		this.keyFunction = keyFunction;
+		return this;
+	}
+
+	/** Limiter shared by all requests in addition to limiter of the host **/
+	public RateLimiters global(@Nullable RateLimiter global) {
+		this.global = global;
+		return this;
+	}
+
+	/** {@link Mode#BLOCK} by default **/
+	public RateLimiters mode(@NotNull Mode mode) {
+		this.mode = mode;
+		return this;
+	}
+
+	/** Longest wait for permit in {@link Mode#BLOCK}. If wait would be longer, request fails right away. 60 seconds by default **/
+	public RateLimiters maxWait(long ms) {
+		this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(ms);
+		return this;
+	}
+
+	public Mode getMode() {
+		return mode;
+	}
+
+	@Nullable
+	public RateLimiter getGlobal() {
+		return global;
+	}
+
+	/** Limiter for the url or null if hosts are not limited **/
+	@Nullable
+	public RateLimiter get(@NotNull URL url) {
+		return factory == null ? null : get(keyFunction.apply(url));
+	}
+
+	/** Limiter with the key or null if hosts are not limited **/
+	@Nullable
+	public RateLimiter get(@NotNull String key) {
+		if (factory == null) return null;
+		RateLimiter limiter = limiters.get(key);
+		if (limiter == null) {
+			limiter = limiters.computeIfAbsent(key, factory);
+		}
+		return limiter;
+	}
+
+	/** All limiters by key, without global one **/
+	public Map<String, RateLimiter> getAll() {
+		return Collections.unmodifiableMap(limiters);
+	}
+
+	/** Reserves permits of the host and global limiter. @return nanoseconds to wait before sending or -1 if request must fail **/
+	long reserve(URL url) {
+		RateLimiter host = get(url);
+		long now = System.nanoTime(); //After limiter is created, so that it's full
+		long maxWait = mode == Mode.FAIL_FAST ? 0 : maxWaitNanos;
+		if (global != null && host != null && global.delay(now) > maxWait) return -1;
+		long wait = 0;
+		if (host != null && (wait = host.reserve(now, maxWait)) < 0) return -1;
+		if (global != null) {
+			long globalWait = global.reserve(now, maxWait);
+			if (globalWait < 0) {
+				if (host != null) host.unreserve();
+				return -1;
+			}
+			wait = Math.max(wait, globalWait);
+		}
+		return wait;
+	}
+
+	/** Gives back permits reserved by {@link #reserve(URL)} for request that was not sent **/
+	void unreserve(URL url) {
+		RateLimiter host = get(url);
+		if (host != null) host.unreserve();
+		if (global != null) global.unreserve();
+	}
+
+	/** Adapts limiter of the host, or global one if hosts are not limited, to response **/
+	void onResponse(URL url, int status, Function<String, String> headers) {
+		RateLimiter limiter = get(url);
+		if (limiter == null) limiter = global;
+		if (limiter != null) limiter.onResponse(status, headers);
+	}
+}
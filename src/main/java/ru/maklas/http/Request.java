@@ -2,39 +2,78 @@ package ru.maklas.http;
 
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
+import ru.maklas.http.jfr.JfrSupport;
 import sun.net.www.MessageHeader;
 import sun.net.www.protocol.https.DelegateHttpsURLConnection;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.lang.reflect.Field;
+import javax.net.ssl.HttpsURLConnection;
 import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.MalformedURLException;
+import java.net.Proxy;
+import java.net.ProxySelector;
+import java.net.SocketTimeoutException;
+import java.net.URISyntaxException;
 import java.net.URL;
+import java.net.UnknownHostException;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
 
 public class Request {
 
-	private HttpURLConnection javaCon;
-	private final URL url;
-	private final String method;
+	private static final int MAX_REDIRECTS = 5;
+	private static final String RETRY_AFTER = "Retry-After";
+
+	private volatile HttpURLConnection javaCon;
+	private URL url;
+	private String method;
 	private byte[] output;
+	private final RequestBody body;
 	private String multipartBoundary;
 	private final MultipartWriter multipartWriter;
 	private final HeaderList reqHeaders;
 	private final ConnectionBuilder builder;
 	/** Time when the Request was sent and HttpResponseCode received **/
 	long timeRequested;
+	/** Whether body is sent in streaming mode. HttpUrlConnection doesn't follow redirects of such requests **/
+	boolean streamed;
+	final Timings timings = new Timings();
+	private long bytesSent;
+	private int attempts;
+	private int tlsHandshakes;
+	private int tlsResumed;
+	/** Whether connection of current attempt was established, so that server could have received the request **/
+	private boolean transmitted;
+	/** Time from the end of body till response headers of current attempt, 0 if headers didn't come. Round trip for {@link ConcurrencyLimiter} **/
+	private long rttNanos;
+	/** Set by cancel() and on expiry of deadline **/
+	private volatile boolean cancelled;
+	private volatile boolean expired;
+	/** System.nanoTime() at which request is aborted, 0 if there is no deadline **/
+	private long deadlineAt;
+	/** Thread that sends the request. Woken up by cancel() if it waits to retry **/
+	private volatile Thread sender;
+	/** Limiter which queue request waits in. Woken up by cancel() **/
+	private volatile ConcurrencyLimiter queuedIn;
+	/** Limiter which place in flight is taken by the request until response is read **/
+	private ConcurrencyLimiter heldLimiter;
 
 	/** Already connected! **/
-	Request(HttpURLConnection javaCon, URL url, String method, byte[] output, String multipartBoundary, MultipartWriter multipartWriter, HeaderList reqHeaders, ConnectionBuilder builder) {
+	Request(HttpURLConnection javaCon, URL url, String method, byte[] output, RequestBody body, String multipartBoundary, MultipartWriter multipartWriter, HeaderList reqHeaders, ConnectionBuilder builder) {
 		this.javaCon = javaCon;
 		this.url = url;
 		this.method = method;
 		this.output = output;
+		this.body = body;
 		this.multipartBoundary = multipartBoundary;
 		this.multipartWriter = multipartWriter;
 		this.reqHeaders = reqHeaders;
@@ -45,12 +84,22 @@ public class Request {
 		return builder;
 	}
 
+	public String getMethod() {
+		return method;
+	}
+
 	/** Data written to output **/
 	@Nullable
 	public byte[] getOutput() {
 		return output;
 	}
 
+	/** Body that's written straight to the output **/
+	@Nullable
+	public RequestBody getBody() {
+		return body;
+	}
+
 	public String getMultipartBoundary() {
 		return multipartBoundary;
 	}
@@ -59,12 +108,19 @@ public class Request {
 		return multipartWriter;
 	}
 
-	/** Data written to output, unless written with inputStream of MultipartWriter **/
+	/** Data written to output, unless written with inputStream of MultipartWriter or with RequestBody that's not replayable **/
 	@Nullable
 	public String getOutputAsString() {
 		if (output != null) {
 			return new String(output, HttpUtils.utf_8);
 		}
+		if (body != null && body.isReplayable()) {
+			ByteArrayOutputStream bos = new ByteArrayOutputStream();
+			try {
+				body.writeTo(bos);
+				return new String(bos.toByteArray(), HttpUtils.utf_8);
+			} catch (IOException ignore) {}
+		}
 		if (multipartWriter != null && !multipartWriter.hasStream()) {
 			ByteArrayOutputStream bos = new ByteArrayOutputStream();
 			try {
@@ -85,16 +141,122 @@ public class Request {
 
 	/** Use it to send data yourself. Throws exception if data was specified in ConnectionBuilder **/
 	public OutputStream getOutputStream() throws IOException {
-		if (output != null || multipartWriter != null) throw new IOException("Output data was already send!!!");
+		if (output != null || body != null || multipartWriter != null) throw new IOException("Output data was already send!!!");
 		return javaCon.getOutputStream();
 	}
 
 	/** Use it to send data yourself. Throws exception if data was specified in ConnectionBuilder **/
 	public OutputStreamWriter getWriter() throws IOException {
-		if (output != null || multipartWriter != null) throw new IOException("Output data was already send!!!");
+		if (output != null || body != null || multipartWriter != null) throw new IOException("Output data was already send!!!");
 		return new OutputStreamWriter(getOutputStream());
 	}
 
+	/** Time spent in each phase of the request. Filled while request is sent **/
+	public Timings getTimings() {
+		return timings;
+	}
+
+	/** Bytes of body written to the output, including bodies sent again on redirects. Headers are not counted **/
+	public long getBytesSent() {
+		return bytesSent;
+	}
+
+	/** Number of times request was sent, including retries. Redirects followed by the library are not counted **/
+	public int getAttempts() {
+		return attempts;
+	}
+
+	/** Number of full TLS handshakes made by this request, including retries and redirects. 0 if connections were reused **/
+	public int getTlsHandshakes() {
+		return tlsHandshakes;
+	}
+
+	/** Number of TLS handshakes of this request that resumed previous session **/
+	public int getTlsResumed() {
+		return tlsResumed;
+	}
+
+	/** Whether body can be written again, so that request can be resent on redirect or retry **/
+	public boolean isReplayable() {
+		return (body == null || body.isReplayable()) && (multipartWriter == null || multipartWriter.isReplayable());
+	}
+
+	/**
+	 * Replaces underlying connection with a new one to another url, with the same method, headers and body.
+	 * Used to follow redirects that HttpUrlConnection can't follow by itself. Previous connection is disconnected.
+	 * Host and Cookie headers are updated for the new url. Authorization is not sent to another host.
+	 */
+	public void reopen(URL url) throws ConnectionException {
+		if (!isReplayable()) {
+			throw new ConnectionException(ConnectionException.Type.IO, new IOException("Body of request to " + this.url + " can't be sent again"), builder, this);
+		}
+		reconnect(url);
+	}
+
+	/** Follows redirect that changes method to GET, same as HttpUrlConnection does: body and its Content-Type are dropped **/
+	private void reopenAsGet(URL url) throws ConnectionException {
+		method = Http.GET;
+		streamed = false;
+		reqHeaders.remove(Header.ContentType.key);
+		reconnect(url);
+	}
+
+	private void reconnect(URL url) throws ConnectionException {
+		HttpURLConnection old = javaCon;
+		old.disconnect();
+		if (!url.getHost().equalsIgnoreCase(this.url.getHost())) {
+			reqHeaders.remove("Authorization");
+			if (reqHeaders.getHeader(Header.Host.key) != null) {
+				reqHeaders.addUnique(Header.Host.fromUrl(url));
+			}
+			reqHeaders.remove(Cookie.headerKey);
+			Header cookieHeader = builder.buildCookieHeader(url);
+			if (cookieHeader != null) {
+				reqHeaders.add(cookieHeader);
+			}
+		}
+		HttpURLConnection javaCon = builder.prepareConnection(url, reqHeaders, method);
+		javaCon.setConnectTimeout(old.getConnectTimeout());
+		javaCon.setReadTimeout(old.getReadTimeout());
+		javaCon.setInstanceFollowRedirects(old.getInstanceFollowRedirects());
+		this.javaCon = javaCon;
+		this.url = url;
+	}
+
+	/**
+	 * Aborts request from any thread. Connection is closed, so the thread that sends request fails with
+	 * {@link ConnectionException.Type#CANCELLED} as soon as it's blocked on reading or writing, or right away if it waits to retry.
+	 * Establishing of connection can't be interrupted and is limited only by connect timeout.
+	 */
+	public void cancel() {
+		cancelled = true;
+		abort();
+	}
+
+	/** Aborts request when its deadline passes. Called by {@link DeadlineTimer} **/
+	void expire() {
+		expired = true;
+		cancelled = true;
+		abort();
+	}
+
+	private void abort() {
+		javaCon.disconnect();
+		Thread sender = this.sender;
+		if (sender != null) LockSupport.unpark(sender);
+		ConcurrencyLimiter queuedIn = this.queuedIn;
+		if (queuedIn != null) queuedIn.wakeUp();
+	}
+
+	public boolean isCancelled() {
+		return cancelled && !expired;
+	}
+
+	/** Whether request was aborted because its deadline passed. See {@link ConnectionBuilder#deadline(long)} **/
+	public boolean isExpired() {
+		return expired;
+	}
+
 	/** Underlying HttpUrlConnection that is used to connect **/
 	public HttpURLConnection getJavaCon() {
 		return javaCon;
@@ -117,7 +279,8 @@ public class Request {
 
 	/**
 	 * Sends request. Note that timeOut will be for both - the connection and read time, so in theory,
-	 * specified time can be doubled. For much stricter timeing, use {@link #send(int, int)}
+	 * specified time can be doubled, and read time out is reset by every received byte.
+	 * To limit total time of the request, use {@link ConnectionBuilder#deadline(long)}
 	 */
 	public FullResponse send(int timeOut) throws ConnectionException {
 		javaCon.setConnectTimeout(timeOut);
@@ -154,70 +317,424 @@ public class Request {
 	}
 
 	private FullResponse _send(HttpCallback callback) throws ConnectionException {
-		int ttc = (int) connect(callback);
-		FullResponse response = new FullResponse(javaCon, url, ttc, this);
-		javaCon.disconnect();
-		if (callback != null) callback.finished(response);
-		return response;
+		Object event = JfrSupport.begin();
+		DeadlineTimer.Timeout deadline = startDeadline();
+		try {
+			int ttc = (int) connect(callback);
+			FullResponse response = new FullResponse(javaCon, url, ttc, this);
+			javaCon.disconnect();
+			cancelledWhileReading(callback);
+			JfrSupport.end(event, this, response, null);
+			if (callback != null) callback.phaseCompleted(Timings.Phase.DOWNLOAD, timings.getDownloadNanos());
+			if (callback != null) callback.finished(response);
+			return response;
+		} catch (ConnectionException e) {
+			JfrSupport.end(event, this, null, e.getType());
+			throw e;
+		} finally {
+			if (deadline != null) deadline.cancel();
+			sender = null;
+			leaveLimiter();
+			releaseBody();
+		}
 	}
 
 	private ConsumedResponse _send(HttpCallback callback, @NotNull ResponseReceiver receiver) throws ConnectionException {
-		int ttc = (int) connect(callback);
+		Object event = JfrSupport.begin();
+		DeadlineTimer.Timeout deadline = startDeadline();
 		try {
+			int ttc = (int) connect(callback);
 			ConsumedResponse response = new ConsumedResponse(javaCon, url, ttc, this, receiver);
+			cancelledWhileReading(callback);
+			JfrSupport.end(event, this, response, null);
+			if (callback != null) callback.phaseCompleted(Timings.Phase.DOWNLOAD, timings.getDownloadNanos());
 			if (callback != null) callback.finished(response);
 			return response;
+		} catch (ConnectionException e) {
+			JfrSupport.end(event, this, null, e.getType());
+			throw e;
 		} finally {
+			if (deadline != null) deadline.cancel();
+			sender = null;
 			javaCon.disconnect();
+			leaveLimiter();
+			releaseBody();
 		}
 	}
 
-	/** Returns time taken to connect **/
-	private long connect(HttpCallback callback) throws ConnectionException {
-		if (callback != null) callback.start(this);
+	/**
+	 * Resolves host and connects, measuring DNS, TCP connect and TLS handshake.
+	 * Host is resolved beforehand, so that HttpUrlConnection takes it from the cache of InetAddress.
+	 * Failure to resolve is left for HttpUrlConnection to report, as it might connect by other means
+	 */
+	private void open(HttpCallback callback) throws ConnectionException {
+		String host = url.getHost();
+		if (!host.isEmpty() && !PublicSuffixList.isIpAddress(host) && !viaProxy()) {
+			long start = System.nanoTime();
+			try {
+				InetAddress.getAllByName(host);
+				phase(callback, Timings.Phase.DNS, System.nanoTime() - start);
+			} catch (UnknownHostException ignore) {}
+		}
+
+		if (javaCon instanceof HttpsURLConnection) {
+			TimingSSLSocketFactory.install((HttpsURLConnection) javaCon);
+		}
+		TimingSSLSocketFactory.reset();
+		long start = System.nanoTime();
+		try {
+			javaCon.connect();
+		} catch (IOException e) {
+			throw new ConnectionException(e, getBuilder(), this);
+		}
+		long end = System.nanoTime();
+		int handshake = TimingSSLSocketFactory.getHandshake();
+		if (handshake == TimingSSLSocketFactory.FULL_HANDSHAKE) tlsHandshakes++;
+		if (handshake == TimingSSLSocketFactory.RESUMED_HANDSHAKE) tlsResumed++;
+		long layeredAt = TimingSSLSocketFactory.getLayeredAt();
+		if (layeredAt >= start) {
+			phase(callback, Timings.Phase.CONNECT, layeredAt - start);
+			phase(callback, Timings.Phase.TLS, end - layeredAt);
+		} else {
+			phase(callback, Timings.Phase.CONNECT, end - start);
+		}
+	}
+
+	/** Whether connection goes through proxy of the builder or the one that JVM-wide ProxySelector chooses. Then host is resolved by the proxy **/
+	private boolean viaProxy() {
+		if (builder.getProxy() != null) return true;
+		ProxySelector selector = ProxySelector.getDefault();
+		if (selector == null) return false;
+		List<Proxy> proxies;
+		try {
+			proxies = selector.select(url.toURI());
+		} catch (URISyntaxException | IllegalArgumentException e) {
+			return true;
+		}
+		if (proxies == null) return false;
+		for (Proxy proxy : proxies) {
+			if (proxy.type() != Proxy.Type.DIRECT) return true;
+		}
+		return false;
+	}
+
+	/** Waits for status line and headers of the response **/
+	private int awaitResponse(HttpCallback callback) throws IOException {
+		long start = System.nanoTime();
+		int responseCode = javaCon.getResponseCode();
+		rttNanos = System.nanoTime() - start;
+		phase(callback, Timings.Phase.TTFB, rttNanos);
+		return responseCode;
+	}
+
+	void phase(@Nullable HttpCallback callback, Timings.Phase phase, long nanos) {
+		timings.add(phase, nanos);
+		if (callback != null) callback.phaseCompleted(phase, nanos);
+	}
+
+	private void releaseBody() {
+		if (multipartWriter != null) multipartWriter.release();
+	}
 
-		if ((output != null || multipartWriter != null) && !Http.GET.equals(method)) {
+	private void writeBody(HttpCallback callback) throws ConnectionException {
+		if ((output != null || body != null || multipartWriter != null) && !Http.GET.equals(method)) {
+			long start = System.nanoTime();
 			try {
-				OutputStream os = javaCon.getOutputStream();
+				CountingOutputStream os = new CountingOutputStream(javaCon.getOutputStream());
 				if (output != null) {
 					os.write(output);
+				} else if (body != null && multipartWriter == null) {
+					body.writeTo(os);
 				} else {
 					multipartWriter.encode(os, getMultipartBoundary());
 				}
 				os.flush();
 				os.close();
+				bytesSent += os.getCount();
+				phase(callback, Timings.Phase.WRITE, System.nanoTime() - start);
 				if (callback != null) callback.wroteBody();
 			} catch (IOException e) {
-				ConnectionException ce = new ConnectionException(e, getBuilder(), this);
+				throw new ConnectionException(e, getBuilder(), this);
+			}
+		}
+	}
+
+	/**
+	 * HttpUrlConnection doesn't follow redirects of streamed requests, so they are followed here the same way.
+	 * 303, and 301 or 302 of POST, are followed with GET without body. Otherwise method and body are kept,
+	 * so request is sent again to the new location if body is replayable
+	 * @return url to follow or null
+	 */
+	@Nullable
+	private URL getRedirectLocation(int responseCode) {
+		if (!streamed || responseCode < 301 || responseCode > 308 || responseCode == 304 || responseCode == 305 || responseCode == 306
+				|| !javaCon.getInstanceFollowRedirects() || (!changesToGet(responseCode) && !isReplayable())) {
+			return null;
+		}
+		String location = javaCon.getHeaderField(Header.Location.key);
+		if (location == null) return null;
+		try {
+			URL target = new URL(url, location);
+			return target.getProtocol().equalsIgnoreCase(url.getProtocol()) ? target : null; //Same as HttpUrlConnection, protocol can't be changed
+		} catch (MalformedURLException e) {
+			return null;
+		}
+	}
+
+	private boolean changesToGet(int responseCode) {
+		return responseCode == 303 || ((responseCode == 301 || responseCode == 302) && Http.POST.equals(method));
+	}
+
+	/**
+	 * Sends request, retrying it according to {@link RetryPolicy} of the builder or {@link Http#setDefaultRetryPolicy(RetryPolicy)}.
+	 * Returns time taken to connect, including time spent waiting between attempts
+	 */
+	private long connect(HttpCallback callback) throws ConnectionException {
+		if (callback != null) callback.start(this);
+		sender = Thread.currentThread();
+		RetryPolicy policy = builder.getRetryPolicy() != null ? builder.getRetryPolicy() : Http.defaultRetryPolicy;
+		if (policy != null) policy.getBudget().deposit();
+		CircuitBreakers breakers = builder.getCircuitBreakers() != null ? builder.getCircuitBreakers() : Http.defaultCircuitBreakers;
+		CircuitBreaker breaker = breakers != null ? breakers.get(url) : null;
+		RateLimiters limiters = builder.getRateLimiters() != null ? builder.getRateLimiters() : Http.defaultRateLimiters;
+		ConcurrencyLimiters concurrency = builder.getConcurrencyLimiters() != null ? builder.getConcurrencyLimiters() : Http.defaultConcurrencyLimiters;
+		ConcurrencyLimiter limiter = concurrency != null ? concurrency.get(url) : null;
+		URL initialUrl = url;
+		if (multipartWriter != null) {
+			multipartWriter.keepForReplay((policy != null && policy.getMaxAttempts() > 1) || (streamed && javaCon.getInstanceFollowRedirects()));
+		}
+
+		long before = System.currentTimeMillis();
+		long delay = 0;
+		int responseCode;
+		while (true) {
+			if (limiters != null) throttle(callback, limiters, initialUrl);
+			if (limiter != null) enterLimiter(callback, limiter);
+			long permit = breaker != null ? breaker.acquire() : 0;
+			if (permit < 0) {
+				ConnectionException ce = new ConnectionException(ConnectionException.Type.CIRCUIT_OPEN, new IOException("Circuit breaker " + breaker.getName() + " is open"), builder, this);
 				if (callback != null) callback.interrupted(ce);
 				throw ce;
 			}
+			attempts++;
+			transmitted = false;
+			rttNanos = 0;
+			boolean completed = false; //Otherwise breaker gets no outcome and permit must be released
+			try {
+				responseCode = attempt(callback);
+				completed = true;
+			} catch (ConnectionException ce) {
+				completed = true;
+				if (!cancelled && deadlineAt != 0 && System.nanoTime() - deadlineAt >= 0) expire(); //Timeout, cut to deadline, came before timer
+				if (cancelled) ce = aborted(ce);
+				if (limiter != null && (!cancelled || expired)) limiter.record(rttNanos, limiter.isDrop(ce.getType()));
+				if (breaker != null) {
+					if (cancelled && !expired) {
+						breaker.release(permit);
+					} else {
+						breaker.record(permit, breaker.isFailure(ce.getType()));
+					}
+				}
+				if (cancelled || policy == null || !policy.shouldRetry(this, ce.getType(), attempts, transmitted)) {
+					if (callback != null) callback.interrupted(ce);
+					throw ce;
+				}
+				delay = policy.nextDelay(delay);
+				leaveLimiter();
+				retry(callback, delay, ce);
+				continue;
+			} finally {
+				if (breaker != null && !completed) breaker.release(permit);
+			}
+			if (limiter != null) limiter.record(rttNanos, limiter.isDrop(responseCode));
+			if (breaker != null) breaker.record(permit, breaker.isFailure(responseCode));
+			if (limiters != null) limiters.onResponse(initialUrl, responseCode, javaCon::getHeaderField);
+			if (policy != null && policy.getMaxAttempts() > attempts) {
+				long retryAfter = policy.retryAfter(javaCon.getHeaderField(RETRY_AFTER));
+				if (retryAfter != Long.MAX_VALUE && policy.shouldRetry(this, responseCode, attempts)) {
+					delay = retryAfter >= 0 ? retryAfter : policy.nextDelay(delay);
+					leaveLimiter();
+					retry(callback, delay, null);
+					continue;
+				}
+			}
+			break;
+		}
+
+		if (Http.fetchJavaHeaders) {
+			appendJavaHeaders();
 		}
+		timeRequested = System.currentTimeMillis();
+		long ttc = timeRequested - before;
+		if (callback != null) callback.connected(responseCode);
+		return ttc;
+	}
+
+	/** Connects, writes body and waits for response, following redirects of streamed requests **/
+	private int attempt(HttpCallback callback) throws ConnectionException {
+		checkCancelled();
+		if (deadlineAt != 0) limitTimeouts();
 		if (callback != null) callback.connecting();
-		long before = System.currentTimeMillis();
+		open(callback);
+		transmitted = true;
+		writeBody(callback);
 		try {
-			javaCon.connect();
+			int responseCode = awaitResponse(callback);
+			URL redirect;
+			int redirects = 0;
+			while (redirects++ < MAX_REDIRECTS && (redirect = getRedirectLocation(responseCode)) != null) {
+				if (changesToGet(responseCode)) {
+					reopenAsGet(redirect);
+				} else {
+					reopen(redirect);
+				}
+				open(callback);
+				writeBody(callback);
+				responseCode = awaitResponse(callback);
+			}
+			return responseCode;
 		} catch (IOException e) {
-			ConnectionException ce = new ConnectionException(e, getBuilder(), this);
+			throw new ConnectionException(ConnectionException.Type.CONNECTION_ERROR, e, getBuilder(), this);
+		}
+	}
+
+	/**
+	 * Waits and replaces connection with a new one to the same url.
+	 * @param cause exception of failed attempt or null if it failed with status code. Thrown if thread is interrupted while waiting
+	 */
+	private void retry(HttpCallback callback, long delay, @Nullable ConnectionException cause) throws ConnectionException {
+		try {
+			if (!sleep(TimeUnit.MILLISECONDS.toNanos(delay))) {
+				throw cause != null ? cause : new ConnectionException(ConnectionException.Type.IO, new InterruptedIOException("Interrupted while waiting to retry"), builder, this);
+			}
+			checkCancelled();
+			reopen(url);
+		} catch (ConnectionException ce) {
 			if (callback != null) callback.interrupted(ce);
 			throw ce;
 		}
+	}
+
+	/** Waits for permit of rate limiters or fails if there is none **/
+	private void throttle(HttpCallback callback, RateLimiters limiters, URL url) throws ConnectionException {
 		try {
-			int responseCode = javaCon.getResponseCode();
-			if (Http.fetchJavaHeaders) {
-				appendJavaHeaders();
+			long wait = limiters.reserve(url);
+			if (wait < 0) {
+				throw new ConnectionException(ConnectionException.Type.RATE_LIMITED, new IOException("Rate limit of " + url.getHost() + " is exceeded"), builder, this);
 			}
-			timeRequested = System.currentTimeMillis();
-			long ttc = timeRequested - before;
-			if (callback != null) callback.connected(responseCode);
-			return ttc;
-		} catch (IOException e) {
-			ConnectionException ce = new ConnectionException(ConnectionException.Type.CONNECTION_ERROR, e, getBuilder(), this);
+			boolean waited = sleep(wait);
+			if (!waited || cancelled) {
+				limiters.unreserve(url);
+				if (!waited) throw new ConnectionException(ConnectionException.Type.IO, new InterruptedIOException("Interrupted while waiting for rate limit"), builder, this);
+			}
+			checkCancelled();
+		} catch (ConnectionException ce) {
 			if (callback != null) callback.interrupted(ce);
 			throw ce;
 		}
 	}
 
+	/** Takes place in flight, waiting in queue of the limiter if needed **/
+	private void enterLimiter(HttpCallback callback, ConcurrencyLimiter limiter) throws ConnectionException {
+		try {
+			boolean acquired;
+			queuedIn = limiter;
+			try {
+				acquired = limiter.acquire(() -> cancelled);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new ConnectionException(ConnectionException.Type.IO, new InterruptedIOException("Interrupted while waiting for concurrency limit"), builder, this);
+			} finally {
+				queuedIn = null;
+			}
+			if (!acquired) {
+				checkCancelled();
+				throw new ConnectionException(ConnectionException.Type.CONCURRENCY_LIMITED, new IOException("Concurrency limit of " + limiter.getName() + " is exceeded"), builder, this);
+			}
+			heldLimiter = limiter;
+		} catch (ConnectionException ce) {
+			if (callback != null) callback.interrupted(ce);
+			throw ce;
+		}
+	}
+
+	private void leaveLimiter() {
+		ConcurrencyLimiter limiter = heldLimiter;
+		if (limiter != null) {
+			heldLimiter = null;
+			limiter.release();
+		}
+	}
+
+	/** Parks thread until time passes or request is cancelled. @return false if thread was interrupted **/
+	private boolean sleep(long nanos) {
+		long deadline = System.nanoTime() + nanos;
+		long left;
+		while (!cancelled && (left = deadline - System.nanoTime()) > 0) {
+			LockSupport.parkNanos(this, left);
+			if (Thread.interrupted()) {
+				Thread.currentThread().interrupt();
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/** Body readers keep exception to themselves, so cancellation during download must be checked after them **/
+	private void cancelledWhileReading(HttpCallback callback) throws ConnectionException {
+		try {
+			checkCancelled();
+		} catch (ConnectionException ce) {
+			if (callback != null) callback.interrupted(ce);
+			throw ce;
+		}
+	}
+
+	private void checkCancelled() throws ConnectionException {
+		if (expired) {
+			throw new ConnectionException(ConnectionException.Type.TIME_OUT, new SocketTimeoutException("Deadline of request to " + url + " has passed"), builder, this);
+		}
+		if (cancelled) {
+			throw new ConnectionException(ConnectionException.Type.CANCELLED, new IOException("Request to " + url + " was cancelled"), builder, this);
+		}
+	}
+
+	/** Replaces exception of aborted request with the reason of abort **/
+	private ConnectionException aborted(ConnectionException ce) {
+		ConnectionException.Type type = expired ? ConnectionException.Type.TIME_OUT : ConnectionException.Type.CANCELLED;
+		if (ce.getType() == type) return ce;
+		IOException cause = ce.getCause() instanceof IOException ? (IOException) ce.getCause() : new IOException(ce.getMessage());
+		if (expired) {
+			SocketTimeoutException timeout = new SocketTimeoutException("Deadline of request to " + url + " has passed");
+			timeout.initCause(cause);
+			cause = timeout;
+		}
+		return new ConnectionException(type, cause, builder, this);
+	}
+
+	/** Schedules abort of the request at its deadline, if any **/
+	@Nullable
+	private DeadlineTimer.Timeout startDeadline() {
+		long deadline = builder.getDeadline() > 0 ? builder.getDeadline() : Http.defaultDeadline;
+		if (deadline <= 0) return null;
+		deadlineAt = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(deadline);
+		return DeadlineTimer.schedule(this, deadlineAt);
+	}
+
+	/** Connection can't be aborted while it's being established, so connect and read timeouts are cut to the time left **/
+	private void limitTimeouts() throws ConnectionException {
+		long leftNanos = deadlineAt - System.nanoTime();
+		if (leftNanos <= 0) {
+			expire();
+			checkCancelled();
+		}
+		long left = TimeUnit.NANOSECONDS.toMillis(leftNanos) + 1;
+		int connectTimeout = javaCon.getConnectTimeout();
+		int readTimeout = javaCon.getReadTimeout();
+		javaCon.setConnectTimeout((int) (connectTimeout <= 0 ? left : Math.min(connectTimeout, left)));
+		javaCon.setReadTimeout((int) (readTimeout <= 0 ? left : Math.min(readTimeout, left)));
+	}
+
 	private void appendJavaHeaders() {
 		Map<String, List<String>> javaRequests = getJavaRequests();
 		for (Map.Entry<String, List<String>> e : javaRequests.entrySet()) {
@@ -0,0 +1,27 @@
+package ru.maklas.http;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Source of request body that writes itself straight into the output of connection,
+ * so the whole body doesn't have to be materialized in memory.
+ * Set with {@link ConnectionBuilder#write(Header.ContentType, RequestBody)}.
+ */
+public interface RequestBody {
+
+	/**
+	 * Exact length of the body in bytes or -1 if it's unknown.
+	 * If length is known and is not less than {@link Http#setStreamingThreshold(long)}, body is streamed
+	 * to the server instead of being buffered by HttpUrlConnection.
+	 */
+	long contentLength();
+
+	/** Writes the body. Must write exactly {@link #contentLength()} bytes if length is known **/
+	void writeTo(OutputStream os) throws IOException;
+
+	/** Whether {@link #writeTo(OutputStream)} can be called more than once and produces the same bytes each time **/
+	default boolean isReplayable() {
+		return true;
+	}
+}
@@ -0,0 +1,315 @@
+package ru.maklas.http;
+
+import com.badlogic.gdx.utils.Array;
+import org.intellij.lang.annotations.MagicConstant;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+
+/**
+ * <p>
+ * Immutable shape of a request, compiled once and instantiated for every call.
+ * URL is parsed and headers are validated only once, during {@link #compile(ConnectionBuilder)}.
+ * Every call only provides variable parts: path parameters, query, extra headers and body.
+ * Template can be shared between threads. Calls share the assigned {@link CookieStore}:
+ * they read its cookies and apply Set-Cookie to it, relying on the store's own synchronization.
+ * </p>
+ * <p>ex:
+ * <br>
+ * RequestTemplate getUser = ConnectionBuilder.get("https://api.example.com/users/{id}").h(Header.Accept.appJson).toTemplate();
+ * <br>
+ * FullResponse response = getUser.call().param("id", 42).query(new UrlEncoder().add("fields", "name")).send();
+ * </p>
+ */
+public class RequestTemplate {
+
+	private final String method;
+	private final String protocol;
+	private final String host;
+	private final int port;
+	private final String[] pathParts; //Literal parts of the path. Parameter i is placed between parts i and i + 1
+	private final String[] paramNames;
+	@Nullable private final String query; //Query of the template URL without '?'
+	private final HeaderList headers;
+	@Nullable private final byte[] body;
+	private final Array<Cookie> cookies;
+	@Nullable private final CookieStore cookieStore;
+	@Nullable private final ProxyData proxy;
+	@Nullable private final Boolean followRedirect;
+	@Nullable private final Boolean useCache;
+	@Nullable private final RetryPolicy retryPolicy;
+	@Nullable private final CircuitBreakers circuitBreakers;
+	@Nullable private final RateLimiters rateLimiters;
+	@Nullable private final ConcurrencyLimiters concurrencyLimiters;
+	private final long deadline;
+	@Nullable private final TlsConfig tls;
+
+	private RequestTemplate(ConnectionBuilder builder, URL url, @Nullable byte[] output) {
+		this.method = builder.getMethod();
+		this.protocol = url.getProtocol();
+		this.host = url.getHost();
+		this.port = url.getPort();
+
+		Array<String> parts = new Array<>(String.class);
+		Array<String> names = new Array<>(String.class);
+		String path = url.getPath();
+		int from = 0;
+		int open;
+		while ((open = path.indexOf('{', from)) != -1) {
+			int close = path.indexOf('}', open);
+			if (close == -1) break;
+			parts.add(path.substring(from, open));
+			names.add(path.substring(open + 1, close));
+			from = close + 1;
+		}
+		parts.add(path.substring(from));
+		this.pathParts = parts.toArray();
+		this.paramNames = names.toArray();
+
+		String query = url.getQuery();
+		boolean isGet = Http.GET.equals(method);
+		if (isGet && output != null && output.length > 0) {
+			String outputQuery = new String(output, HttpUtils.utf_8);
+			query = query == null || query.isEmpty() ? outputQuery : query + "&" + outputQuery;
+		}
+		UrlEncoder builderQuery = builder.getQuery();
+		if (isGet && builderQuery != null && builderQuery.getPairs().size > 0) {
+			String encoded = builderQuery.encode();
+			query = query == null || query.isEmpty() ? encoded : query + "&" + encoded;
+		}
+		this.query = query == null || query.isEmpty() ? null : query;
+		this.body = isGet || output == null ? null : output;
+
+		this.headers = new HeaderList();
+		for (Header header : builder.getHeaders()) {
+			validate(header);
+			headers.add(header);
+		}
+		this.cookieStore = builder.getAssignedCookieStore();
+		this.cookies = new Array<>(builder.getCookies());
+		this.proxy = builder.getProxy();
+		this.followRedirect = builder.getFollowRedirect();
+		this.useCache = builder.getUseCache();
+		this.retryPolicy = builder.getRetryPolicy();
+		this.circuitBreakers = builder.getCircuitBreakers();
+		this.rateLimiters = builder.getRateLimiters();
+		this.concurrencyLimiters = builder.getConcurrencyLimiters();
+		this.deadline = builder.getDeadline();
+		this.tls = builder.getTls();
+	}
+
+	/**
+	 * Compiles template from the builder. Builder is not affected and can still be used.
+	 * Path of URL can contain parameters in curly braces: <b>/users/{id}/posts</b>.
+	 * If builder has a body, it's used by calls that don't specify their own.
+	 * @throws ConnectionException with type {@link ConnectionException.Type#BAD_URL} if URL can't be parsed
+	 * @throws IllegalArgumentException if builder has a multipart body, body that's not replayable or header contains illegal characters
+	 */
+	public static RequestTemplate compile(@NotNull ConnectionBuilder builder) throws ConnectionException {
+		if (builder.getMultipartWriter() != null) {
+			throw new IllegalArgumentException("Multipart body can't be a part of a template");
+		}
+		URL url;
+		try {
+			url = builder.getUrl() != null ? builder.getUrl() : ConnectionBuilder.parseUrl(builder.getStringUrl());
+		} catch (MalformedURLException e) {
+			throw new ConnectionException(ConnectionException.Type.BAD_URL, e, builder, null);
+		}
+		byte[] output = builder.getOutput();
+		RequestBody body = builder.getBody();
+		if (output != null) {
+			output = output.clone();
+		} else if (body != null) {
+			if (!body.isReplayable()) {
+				throw new IllegalArgumentException("Body that's not replayable can't be a part of a template");
+			}
+			ByteArrayOutputStream bos = new ByteArrayOutputStream();
+			try {
+				body.writeTo(bos);
+			} catch (IOException e) {
+				throw new ConnectionException(ConnectionException.Type.IO, e, builder, null);
+			}
+			output = bos.toByteArray();
+		}
+		return new RequestTemplate(builder, url, output);
+	}
+
+	/** Starts a new call with this template **/
+	public Call call() {
+		return new Call();
+	}
+
+	@MagicConstant(valuesFromClass = Http.class)
+	public String getMethod() {
+		return method;
+	}
+
+	/** Copy of the headers that every call starts with **/
+	public HeaderList getHeaders() {
+		HeaderList copy = new HeaderList();
+		copy.addAll(headers);
+		return copy;
+	}
+
+	/** Names of path parameters in the order of appearance **/
+	public String[] getParamNames() {
+		return paramNames.clone();
+	}
+
+	private static void validate(Header header) {
+		String key = header.key;
+		if (key == null || key.isEmpty()) {
+			throw new IllegalArgumentException("Header name must not be empty");
+		}
+		for (int i = 0; i < key.length(); i++) {
+			char c = key.charAt(i);
+			if (c <= ' ' || c >= 127 || c == ':') {
+				throw new IllegalArgumentException("Illegal character in header name '" + key + "'");
+			}
+		}
+		String value = header.value;
+		if (value != null && (value.indexOf('\r') != -1 || value.indexOf('\n') != -1)) {
+			throw new IllegalArgumentException("Header '" + key + "' contains line break");
+		}
+	}
+
+	/** Variable parts of a single request made by template. Not thread-safe, should be used once **/
+	public class Call {
+
+		private final String[] params = new String[paramNames.length];
+		private UrlEncoder query;
+		private HeaderList extraHeaders;
+		private Header.ContentType contentType;
+		private byte[] body = RequestTemplate.this.body;
+
+		private Call() {
+
+		}
+
+		/** Value of path parameter. Value is encoded as URI component **/
+		public Call param(String name, Object value) {
+			for (int i = 0; i < paramNames.length; i++) {
+				if (paramNames[i].equals(name)) {
+					params[i] = UrlEncoder.encodeURIComponent(String.valueOf(value));
+					return this;
+				}
+			}
+			throw new IllegalArgumentException("Template has no parameter '" + name + "'");
+		}
+
+		/** Query that's appended to the query of the template **/
+		public Call query(@Nullable UrlEncoder query) {
+			this.query = query;
+			return this;
+		}
+
+		/** Adds a header or replaces one from the template **/
+		public Call header(Header header) {
+			if (extraHeaders == null) extraHeaders = new HeaderList();
+			extraHeaders.addUnique(header);
+			return this;
+		}
+
+		/** Adds a header or replaces one from the template **/
+		public Call h(Header header) {
+			return header(header);
+		}
+
+		/** Replaces body of the template **/
+		public Call write(@Nullable Header.ContentType contentType, byte[] data) {
+			this.contentType = contentType;
+			this.body = data;
+			return this;
+		}
+
+		/** Replaces body of the template. String is encoded with UTF-8 **/
+		public Call write(@Nullable Header.ContentType contentType, String data) {
+			return write(contentType, data.getBytes(HttpUtils.utf_8));
+		}
+
+		/** Specifies Content-Type as 'application/json; charset=UTF-8' and replaces body of the template **/
+		public Call writeJson(String json) {
+			return write(Header.ContentType.appJson, json);
+		}
+
+		/** Specifies Content-Type as form_urlencoded and replaces body of the template **/
+		public Call writeUrlEncoded(UrlEncoder encoder) {
+			return write(Header.ContentType.form_urlencoded, encoder.encode(HttpUtils.utf_8));
+		}
+
+		/** URL of this call. Built from already parsed parts of the template, without parsing it again **/
+		public URL buildUrl() throws MalformedURLException {
+			StringBuilder file = new StringBuilder(64);
+			file.append(pathParts[0]);
+			for (int i = 0; i < params.length; i++) {
+				if (params[i] == null) {
+					throw new MalformedURLException("Path parameter '" + paramNames[i] + "' is not specified");
+				}
+				file.append(params[i]).append(pathParts[i + 1]);
+			}
+			String templateQuery = RequestTemplate.this.query;
+			boolean hasQuery = query != null && query.getPairs().size > 0;
+			if (templateQuery != null) {
+				file.append('?').append(templateQuery);
+				if (hasQuery) file.append('&');
+			} else if (hasQuery) {
+				file.append('?');
+			}
+			if (hasQuery) {
+				file.append(query.encode());
+			}
+			return new URL(protocol, host, port, file.toString());
+		}
+
+		/** Builder with all the data of this call. Can be modified further **/
+		public ConnectionBuilder toBuilder() throws ConnectionException {
+			ConnectionBuilder builder = new ConnectionBuilder(method);
+			try {
+				builder.url(buildUrl());
+			} catch (MalformedURLException e) {
+				throw new ConnectionException(ConnectionException.Type.BAD_URL, e, builder, null);
+			}
+			builder.getHeaders().addAll(headers);
+			if (extraHeaders != null) {
+				for (Header header : extraHeaders) {
+					builder.header(header);
+				}
+			}
+			if (cookieStore != null) builder.assignCookieStore(cookieStore);
+			for (int i = 0; i < cookies.size; i++) { //Array's iterators are reused, so they can't be used from several threads
+				builder.addCookie(cookies.get(i));
+			}
+			if (proxy != null) builder.proxy(proxy);
+			if (followRedirect != null) builder.allowRedirect(followRedirect);
+			if (useCache != null) builder.cache(useCache);
+			if (retryPolicy != null) builder.retry(retryPolicy);
+			if (circuitBreakers != null) builder.circuitBreakers(circuitBreakers);
+			if (rateLimiters != null) builder.rateLimiters(rateLimiters);
+			if (concurrencyLimiters != null) builder.concurrencyLimiters(concurrencyLimiters);
+			if (deadline > 0) builder.deadline(deadline);
+			if (tls != null) builder.tls(tls);
+			if (body != null && !Http.GET.equals(method)) {
+				if (contentType != null) {
+					builder.write(contentType, body);
+				} else {
+					builder.write(body);
+				}
+			}
+			return builder;
+		}
+
+		/** Builds request of this call **/
+		public Request build() throws ConnectionException {
+			return toBuilder().build();
+		}
+
+		/** Builds and sends request of this call **/
+		public FullResponse send() throws ConnectionException {
+			return build().send();
+		}
+	}
+}
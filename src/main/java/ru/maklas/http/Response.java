@@ -11,9 +11,6 @@ import java.net.HttpURLConnection;
 import java.net.URL;
 import java.nio.charset.Charset;
 import java.util.Date;
-import java.util.List;
-import java.util.Map;
-import java.util.Set;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.InflaterInputStream;
 
@@ -30,6 +27,7 @@ public abstract class Response {
 	private CookieChangeList cookieChangeList;
 	protected int contentLength; //Content length from the headers. Doesn't actually represent length of the content. Might be 0
 	private Charset charset;
+	CountingInputStream received; //Counts bytes of body as they were received
 
 	public Response(HttpURLConnection javaCon, URL url, int msToConnect, Request request) {
 		this.javaCon = javaCon;
@@ -52,6 +50,11 @@ public abstract class Response {
 		return msToConnect;
 	}
 
+	/** Time spent in each phase of the request, in nanoseconds **/
+	public Timings getTimings() {
+		return request.getTimings();
+	}
+
 	/** Http code of the response. Can be translated with {@link Http#getResponseCodeMeaning(int, String)} **/
 	public int getResponseCode() {
 		return responseCode;
@@ -90,31 +93,33 @@ public abstract class Response {
 		return javaCon;
 	}
 
-	/** Response headers **/
+	/** Response headers. In the order they were received **/
 	public ResponseHeaders getHeaders() {
 		if (headerCache == null) {
 			headerCache = new ResponseHeaders();
 			try {
-				Set<Map.Entry<String, List<String>>> entries = javaCon.getHeaderFields().entrySet();
-				for (Map.Entry<String, List<String>> entry : entries) {
-					if (entry.getKey() == null || entry.getValue() == null) continue;
-					for (String s : entry.getValue()) {
-						if (s != null) {
-							headerCache.add(new Header(entry.getKey(), s));
-						}
+				//Reading by index avoids building Map<String, List<String>> of HttpUrlConnection. Index 0 is a status line
+				for (int i = 0; ; i++) {
+					String value = javaCon.getHeaderField(i);
+					if (value == null) break;
+					String key = javaCon.getHeaderFieldKey(i);
+					if (key == null) continue;
+					headerCache.add(new Header(key, value));
+				}
+				Header contentLengthHeader = headerCache.getHeader(Header.ContentLength.key);
+				if (contentLengthHeader != null) {
+					try {
+						this.contentLength = Integer.parseInt(contentLengthHeader.value.trim());
+					} catch (Throwable ignore) {
 					}
-					if ("content-length".equalsIgnoreCase(entry.getKey())) {
-						try {
-							this.contentLength = Integer.parseInt(entry.getValue().get(0));
-						} catch (Throwable ignore) {
-						}
-					} else if (Header.ContentType.key.equalsIgnoreCase(entry.getKey())) {
-						try {
-							String afterCharset = StringUtils.substringAfter(entry.getValue().get(0), "charset=");
-							String responseCharset = StringUtils.substringBefore(afterCharset, ";");
-							charset = Charset.forName(responseCharset);
-						} catch (Exception ignore) {
-						}
+				}
+				Header contentTypeHeader = headerCache.getHeader(Header.ContentType.key);
+				if (contentTypeHeader != null) {
+					try {
+						String afterCharset = StringUtils.substringAfter(contentTypeHeader.value, "charset=");
+						String responseCharset = StringUtils.substringBefore(afterCharset, ";");
+						charset = Charset.forName(responseCharset);
+					} catch (Exception ignore) {
 					}
 				}
 			} catch (Throwable ignore) {
@@ -161,11 +166,22 @@ public abstract class Response {
 	}
 
 	protected InputStream _getInputStream() throws IOException {
-		return wrapStream(javaCon.getInputStream());
+		return wrapStream(count(javaCon.getInputStream()));
 	}
 
 	protected InputStream _getErrorInputStream() throws IOException {
-		return wrapStream(javaCon.getErrorStream());
+		return wrapStream(count(javaCon.getErrorStream()));
+	}
+
+	private InputStream count(InputStream is) {
+		if (is == null) return null;
+		received = new CountingInputStream(is);
+		return received;
+	}
+
+	/** Bytes of body received, before decompression. Headers are not counted **/
+	public long getBytesReceived() {
+		return received != null ? received.getCount() : 0;
 	}
 
 	InputStream wrapStream(InputStream is) throws IOException {
@@ -246,7 +262,7 @@ public abstract class Response {
 			w.println();
 			w.println("------- RESPONSE -------");
 			w.println("URL: " + getResponseUrl());
-			w.println("Time: " + getResponseTime() + " ms");
+			w.println("Time: " + getResponseTime() + " ms " + getTimings());
 			w.println("Code: " + responseCode + " (" + Http.getResponseCodeMeaning(responseCode, "???") + ")");
 			w.println("Message: " + responseMessage);
 			for (Header header : getHeaders()) {
@@ -24,7 +24,7 @@ public class ResponseHeaders extends HeaderList {
 			if (entry.getKey() == null || entry.getValue() == null) continue;
 			for (String s : entry.getValue()) {
 				if (s != null) {
-					headers.add(new Header(entry.getKey(), s));
+					add(new Header(entry.getKey(), s));
 				}
 			}
 		}
@@ -41,11 +41,8 @@ public class ResponseHeaders extends HeaderList {
 	@Nullable
 	public CookieChangeList updateCookiesIfChanged(@NotNull URL url, @NotNull CookieStore cookies, @NotNull Predicate<Cookie> allowCookiePredicate) {
 		Array<Cookie> newCookies = new Array<>(5);
-		for (int i = 0; i < headers.size; i++) {
-			Header header = headers.get(i);
-			if (Header.SetCookie.key.equalsIgnoreCase(header.key)) {
-				newCookies.add(Cookie.fromSetCookieValue(url, header.value));
-			}
+		for (Header header : getHeaders(Header.SetCookie.key, false)) {
+			newCookies.add(Cookie.fromSetCookieValue(url, header.value));
 		}
 
 		if (Http.generateCookieChanges) {
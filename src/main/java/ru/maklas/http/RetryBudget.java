@@ -0,0 +1,54 @@
+package ru.maklas.http;
+
+/**
+ * Limits retries to a part of all requests, so that retries can't multiply load on a server that is already failing.
+ * Every request deposits ratio of a retry, every retry withdraws one. On top of that, a small number of retries per second
+ * is always allowed, so that rare requests can be retried too. Thread-safe, shared by all requests of a {@link RetryPolicy}.
+ */
+public class RetryBudget {
+
+	private final double ratio;
+	private final int minPerSecond;
+	private final double maxBalance;
+	private double balance;
+	private double reserve;
+	private long lastRefill;
+
+	/**
+	 * @param ratio retries allowed per request. 0.2 allows one retry for every 5 requests
+	 * @param minPerSecond retries allowed every second regardless of ratio
+	 */
+	public RetryBudget(double ratio, int minPerSecond) {
+		this.ratio = ratio;
+		this.minPerSecond = minPerSecond;
+		this.maxBalance = Math.max(10, ratio * 100);
+		this.reserve = minPerSecond;
+		this.lastRefill = System.nanoTime();
+	}
+
+	/** Budget without limits **/
+	public static RetryBudget unlimited() {
+		return new RetryBudget(Double.POSITIVE_INFINITY, Integer.MAX_VALUE);
+	}
+
+	/** Called for every request that is sent for the first time **/
+	public synchronized void deposit() {
+		balance = Math.min(maxBalance, balance + ratio);
+	}
+
+	/** @return true if retry is allowed. Retry is taken from the budget **/
+	public synchronized boolean tryWithdraw() {
+		if (balance >= 1) {
+			balance -= 1;
+			return true;
+		}
+		long now = System.nanoTime();
+		reserve = Math.min(minPerSecond, reserve + (now - lastRefill) / 1e9 * minPerSecond);
+		lastRefill = now;
+		if (reserve >= 1) {
+			reserve -= 1;
+			return true;
+		}
+		return false;
+	}
+}
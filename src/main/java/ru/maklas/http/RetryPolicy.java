@@ -0,0 +1,176 @@
+package ru.maklas.http;
+
+import com.badlogic.gdx.utils.IntSet;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.EnumSet;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * <p>
+ * Decides whether failed request is sent again and how long to wait before that.
+ * Requests are retried on {@link ConnectionException.Type#TIME_OUT}, {@link ConnectionException.Type#UNKNOWN_ADDRESS},
+ * {@link ConnectionException.Type#CONNECTION_ERROR} and on statuses 429, 502, 503 and 504 by default.
+ * Delay grows with decorrelated jitter: random value between base delay and 3 times previous delay, capped by max delay.
+ * Retry-After header of response is honored if it's not longer than {@link #maxRetryAfter(long)}.
+ * All retries are taken from {@link RetryBudget}.
+ * </p>
+ * <p>
+ * Requests with methods that are not idempotent (POST) are retried only when it's known that server didn't get them:
+ * when connection couldn't be established or server answered with 429.
+ * Unless they have Idempotency-Key header or {@link #retryNonIdempotent(boolean)} is enabled.
+ * </p>
+ * <p>ex:
+ * <br>
+ * ConnectionBuilder.get(url).retry(new RetryPolicy().maxAttempts(5)).send();
+ * </p>
+ * Policy can be shared by requests from different threads. Configure it before use.
+ */
+public class RetryPolicy {
+
+	public static final String IDEMPOTENCY_KEY = "Idempotency-Key";
+	private static final RetryPolicy NONE = new RetryPolicy().maxAttempts(1);
+
+	private int maxAttempts = 3;
+	private final EnumSet<ConnectionException.Type> types = EnumSet.of(ConnectionException.Type.TIME_OUT, ConnectionException.Type.UNKNOWN_ADDRESS, ConnectionException.Type.CONNECTION_ERROR);
+	private final IntSet statuses = new IntSet();
+	private long baseDelayMs = 100;
+	private long maxDelayMs = 10_000;
+	private long maxRetryAfterMs = 60_000;
+	private boolean retryNonIdempotent = false;
+	private RetryBudget budget = new RetryBudget(0.2, 10);
+
+	public RetryPolicy() {
+		statuses.addAll(429, 502, 503, 504);
+	}
+
+	/** Policy that never retries. Can be used to disable retries of a request when {@link Http#setDefaultRetryPolicy(RetryPolicy)} is set **/
+	public static RetryPolicy none() {
+		return NONE;
+	}
+
+	/** Max number of times request is sent, including the first one. 3 by default **/
+	public RetryPolicy maxAttempts(int maxAttempts) {
+		this.maxAttempts = Math.max(1, maxAttempts);
+		return this;
+	}
+
+	/** Replaces types of exceptions on which request is retried **/
+	public RetryPolicy retryOn(ConnectionException.Type... types) {
+		this.types.clear();
+		for (ConnectionException.Type type : types) {
+			this.types.add(type);
+		}
+		return this;
+	}
+
+	/** Replaces response codes on which request is retried **/
+	public RetryPolicy retryOnStatus(int... statuses) {
+		this.statuses.clear();
+		this.statuses.addAll(statuses);
+		return this;
+	}
+
+	/** Base and max delay between attempts in milliseconds. 100 and 10000 by default **/
+	public RetryPolicy backoff(long baseDelayMs, long maxDelayMs) {
+		this.baseDelayMs = Math.max(0, baseDelayMs);
+		this.maxDelayMs = Math.max(this.baseDelayMs, maxDelayMs);
+		return this;
+	}
+
+	/** Longest Retry-After that is waited for. If server asks to wait longer, request is not retried. 60 seconds by default **/
+	public RetryPolicy maxRetryAfter(long ms) {
+		this.maxRetryAfterMs = ms;
+		return this;
+	}
+
+	/** Whether POST and other non-idempotent requests are retried even when server could have processed them. False by default **/
+	public RetryPolicy retryNonIdempotent(boolean retry) {
+		this.retryNonIdempotent = retry;
+		return this;
+	}
+
+	/** Budget that limits retries. Share one budget between policies to limit them together **/
+	public RetryPolicy budget(@NotNull RetryBudget budget) {
+		this.budget = budget;
+		return this;
+	}
+
+	public int getMaxAttempts() {
+		return maxAttempts;
+	}
+
+	public RetryBudget getBudget() {
+		return budget;
+	}
+
+	/** GET, HEAD, OPTIONS, TRACE, PUT and DELETE or any request with Idempotency-Key header **/
+	public static boolean isIdempotent(String method, @Nullable HeaderList headers) {
+		switch (method) {
+			case Http.GET:
+			case Http.HEAD:
+			case Http.OPTIONS:
+			case Http.TRACE:
+			case Http.DELETE:
+			case "PUT":
+				return true;
+			default:
+				return headers != null && headers.getHeader(IDEMPOTENCY_KEY, false) != null;
+		}
+	}
+
+	/**
+	 * @param attempt number of attempt that failed, starting from 1
+	 * @param transmitted whether connection was established, so that server could have received the request
+	 */
+	boolean shouldRetry(Request request, ConnectionException.Type type, int attempt, boolean transmitted) {
+		if (attempt >= maxAttempts || !types.contains(type)) return false;
+		boolean safe = !transmitted || retryNonIdempotent || isIdempotent(request.getMethod(), request.getRequestHeaders());
+		return safe && request.isReplayable() && budget.tryWithdraw();
+	}
+
+	/** @param attempt number of attempt that failed, starting from 1 **/
+	boolean shouldRetry(Request request, int status, int attempt) {
+		if (attempt >= maxAttempts || !statuses.contains(status)) return false;
+		boolean safe = status == 429 || retryNonIdempotent || isIdempotent(request.getMethod(), request.getRequestHeaders());
+		return safe && request.isReplayable() && budget.tryWithdraw();
+	}
+
+	/** Decorrelated jitter. @param previous previous delay or 0 before the first retry **/
+	long nextDelay(long previous) {
+		if (maxDelayMs == 0) return 0;
+		long upper = Math.max(baseDelayMs, Math.min(maxDelayMs, previous * 3));
+		long delay = upper <= baseDelayMs ? baseDelayMs : ThreadLocalRandom.current().nextLong(baseDelayMs, upper + 1);
+		return Math.min(maxDelayMs, delay);
+	}
+
+	/** @return delay asked by Retry-After header in ms, -1 if header is absent or invalid, or {@link Long#MAX_VALUE} if it's longer than allowed **/
+	long retryAfter(@Nullable String value) {
+		long delay = parseRetryAfter(value);
+		return delay > maxRetryAfterMs ? Long.MAX_VALUE : delay;
+	}
+
+	/** @return delay in ms from Retry-After header in seconds or HTTP date, -1 if header is absent or invalid **/
+	static long parseRetryAfter(@Nullable String value) {
+		if (value == null) return -1;
+		value = value.trim();
+		long delay;
+		try {
+			delay = Long.parseLong(value) * 1000;
+		} catch (NumberFormatException e) {
+			try {
+				SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+				format.setTimeZone(TimeZone.getTimeZone("GMT"));
+				delay = format.parse(value).getTime() - System.currentTimeMillis();
+			} catch (ParseException pe) {
+				return -1;
+			}
+		}
+		return Math.max(0, delay);
+	}
+}
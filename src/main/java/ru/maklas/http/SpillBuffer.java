@@ -0,0 +1,153 @@
+package ru.maklas.http;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Replayable buffer. Keeps data in memory until it grows over threshold, then moves it into a temporary file.
+ * Can be used as {@link RequestBody} that can be sent again on retries and redirects,
+ * even if original data came from a stream that can be read only once.
+ * Temporary file is deleted on {@link #close()}.
+ * <p>ex:
+ * <br>
+ * ConnectionBuilder.post(url).write(Header.ContentType.octetStream, SpillBuffer.of(inputStream))
+ * </p>
+ */
+public class SpillBuffer extends OutputStream implements RequestBody {
+
+	public static final int DEFAULT_THRESHOLD = 1024 * 1024;
+
+	private final int threshold;
+	private byte[] memory = new byte[256];
+	private int count;
+	private Path file;
+	private OutputStream fileOut;
+	private long size;
+	private boolean closed;
+
+	public SpillBuffer() {
+		this(DEFAULT_THRESHOLD);
+	}
+
+	/** @param threshold max number of bytes kept in memory **/
+	public SpillBuffer(int threshold) {
+		this.threshold = threshold;
+	}
+
+	/** Reads stream till the end into a new buffer. Stream is not closed **/
+	public static SpillBuffer of(@NotNull InputStream is) throws IOException {
+		return of(is, DEFAULT_THRESHOLD);
+	}
+
+	/** Reads stream till the end into a new buffer. Stream is not closed **/
+	public static SpillBuffer of(@NotNull InputStream is, int threshold) throws IOException {
+		SpillBuffer buffer = new SpillBuffer(threshold);
+		try {
+			HttpUtils.copy(is, buffer, new byte[8192]);
+		} catch (IOException e) {
+			buffer.close();
+			throw e;
+		}
+		return buffer;
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		ensureOpen();
+		if (file == null && count < threshold) {
+			if (count == memory.length) memory = Arrays.copyOf(memory, Math.min(threshold, count * 2));
+			memory[count++] = (byte) b;
+		} else {
+			spill().write(b);
+		}
+		size++;
+	}
+
+	@Override
+	public void write(@NotNull byte[] b, int off, int len) throws IOException {
+		ensureOpen();
+		if (file == null && count + len <= threshold) {
+			if (count + len > memory.length) {
+				memory = Arrays.copyOf(memory, Math.min(threshold, Math.max(count + len, count * 2)));
+			}
+			System.arraycopy(b, off, memory, count, len);
+			count += len;
+		} else {
+			spill().write(b, off, len);
+		}
+		size += len;
+	}
+
+	private OutputStream spill() throws IOException {
+		if (fileOut == null) {
+			file = Files.createTempFile("mhttp-", ".spill");
+			fileOut = new BufferedOutputStream(Files.newOutputStream(file), 8192);
+			fileOut.write(memory, 0, count);
+			memory = null;
+			count = 0;
+		}
+		return fileOut;
+	}
+
+	/** Number of bytes written **/
+	public long size() {
+		return size;
+	}
+
+	/** Whether data is still in memory and no temporary file was created **/
+	public boolean isInMemory() {
+		return file == null;
+	}
+
+	@Override
+	public long contentLength() {
+		return size;
+	}
+
+	/** Writes everything that was written to this buffer so far. Can be called any number of times **/
+	@Override
+	public void writeTo(OutputStream os) throws IOException {
+		ensureOpen();
+		if (file == null) {
+			os.write(memory, 0, count);
+			return;
+		}
+		fileOut.flush();
+		try (InputStream is = Files.newInputStream(file)) {
+			long remaining = size;
+			byte[] buffer = new byte[8192];
+			while (remaining > 0) {
+				int n = is.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+				if (n == -1) throw new IOException("Spill file " + file + " is shorter than expected");
+				os.write(buffer, 0, n);
+				remaining -= n;
+			}
+		}
+	}
+
+	/** Releases memory and deletes temporary file. Buffer can't be used after that **/
+	@Override
+	public void close() throws IOException {
+		if (closed) return;
+		closed = true;
+		memory = null;
+		if (file != null) {
+			try {
+				fileOut.close();
+			} finally {
+				Files.deleteIfExists(file);
+			}
+		}
+	}
+
+	private void ensureOpen() throws IOException {
+		if (closed) throw new IOException("SpillBuffer is closed");
+	}
+}
@@ -0,0 +1,357 @@
+package ru.maklas.http;
+
+import org.jetbrains.annotations.Nullable;
+
+import javax.net.ssl.HandshakeCompletedListener;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSocket;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.nio.channels.SocketChannel;
+
+/**
+ * SSLSocket that records the moment when TCP connection is established and TLS handshake starts, see {@link TimingSSLSocketFactory#getLayeredAt()},
+ * and whether handshake resumed previous session. Handshake is counted in the thread that made it, without HandshakeCompletedListener,
+ * which is notified from a new thread. Everything else is delegated to the socket of the SSLSocketFactory.
+ */
+class TimingSSLSocket extends SSLSocket {
+
+	private final SSLSocket delegate;
+	@Nullable private final TlsConfig tls;
+	private final long createdAt = System.currentTimeMillis();
+	private boolean handshaken;
+
+	/** @param tls config that counts handshakes of the socket or null **/
+	TimingSSLSocket(SSLSocket delegate, @Nullable TlsConfig tls) {
+		this.delegate = delegate;
+		this.tls = tls;
+	}
+
+	/** Wraps SSLSocket, so that its handshake is timed and counted **/
+	static Socket wrap(Socket socket, @Nullable TlsConfig tls) {
+		return socket instanceof SSLSocket ? new TimingSSLSocket((SSLSocket) socket, tls) : socket;
+	}
+
+	@Override
+	public void connect(SocketAddress endpoint) throws IOException {
+		connect(endpoint, 0);
+	}
+
+	@Override
+	public void connect(SocketAddress endpoint, int timeout) throws IOException {
+		delegate.connect(endpoint, timeout);
+		TimingSSLSocketFactory.layered();
+	}
+
+	@Override
+	public void startHandshake() throws IOException {
+		delegate.startHandshake();
+		if (!handshaken) {
+			handshaken = true;
+			boolean resumed = delegate.getSession().getCreationTime() < createdAt; //Session of resumed handshake was created by an earlier connection
+			TimingSSLSocketFactory.handshaken(resumed);
+			if (tls != null) tls.count(resumed);
+		}
+	}
+
+	@Override
+	public String[] getSupportedCipherSuites() {
+		return delegate.getSupportedCipherSuites();
+	}
+
+	@Override
+	public String[] getEnabledCipherSuites() {
+		return delegate.getEnabledCipherSuites();
+	}
+
+	@Override
+	public void setEnabledCipherSuites(String[] suites) {
+		delegate.setEnabledCipherSuites(suites);
+	}
+
+	@Override
+	public String[] getSupportedProtocols() {
+		return delegate.getSupportedProtocols();
+	}
+
+	@Override
+	public String[] getEnabledProtocols() {
+		return delegate.getEnabledProtocols();
+	}
+
+	@Override
+	public void setEnabledProtocols(String[] protocols) {
+		delegate.setEnabledProtocols(protocols);
+	}
+
+	@Override
+	public SSLSession getSession() {
+		return delegate.getSession();
+	}
+
+	@Override
+	public SSLSession getHandshakeSession() {
+		return delegate.getHandshakeSession();
+	}
+
+	@Override
+	public void addHandshakeCompletedListener(HandshakeCompletedListener listener) {
+		delegate.addHandshakeCompletedListener(listener);
+	}
+
+	@Override
+	public void removeHandshakeCompletedListener(HandshakeCompletedListener listener) {
+		delegate.removeHandshakeCompletedListener(listener);
+	}
+
+	@Override
+	public void setUseClientMode(boolean mode) {
+		delegate.setUseClientMode(mode);
+	}
+
+	@Override
+	public boolean getUseClientMode() {
+		return delegate.getUseClientMode();
+	}
+
+	@Override
+	public void setNeedClientAuth(boolean need) {
+		delegate.setNeedClientAuth(need);
+	}
+
+	@Override
+	public boolean getNeedClientAuth() {
+		return delegate.getNeedClientAuth();
+	}
+
+	@Override
+	public void setWantClientAuth(boolean want) {
+		delegate.setWantClientAuth(want);
+	}
+
+	@Override
+	public boolean getWantClientAuth() {
+		return delegate.getWantClientAuth();
+	}
+
+	@Override
+	public void setEnableSessionCreation(boolean flag) {
+		delegate.setEnableSessionCreation(flag);
+	}
+
+	@Override
+	public boolean getEnableSessionCreation() {
+		return delegate.getEnableSessionCreation();
+	}
+
+	@Override
+	public SSLParameters getSSLParameters() {
+		return delegate.getSSLParameters();
+	}
+
+	@Override
+	public void setSSLParameters(SSLParameters params) {
+		delegate.setSSLParameters(params);
+	}
+
+	@Override
+	public void bind(SocketAddress bindpoint) throws IOException {
+		delegate.bind(bindpoint);
+	}
+
+	@Override
+	public InetAddress getInetAddress() {
+		return delegate.getInetAddress();
+	}
+
+	@Override
+	public InetAddress getLocalAddress() {
+		return delegate.getLocalAddress();
+	}
+
+	@Override
+	public int getPort() {
+		return delegate.getPort();
+	}
+
+	@Override
+	public int getLocalPort() {
+		return delegate.getLocalPort();
+	}
+
+	@Override
+	public SocketAddress getRemoteSocketAddress() {
+		return delegate.getRemoteSocketAddress();
+	}
+
+	@Override
+	public SocketAddress getLocalSocketAddress() {
+		return delegate.getLocalSocketAddress();
+	}
+
+	@Override
+	public SocketChannel getChannel() {
+		return delegate.getChannel();
+	}
+
+	@Override
+	public InputStream getInputStream() throws IOException {
+		return delegate.getInputStream();
+	}
+
+	@Override
+	public OutputStream getOutputStream() throws IOException {
+		return delegate.getOutputStream();
+	}
+
+	@Override
+	public void setTcpNoDelay(boolean on) throws SocketException {
+		delegate.setTcpNoDelay(on);
+	}
+
+	@Override
+	public boolean getTcpNoDelay() throws SocketException {
+		return delegate.getTcpNoDelay();
+	}
+
+	@Override
+	public void setSoLinger(boolean on, int linger) throws SocketException {
+		delegate.setSoLinger(on, linger);
+	}
+
+	@Override
+	public int getSoLinger() throws SocketException {
+		return delegate.getSoLinger();
+	}
+
+	@Override
+	public void sendUrgentData(int data) throws IOException {
+		delegate.sendUrgentData(data);
+	}
+
+	@Override
+	public void setOOBInline(boolean on) throws SocketException {
+		delegate.setOOBInline(on);
+	}
+
+	@Override
+	public boolean getOOBInline() throws SocketException {
+		return delegate.getOOBInline();
+	}
+
+	@Override
+	public void setSoTimeout(int timeout) throws SocketException {
+		delegate.setSoTimeout(timeout);
+	}
+
+	@Override
+	public int getSoTimeout() throws SocketException {
+		return delegate.getSoTimeout();
+	}
+
+	@Override
+	public void setSendBufferSize(int size) throws SocketException {
+		delegate.setSendBufferSize(size);
+	}
+
+	@Override
+	public int getSendBufferSize() throws SocketException {
+		return delegate.getSendBufferSize();
+	}
+
+	@Override
+	public void setReceiveBufferSize(int size) throws SocketException {
+		delegate.setReceiveBufferSize(size);
+	}
+
+	@Override
+	public int getReceiveBufferSize() throws SocketException {
+		return delegate.getReceiveBufferSize();
+	}
+
+	@Override
+	public void setKeepAlive(boolean on) throws SocketException {
+		delegate.setKeepAlive(on);
+	}
+
+	@Override
+	public boolean getKeepAlive() throws SocketException {
+		return delegate.getKeepAlive();
+	}
+
+	@Override
+	public void setTrafficClass(int tc) throws SocketException {
+		delegate.setTrafficClass(tc);
+	}
+
+	@Override
+	public int getTrafficClass() throws SocketException {
+		return delegate.getTrafficClass();
+	}
+
+	@Override
+	public void setReuseAddress(boolean on) throws SocketException {
+		delegate.setReuseAddress(on);
+	}
+
+	@Override
+	public boolean getReuseAddress() throws SocketException {
+		return delegate.getReuseAddress();
+	}
+
+	@Override
+	public void close() throws IOException {
+		delegate.close();
+	}
+
+	@Override
+	public void shutdownInput() throws IOException {
+		delegate.shutdownInput();
+	}
+
+	@Override
+	public void shutdownOutput() throws IOException {
+		delegate.shutdownOutput();
+	}
+
+	@Override
+	public boolean isConnected() {
+		return delegate.isConnected();
+	}
+
+	@Override
+	public boolean isBound() {
+		return delegate.isBound();
+	}
+
+	@Override
+	public boolean isClosed() {
+		return delegate.isClosed();
+	}
+
+	@Override
+	public boolean isInputShutdown() {
+		return delegate.isInputShutdown();
+	}
+
+	@Override
+	public boolean isOutputShutdown() {
+		return delegate.isOutputShutdown();
+	}
+
+	@Override
+	public void setPerformancePreferences(int connectionTime, int latency, int bandwidth) {
+		delegate.setPerformancePreferences(connectionTime, latency, bandwidth);
+	}
+
+	@Override
+	public String toString() {
+		return delegate.toString();
+	}
+}
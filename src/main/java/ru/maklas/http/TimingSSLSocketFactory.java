@@ -0,0 +1,120 @@
+package ru.maklas.http;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLSocketFactory;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.UnknownHostException;
+
+/**
+ * Wrapper of SSLSocketFactory that records the moment when TCP connection is established and TLS handshake starts.
+ * HttpsURLConnection connects unconnected sockets of {@link #createSocket()} by itself, so they are wrapped into {@link TimingSSLSocket},
+ * which records time when connection is established. Behind a proxy TLS is layered over connected tunnel
+ * with {@link #createSocket(Socket, String, int, boolean)}, which is the point where time is recorded.
+ * Time and kind of handshake are kept per thread, as connection is established in the thread that sends request.
+ * Instances are shared per delegate, since HttpUrlConnection keeps alive connections per factory instance.
+ */
+class TimingSSLSocketFactory extends SSLSocketFactory {
+
+	static final int NO_HANDSHAKE = 0;
+	static final int FULL_HANDSHAKE = 1;
+	static final int RESUMED_HANDSHAKE = 2;
+
+	/** Time when TLS was layered and kind of handshake **/
+	private static final ThreadLocal<long[]> layeredAt = ThreadLocal.withInitial(() -> new long[]{-1, NO_HANDSHAKE});
+	private static volatile TimingSSLSocketFactory shared;
+
+	private final SSLSocketFactory delegate;
+
+	private TimingSSLSocketFactory(SSLSocketFactory delegate) {
+		this.delegate = delegate;
+	}
+
+	/** Installs shared timing factory if connection uses default SSLSocketFactory **/
+	static void install(HttpsURLConnection javaCon) {
+		SSLSocketFactory current = javaCon.getSSLSocketFactory();
+		if (current instanceof TimingSSLSocketFactory || current != HttpsURLConnection.getDefaultSSLSocketFactory()) return;
+		TimingSSLSocketFactory factory = shared;
+		if (factory == null || factory.delegate != current) {
+			factory = new TimingSSLSocketFactory(current);
+			shared = factory;
+		}
+		javaCon.setSSLSocketFactory(factory);
+	}
+
+	/** Resets time and handshake recorded for this thread **/
+	static void reset() {
+		long[] recorded = layeredAt.get();
+		recorded[0] = -1;
+		recorded[1] = NO_HANDSHAKE;
+	}
+
+	/** Records that TLS is layered over connected socket in this thread **/
+	static void layered() {
+		layeredAt.get()[0] = System.nanoTime();
+	}
+
+	/** System.nanoTime() when TLS was layered over connected socket in this thread or -1 **/
+	static long getLayeredAt() {
+		return layeredAt.get()[0];
+	}
+
+	/** Records that handshake completed in this thread **/
+	static void handshaken(boolean resumed) {
+		layeredAt.get()[1] = resumed ? RESUMED_HANDSHAKE : FULL_HANDSHAKE;
+	}
+
+	/** {@link #FULL_HANDSHAKE} or {@link #RESUMED_HANDSHAKE} if handshake completed in this thread, otherwise {@link #NO_HANDSHAKE} **/
+	static int getHandshake() {
+		return (int) layeredAt.get()[1];
+	}
+
+	@Override
+	public Socket createSocket() throws IOException {
+		return TimingSSLSocket.wrap(delegate.createSocket(), null);
+	}
+
+	@Override
+	public Socket createSocket(Socket s, String host, int port, boolean autoClose) throws IOException {
+		layered();
+		return TimingSSLSocket.wrap(delegate.createSocket(s, host, port, autoClose), null);
+	}
+
+	@Override
+	public Socket createSocket(Socket s, InputStream consumed, boolean autoClose) throws IOException {
+		layered();
+		return TimingSSLSocket.wrap(delegate.createSocket(s, consumed, autoClose), null);
+	}
+
+	@Override
+	public Socket createSocket(String host, int port) throws IOException, UnknownHostException {
+		return delegate.createSocket(host, port);
+	}
+
+	@Override
+	public Socket createSocket(String host, int port, InetAddress localHost, int localPort) throws IOException, UnknownHostException {
+		return delegate.createSocket(host, port, localHost, localPort);
+	}
+
+	@Override
+	public Socket createSocket(InetAddress host, int port) throws IOException {
+		return delegate.createSocket(host, port);
+	}
+
+	@Override
+	public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort) throws IOException {
+		return delegate.createSocket(address, port, localAddress, localPort);
+	}
+
+	@Override
+	public String[] getDefaultCipherSuites() {
+		return delegate.getDefaultCipherSuites();
+	}
+
+	@Override
+	public String[] getSupportedCipherSuites() {
+		return delegate.getSupportedCipherSuites();
+	}
+}
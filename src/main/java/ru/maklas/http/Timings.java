@@ -0,0 +1,84 @@
+package ru.maklas.http;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time spent by request in each phase, in nanoseconds.
+ * Phase that didn't happen is -1. For example, there is no TLS phase if HTTPS connection was reused from keep-alive cache.
+ * <li>{@link Phase#DNS} - resolution of host name. Skipped if host is an IP address or proxy is used</li>
+ * <li>{@link Phase#CONNECT} - TCP connection. Close to zero if connection was reused</li>
+ * <li>{@link Phase#TLS} - TLS handshake. Measured only with default SSLSocketFactory</li>
+ * <li>{@link Phase#WRITE} - writing of the body. Unless body is streamed, HttpUrlConnection only buffers it here and actually sends it during TTFB</li>
+ * <li>{@link Phase#TTFB} - from the end of writing till the status line and headers of response are received. Includes redirects followed by HttpUrlConnection</li>
+ * <li>{@link Phase#DOWNLOAD} - reading and decoding of the body</li>
+ */
+public class Timings {
+
+	public enum Phase {
+		DNS, CONNECT, TLS, WRITE, TTFB, DOWNLOAD
+	}
+
+	private final long[] nanos = new long[Phase.values().length];
+
+	Timings() {
+		Arrays.fill(nanos, -1);
+	}
+
+	/** Adds time to the phase. Time of the same phase is summed up if request is sent again to another location **/
+	void add(Phase phase, long nanos) {
+		int i = phase.ordinal();
+		this.nanos[i] = this.nanos[i] < 0 ? nanos : this.nanos[i] + nanos;
+	}
+
+	/** Nanoseconds spent in the phase or -1 if phase didn't happen **/
+	public long get(Phase phase) {
+		return nanos[phase.ordinal()];
+	}
+
+	public long getDnsNanos() {
+		return get(Phase.DNS);
+	}
+
+	public long getConnectNanos() {
+		return get(Phase.CONNECT);
+	}
+
+	public long getTlsNanos() {
+		return get(Phase.TLS);
+	}
+
+	public long getWriteNanos() {
+		return get(Phase.WRITE);
+	}
+
+	public long getTtfbNanos() {
+		return get(Phase.TTFB);
+	}
+
+	public long getDownloadNanos() {
+		return get(Phase.DOWNLOAD);
+	}
+
+	/** Sum of all phases that happened **/
+	public long getTotalNanos() {
+		long total = 0;
+		for (long n : nanos) {
+			if (n > 0) total += n;
+		}
+		return total;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("{");
+		for (Phase phase : Phase.values()) {
+			long n = get(phase);
+			if (n < 0) continue;
+			if (sb.length() > 1) sb.append(", ");
+			sb.append(phase.name().toLowerCase()).append('=').append(String.format(Locale.ROOT, "%.3f", n / (double) TimeUnit.MILLISECONDS.toNanos(1))).append("ms");
+		}
+		return sb.append('}').toString();
+	}
+}
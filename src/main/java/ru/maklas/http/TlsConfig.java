@@ -0,0 +1,203 @@
+package ru.maklas.http;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>
+ * Shared SSLContext for HTTPS connections. All connections made with the same config share its session cache,
+ * so connections to a host after the first one resume TLS session instead of making a full handshake,
+ * and keep alive connections are reused between requests, as HttpUrlConnection pools them per SSLSocketFactory.
+ * </p>
+ * <p>
+ * Resumption by session tickets (TLS 1.3 and RFC 5077) is enabled in the JVM by default since Java 13
+ * with <b>jdk.tls.client.enableSessionTicketExtension</b> system property. Older versions resume by session id.
+ * </p>
+ * <p>ex:
+ * <br>
+ * Http.setDefaultTls(new TlsConfig().protocols("TLSv1.3", "TLSv1.2").sessionCacheSize(50_000));
+ * </p>
+ */
+public class TlsConfig {
+
+	private final SSLContext context;
+	private final Factory factory;
+	private final LongAdder handshakes = new LongAdder();
+	private final LongAdder resumed = new LongAdder();
+	@Nullable private volatile String[] protocols;
+	@Nullable private volatile String[] cipherSuites;
+
+	/**
+	 * SSLContext with default trust store and keys, session cache of 20 000 sessions for 24 hours
+	 * @throws IllegalStateException if TLS is not available in the JVM
+	 */
+	public TlsConfig() {
+		this(newContext());
+		sessionCacheSize(20_000);
+		sessionTimeout(24 * 60 * 60);
+	}
+
+	/** @param context initialized context. Its session cache is used as it is **/
+	public TlsConfig(@NotNull SSLContext context) {
+		this.context = context;
+		this.factory = new Factory(context.getSocketFactory());
+	}
+
+	private static SSLContext newContext() {
+		try {
+			SSLContext context = SSLContext.getInstance("TLS");
+			context.init(null, null, null);
+			return context;
+		} catch (GeneralSecurityException e) {
+			throw new IllegalStateException("TLS is not available", e);
+		}
+	}
+
+	/** Protocols that are enabled, like TLSv1.3 and TLSv1.2. Null to use defaults of the JVM **/
+	public TlsConfig protocols(@Nullable String... protocols) {
+		this.protocols = protocols != null ? protocols.clone() : null;
+		return this;
+	}
+
+	/** Cipher suites that are enabled, in order of preference. Null to use defaults of the JVM **/
+	public TlsConfig cipherSuites(@Nullable String... cipherSuites) {
+		this.cipherSuites = cipherSuites != null ? cipherSuites.clone() : null;
+		return this;
+	}
+
+	/** How many sessions are kept for resumption. 0 for unlimited **/
+	public TlsConfig sessionCacheSize(int sessions) {
+		context.getClientSessionContext().setSessionCacheSize(sessions);
+		return this;
+	}
+
+	/** How long sessions are kept for resumption. 0 for unlimited **/
+	public TlsConfig sessionTimeout(int seconds) {
+		context.getClientSessionContext().setSessionTimeout(seconds);
+		return this;
+	}
+
+	public SSLContext getContext() {
+		return context;
+	}
+
+	/** Factory that's set to connections. Always the same instance, so that connections are kept alive **/
+	public SSLSocketFactory getSocketFactory() {
+		return factory;
+	}
+
+	public SSLSessionContext getSessionContext() {
+		return context.getClientSessionContext();
+	}
+
+	/** Number of full handshakes **/
+	public long getHandshakes() {
+		return handshakes.sum();
+	}
+
+	/** Number of handshakes that resumed previous session **/
+	public long getResumed() {
+		return resumed.sum();
+	}
+
+	/** Part of handshakes that resumed previous session, from 0 to 1 **/
+	public double getResumptionRate() {
+		long resumed = getResumed();
+		long total = resumed + getHandshakes();
+		return total == 0 ? 0 : resumed / (double) total;
+	}
+
+	private Socket configure(Socket socket) {
+		if (socket instanceof SSLSocket) {
+			SSLSocket ssl = (SSLSocket) socket;
+			String[] protocols = this.protocols;
+			String[] cipherSuites = this.cipherSuites;
+			if (protocols != null) ssl.setEnabledProtocols(protocols);
+			if (cipherSuites != null) ssl.setEnabledCipherSuites(cipherSuites);
+		}
+		return TimingSSLSocket.wrap(socket, this);
+	}
+
+	/** Called by {@link TimingSSLSocket} in the thread that made handshake **/
+	void count(boolean resumed) {
+		if (resumed) {
+			this.resumed.increment();
+		} else {
+			handshakes.increment();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "TlsConfig{" + context.getProtocol() + ", handshakes=" + getHandshakes() + ", resumed=" + getResumed() + "}";
+	}
+
+	/** Applies protocols and cipher suites to sockets and wraps them into {@link TimingSSLSocket}, which counts handshakes and records time of TLS for {@link Timings} **/
+	private class Factory extends SSLSocketFactory {
+
+		private final SSLSocketFactory delegate;
+
+		Factory(SSLSocketFactory delegate) {
+			this.delegate = delegate;
+		}
+
+		@Override
+		public Socket createSocket(Socket s, String host, int port, boolean autoClose) throws IOException {
+			TimingSSLSocketFactory.layered();
+			return configure(delegate.createSocket(s, host, port, autoClose));
+		}
+
+		@Override
+		public Socket createSocket(Socket s, InputStream consumed, boolean autoClose) throws IOException {
+			TimingSSLSocketFactory.layered();
+			return configure(delegate.createSocket(s, consumed, autoClose));
+		}
+
+		@Override
+		public Socket createSocket() throws IOException {
+			return configure(delegate.createSocket());
+		}
+
+		@Override
+		public Socket createSocket(String host, int port) throws IOException {
+			return configure(delegate.createSocket(host, port));
+		}
+
+		@Override
+		public Socket createSocket(String host, int port, InetAddress localHost, int localPort) throws IOException {
+			return configure(delegate.createSocket(host, port, localHost, localPort));
+		}
+
+		@Override
+		public Socket createSocket(InetAddress host, int port) throws IOException {
+			return configure(delegate.createSocket(host, port));
+		}
+
+		@Override
+		public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort) throws IOException {
+			return configure(delegate.createSocket(address, port, localAddress, localPort));
+		}
+
+		@Override
+		public String[] getDefaultCipherSuites() {
+			String[] cipherSuites = TlsConfig.this.cipherSuites;
+			return cipherSuites != null ? cipherSuites.clone() : delegate.getDefaultCipherSuites();
+		}
+
+		@Override
+		public String[] getSupportedCipherSuites() {
+			return delegate.getSupportedCipherSuites();
+		}
+	}
+}
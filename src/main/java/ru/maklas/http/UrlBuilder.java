@@ -0,0 +1,205 @@
+package ru.maklas.http;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <p>
+ * Lightweight URL builder. Produces final request URL from base address, path segments and {@link UrlEncoder} query.
+ * Base addresses are parsed once and cached, final URL is created from already parsed parts
+ * with {@link URL#URL(String, String, int, String)}, so it's not parsed again.
+ * </p>
+ * <p>ex:
+ * <br>
+ * UrlBuilder.of("api.example.com/v1").path("users").path("John Doe").query(new UrlEncoder().add("page", 2)).build()
+ * <br>
+ * result:
+ * http://api.example.com/v1/users/John%20Doe?page=2
+ * </p>
+ */
+public class UrlBuilder {
+
+	private static final int CACHE_LIMIT = 1024;
+	private static final ConcurrentHashMap<String, URL> cache = new ConcurrentHashMap<>();
+
+	private final URL base;
+	private final StringBuilder file;
+	private boolean hasQuery;
+
+	private UrlBuilder(URL base) {
+		this.base = base;
+		String file = base.getFile();
+		this.file = new StringBuilder(file.length() + 64).append(file);
+		this.hasQuery = base.getQuery() != null;
+	}
+
+	/** Starts with base address. If protocol is not specified, <b>http://</b> is used **/
+	public static UrlBuilder of(@NotNull String base) throws MalformedURLException {
+		return new UrlBuilder(parse(base));
+	}
+
+	/** Starts with base address **/
+	public static UrlBuilder of(@NotNull URL base) {
+		return new UrlBuilder(base);
+	}
+
+	/** Appends path segment. Segment is encoded as URI component, so '/' becomes a part of the segment **/
+	public UrlBuilder path(@NotNull String segment) {
+		return rawPath(UrlEncoder.encodeURIComponent(segment));
+	}
+
+	/** Appends path as is. Slashes between current path and the new one are normalized **/
+	public UrlBuilder rawPath(@Nullable String path) {
+		if (path == null || path.isEmpty()) return this;
+		if (hasQuery) throw new IllegalStateException("Path can't be appended after query");
+		boolean endsWithSlash = file.length() > 0 && file.charAt(file.length() - 1) == '/';
+		boolean startsWithSlash = path.charAt(0) == '/';
+		if (endsWithSlash && startsWithSlash) {
+			file.append(path, 1, path.length());
+		} else if (endsWithSlash || startsWithSlash) {
+			file.append(path);
+		} else {
+			file.append('/').append(path);
+		}
+		return this;
+	}
+
+	/** Appends query. Can be called multiple times **/
+	public UrlBuilder query(@Nullable UrlEncoder query) {
+		if (query == null || query.getPairs().size == 0) return this;
+		return rawQuery(query.encode());
+	}
+
+	/** Appends already encoded query. Can be called multiple times **/
+	public UrlBuilder rawQuery(@Nullable String query) {
+		if (query == null || query.isEmpty()) return this;
+		if (!hasQuery) {
+			file.append('?');
+			hasQuery = true;
+		} else if (file.charAt(file.length() - 1) != '?' && file.charAt(file.length() - 1) != '&') {
+			file.append('&');
+		}
+		file.append(query);
+		return this;
+	}
+
+	public URL build() throws MalformedURLException {
+		return create(base, file.toString());
+	}
+
+	/**
+	 * Parses URL. If protocol is not specified, <b>http://</b> is used.
+	 * Address without query and fragment is cached, so parsing the same address again is a lookup,
+	 * and only query is appended to already parsed address.
+	 */
+	public static URL parse(@NotNull String url) throws MalformedURLException {
+		String spec = url.trim();
+		int end = spec.length();
+		for (int i = protocolLength(spec) + 1; i < spec.length(); i++) {
+			char c = spec.charAt(i);
+			if (c == '?' || c == '#') {
+				end = i;
+				break;
+			}
+		}
+		String address = spec.substring(0, end);
+		URL parsed = cache.get(address);
+		if (parsed == null) {
+			parsed = parseUncached(address);
+			if (cache.size() >= CACHE_LIMIT) {
+				cache.clear();
+			}
+			cache.put(address, parsed);
+		}
+		if (end == spec.length()) return parsed;
+		if (parsed.getUserInfo() != null || !parsed.getProtocol().startsWith("http")) return parseUncached(spec);
+		return new URL(parsed.getProtocol(), parsed.getHost(), parsed.getPort(), parsed.getFile() + spec.substring(end));
+	}
+
+	/**
+	 * Appends query to the URL. Mimics old behaviour of ConnectionBuilder:
+	 * trailing '/' of the path is removed and '&' is used if URL already has a query.
+	 */
+	static URL appendQuery(URL url, @NotNull String query) throws MalformedURLException {
+		String file = url.getFile();
+		StringBuilder sb = new StringBuilder(file.length() + query.length() + 1);
+		if (url.getQuery() != null) {
+			sb.append(file);
+			if (!file.endsWith("?") && !file.endsWith("&")) sb.append('&');
+		} else {
+			sb.append(file, 0, file.endsWith("/") ? file.length() - 1 : file.length()).append('?');
+		}
+		sb.append(query);
+		return create(url, sb.toString());
+	}
+
+	private static URL create(URL base, String file) throws MalformedURLException {
+		String ref = base.getRef();
+		if (ref != null && file.indexOf('#') == -1) {
+			file = file + "#" + ref;
+		}
+		return new URL(base.getProtocol(), base.getHost(), base.getPort(), file);
+	}
+
+	private static URL parseUncached(String url) throws MalformedURLException {
+		String spec = url.trim();
+		int schemeEnd = protocolLength(spec);
+		if (schemeEnd == -1) {
+			return parseUncached("http://" + spec);
+		}
+		String protocol = spec.substring(0, schemeEnd).toLowerCase();
+		if (!protocol.equals("http") && !protocol.equals("https")) {
+			return new URL(spec);
+		}
+
+		int authorityStart = schemeEnd + 3;
+		int authorityEnd = spec.length();
+		for (int i = authorityStart; i < spec.length(); i++) {
+			char c = spec.charAt(i);
+			if (c == '/' || c == '?' || c == '#') {
+				authorityEnd = i;
+				break;
+			}
+			if (c == '@' || c == '[' || c == '\\') {
+				return new URL(spec); //User info and IPv6 are rare. Let java handle them
+			}
+		}
+
+		String host;
+		int port = -1;
+		int colon = spec.lastIndexOf(':', authorityEnd - 1);
+		if (colon >= authorityStart) {
+			host = spec.substring(authorityStart, colon);
+			if (colon + 1 < authorityEnd) {
+				try {
+					port = Integer.parseInt(spec.substring(colon + 1, authorityEnd));
+				} catch (NumberFormatException e) {
+					throw new MalformedURLException("Invalid port number in '" + url + "'");
+				}
+			}
+		} else {
+			host = spec.substring(authorityStart, authorityEnd);
+		}
+		if (host.isEmpty()) {
+			return new URL(spec);
+		}
+		return new URL(protocol, host, port, spec.substring(authorityEnd));
+	}
+
+	/** Same as {@link ConnectionBuilder#PROTOCOL_PATTERN}, but without regex. @return length of protocol or -1 **/
+	static int protocolLength(String spec) {
+		for (int i = 0; i < spec.length(); i++) {
+			char c = spec.charAt(i);
+			if (c == ':') {
+				return i > 0 && spec.startsWith("//", i + 1) && spec.length() > i + 3 ? i : -1;
+			}
+			boolean allowed = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '.' || c == '-' || c == '+';
+			if (!allowed) return -1;
+		}
+		return -1;
+	}
+}
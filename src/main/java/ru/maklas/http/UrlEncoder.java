@@ -1,13 +1,22 @@
 package ru.maklas.http;
 
 import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.ByteArray;
 
-import java.io.UnsupportedEncodingException;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.net.URLEncoder;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.function.Function;
 
-/** Encoder used to encode query parameters for GET in address bar and POST in request body **/
+/**
+ * Encoder used to encode query parameters for GET in address bar and POST in request body.
+ * Standard encodings ({@link #javaUrl}, {@link #jsUri}, {@link #jsUriAndPlus}) are table-driven and
+ * percent-encode UTF-8 in a single pass into a reusable per-thread buffer.
+ * Custom encoding functions are applied to every key and value as before.
+ */
 public class UrlEncoder {
 
 	public static final Function<String, String> javaUrl = UrlEncoder::encodeJavaUrl;
@@ -15,6 +24,11 @@ public class UrlEncoder {
 	public static final Function<String, String> jsUriAndPlus = UrlEncoder::encodeURIComponentPlus;
 	public static Function<String, String> defaultEncoding = javaUrl;
 
+	private static final byte[] HEX = "0123456789ABCDEF".getBytes(HttpUtils.ascii);
+	private static final int MAX_KEPT_BUFFER = 64 * 1024;
+	private static final int FLUSH_SIZE = 8 * 1024;
+	private static final ThreadLocal<ByteArray> buffers = ThreadLocal.withInitial(() -> new ByteArray(256));
+
 	private Array<KeyValuePair> pairs = new Array<>();
 	private Function<String, String> encodingFunction = defaultEncoding;
 
@@ -44,7 +58,87 @@ public class UrlEncoder {
 
 	public String encode() {
 		if (pairs.size == 0) return "";
-		Function<String, String> encodingFunction = this.encodingFunction;
+		Table table = Table.of(encodingFunction);
+		if (table == null) {
+			return encodeWithFunction(encodingFunction);
+		}
+		ByteArray buffer = obtainBuffer();
+		try {
+			encodeTo(buffer, table);
+			return new String(buffer.items, 0, buffer.size, HttpUtils.ascii);
+		} finally {
+			freeBuffer(buffer);
+		}
+	}
+
+	/**
+	 * performs encoding in specified charset.
+	 * Encoded query is pure ASCII, so for UTF-8, US-ASCII and ISO-8859-1 bytes are produced directly without intermediate String
+	 */
+	public byte[] encode(Charset charset) {
+		Table table = Table.of(encodingFunction);
+		if (table == null || !isAsciiCompatible(charset)) {
+			return encode().getBytes(charset);
+		}
+		if (pairs.size == 0) return new byte[0];
+		ByteArray buffer = obtainBuffer();
+		try {
+			encodeTo(buffer, table);
+			return Arrays.copyOf(buffer.items, buffer.size);
+		} finally {
+			freeBuffer(buffer);
+		}
+	}
+
+	/** Length of {@link #encode(Charset)} with UTF-8 in bytes. Computed without encoding for standard encodings **/
+	public long encodedLength() {
+		if (pairs.size == 0) return 0;
+		Table table = Table.of(encodingFunction);
+		long length = pairs.size * 2 - 1; //'=' of every pair and '&' between them
+		for (int i = 0; i < pairs.size; i++) {
+			KeyValuePair pair = pairs.get(i);
+			if (table != null) {
+				length += encodedLength(pair.key, table) + encodedLength(pair.value, table);
+			} else {
+				length += utf8Length(encodingFunction.apply(pair.key)) + utf8Length(encodingFunction.apply(pair.value));
+			}
+		}
+		return length;
+	}
+
+	/** Writes the same bytes as {@link #encode(Charset)} with UTF-8, but without creating the whole encoded query in memory **/
+	public void encodeTo(OutputStream os) throws IOException {
+		Table table = Table.of(encodingFunction);
+		if (table == null) {
+			for (int i = 0; i < pairs.size; i++) {
+				KeyValuePair pair = pairs.get(i);
+				if (i > 0) os.write('&');
+				os.write(encodingFunction.apply(pair.key).getBytes(HttpUtils.utf_8));
+				os.write('=');
+				os.write(encodingFunction.apply(pair.value).getBytes(HttpUtils.utf_8));
+			}
+			return;
+		}
+		ByteArray buffer = obtainBuffer();
+		try {
+			for (int i = 0; i < pairs.size; i++) {
+				KeyValuePair pair = pairs.get(i);
+				if (i > 0) buffer.add((byte) '&');
+				encodeTo(pair.key, table, buffer);
+				buffer.add((byte) '=');
+				encodeTo(pair.value, table, buffer);
+				if (buffer.size >= FLUSH_SIZE) {
+					os.write(buffer.items, 0, buffer.size);
+					buffer.size = 0;
+				}
+			}
+			os.write(buffer.items, 0, buffer.size);
+		} finally {
+			freeBuffer(buffer);
+		}
+	}
+
+	private String encodeWithFunction(Function<String, String> encodingFunction) {
 		StringBuilder builder = new StringBuilder();
 
 		for (KeyValuePair pair : pairs) {
@@ -57,9 +151,19 @@ public class UrlEncoder {
 		return builder.toString();
 	}
 
-	/** performs encoding in specified charset **/
-	public byte[] encode(Charset charset) {
-		return encode().getBytes(charset);
+	private void encodeTo(ByteArray out, Table table) {
+		Array<KeyValuePair> pairs = this.pairs;
+		for (int i = 0; i < pairs.size; i++) {
+			KeyValuePair pair = pairs.get(i);
+			if (i > 0) out.add((byte) '&');
+			encodeTo(pair.key, table, out);
+			out.add((byte) '=');
+			encodeTo(pair.value, table, out);
+		}
+	}
+
+	private static boolean isAsciiCompatible(Charset charset) {
+		return charset.equals(HttpUtils.utf_8) || charset.equals(HttpUtils.ascii) || charset.equals(StandardCharsets.ISO_8859_1);
 	}
 
 	/**
@@ -67,39 +171,149 @@ public class UrlEncoder {
 	 * Same as browser does when doing GET request
 	 */
 	public static String encodeJavaUrl(String s) {
-		try {
-			return URLEncoder.encode(s, "UTF-8");
-		} catch (UnsupportedEncodingException ignore) {
-		}
-		return s;
+		return encode(s, Table.javaUrl);
 	}
 
 	/** equivalent to js' encodeURIComponent() **/
 	public static String encodeURIComponent(String s) {
-		try {
-			return URLEncoder.encode(s, "UTF-8")
-					.replaceAll("\\+", "%20")
-					.replaceAll("%21", "!")
-					.replaceAll("%7E", "~")
-					.replaceAll("%27", "'")
-					.replaceAll("%28", "(")
-					.replaceAll("%29", ")");
-		} catch (UnsupportedEncodingException ignore) {
-		}
-		return s;
+		return encode(s, Table.jsUri);
 	}
 
 	/** Encodes using Wikipedia's documentation of x-www-form-urlencoded **/
 	public static String encodeURIComponentPlus(String s) {
+		return encode(s, Table.jsUriAndPlus);
+	}
+
+	/** Returns the same instance if nothing has to be encoded **/
+	private static String encode(String s, Table table) {
+		if (table.isSafe(s)) return s;
+		ByteArray buffer = obtainBuffer();
 		try {
-			return URLEncoder.encode(s, "UTF-8")
-					.replaceAll("%21", "!")
-					.replaceAll("%7E", "~")
-					.replaceAll("%27", "'")
-					.replaceAll("%28", "(")
-					.replaceAll("%29", ")");
-		} catch (UnsupportedEncodingException ignore) {
-		}
-		return s;
+			encodeTo(s, table, buffer);
+			return new String(buffer.items, 0, buffer.size, HttpUtils.ascii);
+		} finally {
+			freeBuffer(buffer);
+		}
+	}
+
+	/**
+	 * Single pass UTF-8 percent-encoding. Same output as {@link URLEncoder#encode(String, String)} with UTF-8:
+	 * upper case hex digits and lone surrogates encoded as '?'
+	 */
+	private static void encodeTo(String s, Table table, ByteArray out) {
+		boolean[] safe = table.safe;
+		int length = s.length();
+		out.ensureCapacity(length);
+		for (int i = 0; i < length; i++) {
+			char c = s.charAt(i);
+			if (c < 0x80) {
+				if (safe[c]) {
+					out.add((byte) c);
+				} else if (c == ' ' && table.spaceAsPlus) {
+					out.add((byte) '+');
+				} else {
+					percent(out, c);
+				}
+			} else if (c < 0x800) {
+				percent(out, 0xC0 | (c >> 6));
+				percent(out, 0x80 | (c & 0x3F));
+			} else if (Character.isSurrogate(c)) {
+				if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(s.charAt(i + 1))) {
+					int cp = Character.toCodePoint(c, s.charAt(++i));
+					percent(out, 0xF0 | (cp >> 18));
+					percent(out, 0x80 | ((cp >> 12) & 0x3F));
+					percent(out, 0x80 | ((cp >> 6) & 0x3F));
+					percent(out, 0x80 | (cp & 0x3F));
+				} else {
+					percent(out, '?');
+				}
+			} else {
+				percent(out, 0xE0 | (c >> 12));
+				percent(out, 0x80 | ((c >> 6) & 0x3F));
+				percent(out, 0x80 | (c & 0x3F));
+			}
+		}
+	}
+
+	private static long encodedLength(String s, Table table) {
+		boolean[] safe = table.safe;
+		int length = s.length();
+		long encoded = 0;
+		for (int i = 0; i < length; i++) {
+			char c = s.charAt(i);
+			if (c < 0x80) {
+				encoded += safe[c] || (c == ' ' && table.spaceAsPlus) ? 1 : 3;
+			} else if (c < 0x800) {
+				encoded += 6;
+			} else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(s.charAt(i + 1))) {
+				encoded += 12;
+				i++;
+			} else if (Character.isSurrogate(c)) {
+				encoded += 3;
+			} else {
+				encoded += 9;
+			}
+		}
+		return encoded;
+	}
+
+	private static int utf8Length(String s) {
+		int length = s.length();
+		for (int i = 0; i < s.length(); i++) {
+			if (s.charAt(i) >= 0x80) return s.getBytes(HttpUtils.utf_8).length;
+		}
+		return length;
+	}
+
+	private static void percent(ByteArray out, int b) {
+		out.add((byte) '%', HEX[(b >> 4) & 0xF], HEX[b & 0xF]);
+	}
+
+	private static ByteArray obtainBuffer() {
+		ByteArray buffer = buffers.get();
+		buffer.size = 0;
+		return buffer;
+	}
+
+	/** Big buffers are not kept, so that one huge payload doesn't stay in memory of every thread **/
+	private static void freeBuffer(ByteArray buffer) {
+		if (buffer.items.length > MAX_KEPT_BUFFER) {
+			buffers.remove();
+		}
+	}
+
+	/** Characters that are not encoded and the way space is encoded in each of the standard flavors **/
+	private static final class Table {
+
+		static final Table javaUrl = new Table("*-._", true);
+		static final Table jsUri = new Table("*-._!~'()", false);
+		static final Table jsUriAndPlus = new Table("*-._!~'()", true);
+
+		final boolean[] safe = new boolean[128];
+		final boolean spaceAsPlus;
+
+		private Table(String safeSymbols, boolean spaceAsPlus) {
+			for (char c = 'a'; c <= 'z'; c++) safe[c] = true;
+			for (char c = 'A'; c <= 'Z'; c++) safe[c] = true;
+			for (char c = '0'; c <= '9'; c++) safe[c] = true;
+			for (int i = 0; i < safeSymbols.length(); i++) safe[safeSymbols.charAt(i)] = true;
+			this.spaceAsPlus = spaceAsPlus;
+		}
+
+		boolean isSafe(String s) {
+			for (int i = 0; i < s.length(); i++) {
+				char c = s.charAt(i);
+				if (c >= 0x80 || !safe[c]) return false;
+			}
+			return true;
+		}
+
+		/** @return null for custom encoding functions **/
+		static Table of(Function<String, String> encodingFunction) {
+			if (encodingFunction == UrlEncoder.javaUrl) return javaUrl;
+			if (encodingFunction == UrlEncoder.jsUri) return jsUri;
+			if (encodingFunction == UrlEncoder.jsUriAndPlus) return jsUriAndPlus;
+			return null;
+		}
 	}
 }
@@ -0,0 +1,232 @@
+package ru.maklas.http.dns;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>
+ * Cache in front of another resolver, so that lookups don't add latency to requests.
+ * Addresses are kept for {@link #ttl(long)}. When a host is requested after {@link #refreshAfter(double)} part of ttl has passed,
+ * it's resolved again in background while cached addresses are still returned, so hosts in use never expire.
+ * If refresh fails, old addresses are used till they expire. Failed lookups are cached for {@link #negativeTtl(long)}.
+ * Concurrent lookups of the same host wait for a single query.
+ * </p>
+ * <p>
+ * Hosts with several addresses are returned rotated on every call, so that connections made to them are spread over them.
+ * </p>
+ * <p>
+ * Requests don't use it, see {@link DnsResolver}. With {@link DnsResolver#system()} as delegate, {@link #prefetch(String)}
+ * resolves hosts ahead of the first request, filling the cache of InetAddress.
+ * </p>
+ * <p>ex:
+ * <br>
+ * CachingDnsResolver dns = new CachingDnsResolver(DnsResolver.system()).ttl(60_000);
+ * <br>
+ * dns.prefetch("api.example.com");
+ * </p>
+ */
+public class CachingDnsResolver implements DnsResolver {
+
+	private static volatile ExecutorService defaultExecutor;
+
+	private final DnsResolver delegate;
+	private final Executor executor;
+	private final ConcurrentHashMap<String, Entry> cache = new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<String, CompletableFuture<Entry>> lookups = new ConcurrentHashMap<>();
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private long ttlNanos = TimeUnit.SECONDS.toNanos(30);
+	private long negativeTtlNanos = TimeUnit.SECONDS.toNanos(10);
+	private double refreshAfter = 0.75;
+	private boolean roundRobin = true;
+
+	/** Refreshes in a shared daemon thread **/
+	public CachingDnsResolver(@NotNull DnsResolver delegate) {
+		this(delegate, defaultExecutor());
+	}
+
+	public CachingDnsResolver(@NotNull DnsResolver delegate, @NotNull Executor executor) {
+		this.delegate = delegate;
+		this.executor = executor;
+	}
+
+	private static ExecutorService defaultExecutor() {
+		if (defaultExecutor == null) {
+			synchronized (CachingDnsResolver.class) {
+				if (defaultExecutor == null) {
+					defaultExecutor = Executors.newSingleThreadExecutor(r -> {
+						Thread thread = new Thread(r, "MHttp-Dns");
+						thread.setDaemon(true);
+						return thread;
+					});
+				}
+			}
+		}
+		return defaultExecutor;
+	}
+
+	/** How long addresses are cached. 30 seconds by default, same as the JVM **/
+	public CachingDnsResolver ttl(long ms) {
+		this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ms);
+		return this;
+	}
+
+	/** How long failed lookups are cached. 10 seconds by default, same as the JVM. 0 to disable **/
+	public CachingDnsResolver negativeTtl(long ms) {
+		this.negativeTtlNanos = TimeUnit.MILLISECONDS.toNanos(ms);
+		return this;
+	}
+
+	/** Part of ttl after which host is refreshed in background when it's requested. 0.75 by default. 1 to disable **/
+	public CachingDnsResolver refreshAfter(double part) {
+		this.refreshAfter = part;
+		return this;
+	}
+
+	/** Whether addresses are rotated on every call. True by default **/
+	public CachingDnsResolver roundRobin(boolean enabled) {
+		this.roundRobin = enabled;
+		return this;
+	}
+
+	public long getHits() {
+		return hits.sum();
+	}
+
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	/** Forgets the host **/
+	public void invalidate(String host) {
+		cache.remove(host.toLowerCase(Locale.ROOT));
+	}
+
+	/** Forgets all hosts **/
+	public void clear() {
+		cache.clear();
+	}
+
+	/**
+	 * Resolves host in background unless it's cached. Failed lookup is cached as if it was resolved.
+	 * With {@link DnsResolver#system()} as delegate it also fills the cache of InetAddress,
+	 * so the first request to the host doesn't wait for DNS.
+	 */
+	public void prefetch(String host) {
+		String key = host.toLowerCase(Locale.ROOT);
+		Entry entry = cache.get(key);
+		if (entry != null && System.nanoTime() - entry.expiresAt < 0) return;
+		try {
+			executor.execute(() -> {
+				try {
+					lookup(host, key);
+				} catch (UnknownHostException | RuntimeException ignore) {}
+			});
+		} catch (RuntimeException ignore) {}
+	}
+
+	@Override
+	public InetAddress[] resolve(String host) throws UnknownHostException {
+		String key = host.toLowerCase(Locale.ROOT);
+		long now = System.nanoTime();
+		Entry entry = cache.get(key);
+		if (entry != null && now - entry.expiresAt < 0) {
+			hits.increment();
+			if (entry.addresses != null && now - entry.refreshAt >= 0 && entry.refreshing.compareAndSet(false, true)) {
+				refresh(host, key, entry);
+			}
+		} else {
+			misses.increment();
+			entry = lookup(host, key);
+		}
+		if (entry.addresses == null) {
+			throw new UnknownHostException(entry.error);
+		}
+		return rotate(entry);
+	}
+
+	/** Resolves host once for all threads that need it **/
+	private Entry lookup(String host, String key) throws UnknownHostException {
+		CompletableFuture<Entry> future = new CompletableFuture<>();
+		CompletableFuture<Entry> running = lookups.putIfAbsent(key, future);
+		if (running != null) {
+			try {
+				return running.join();
+			} catch (CompletionException e) {
+				throw new UnknownHostException(host);
+			}
+		}
+		Entry entry;
+		try {
+			entry = new Entry(delegate.resolve(host), null, ttlNanos);
+			cache.put(key, entry);
+		} catch (UnknownHostException e) {
+			entry = new Entry(null, e.getMessage() != null ? e.getMessage() : host, negativeTtlNanos);
+			if (negativeTtlNanos > 0) cache.put(key, entry); else cache.remove(key);
+		} catch (RuntimeException e) {
+			lookups.remove(key);
+			future.completeExceptionally(e);
+			throw e;
+		}
+		lookups.remove(key);
+		future.complete(entry);
+		return entry;
+	}
+
+	private void refresh(String host, String key, Entry old) {
+		try {
+			executor.execute(() -> {
+				try {
+					InetAddress[] addresses = delegate.resolve(host);
+					cache.replace(key, old, new Entry(addresses, null, ttlNanos));
+				} catch (UnknownHostException | RuntimeException e) {
+					old.refreshing.set(false); //Old addresses are used till they expire, next request tries again
+				}
+			});
+		} catch (RuntimeException e) {
+			old.refreshing.set(false);
+		}
+	}
+
+	private InetAddress[] rotate(Entry entry) {
+		InetAddress[] addresses = entry.addresses;
+		int length = addresses.length;
+		InetAddress[] result = new InetAddress[length];
+		int start = roundRobin && length > 1 ? Math.floorMod(entry.next.getAndIncrement(), length) : 0;
+		for (int i = 0; i < length; i++) {
+			result[i] = addresses[(start + i) % length];
+		}
+		return result;
+	}
+
+	private class Entry {
+
+		final InetAddress[] addresses;
+		final String error;
+		final long expiresAt;
+		final long refreshAt;
+		final AtomicInteger next = new AtomicInteger();
+		final AtomicBoolean refreshing = new AtomicBoolean();
+
+		Entry(InetAddress[] addresses, String error, long ttl) {
+			this.addresses = addresses;
+			this.error = error;
+			long now = System.nanoTime();
+			this.expiresAt = now + ttl;
+			this.refreshAt = now + (long) (ttl * refreshAfter);
+		}
+	}
+}
@@ -0,0 +1,25 @@
+package ru.maklas.http.dns;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+/**
+ * Resolves host names to addresses. Implementations must be thread-safe.
+ * Requests don't go through it: HttpUrlConnection always resolves hosts with InetAddress and its cache,
+ * see {@link ru.maklas.http.Http#setDnsCacheTTL(int)}. Resolvers are for code that connects to addresses itself
+ * and for prefetching hosts into the cache of the JVM, see {@link CachingDnsResolver#prefetch(String)}.
+ */
+public interface DnsResolver {
+
+	/**
+	 * @param host host name, not an IP address
+	 * @return addresses of the host, not empty. The first one is used to connect
+	 * @throws UnknownHostException if host can't be resolved
+	 */
+	InetAddress[] resolve(String host) throws UnknownHostException;
+
+	/** Resolver of the JVM: InetAddress with its cache, controlled by {@link ru.maklas.http.Http#setDnsCacheTTL(int)} **/
+	static DnsResolver system() {
+		return SystemDnsResolver.INSTANCE;
+	}
+}
@@ -0,0 +1,74 @@
+package ru.maklas.http.dns;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>
+ * Resolver with fixed addresses. Useful in tests of code that takes a {@link DnsResolver}, as it never touches DNS.
+ * Hosts that are not added are unknown.
+ * </p>
+ * <p>ex:
+ * <br>
+ * new InMemoryDnsResolver().put("api.example.com", "127.0.0.1", "::1");
+ * </p>
+ */
+public class InMemoryDnsResolver implements DnsResolver {
+
+	private final ConcurrentHashMap<String, InetAddress[]> hosts = new ConcurrentHashMap<>();
+	private final LongAdder lookups = new LongAdder();
+
+	/**
+	 * @param addresses IP addresses of the host
+	 * @throws IllegalArgumentException if address is not an IP address
+	 */
+	public InMemoryDnsResolver put(@NotNull String host, @NotNull String... addresses) {
+		if (addresses.length == 0) throw new IllegalArgumentException("No addresses for " + host);
+		InetAddress[] resolved = new InetAddress[addresses.length];
+		for (int i = 0; i < addresses.length; i++) {
+			resolved[i] = parse(host, addresses[i]);
+		}
+		hosts.put(host.toLowerCase(Locale.ROOT), resolved);
+		return this;
+	}
+
+	public InMemoryDnsResolver remove(@NotNull String host) {
+		hosts.remove(host.toLowerCase(Locale.ROOT));
+		return this;
+	}
+
+	/** Number of calls to {@link #resolve(String)} **/
+	public long getLookups() {
+		return lookups.sum();
+	}
+
+	@Override
+	public InetAddress[] resolve(String host) throws UnknownHostException {
+		lookups.increment();
+		InetAddress[] addresses = hosts.get(host.toLowerCase(Locale.ROOT));
+		if (addresses == null) throw new UnknownHostException(host);
+		return addresses.clone();
+	}
+
+	private static InetAddress parse(String host, String address) {
+		String literal = address.startsWith("[") && address.endsWith("]") ? address.substring(1, address.length() - 1) : address;
+		if (!literal.contains(":") && !literal.matches("\\d{1,3}(\\.\\d{1,3}){3}")) {
+			throw new IllegalArgumentException("Not an IP address: " + address);
+		}
+		try {
+			return InetAddress.getByAddress(host, InetAddress.getByName(literal).getAddress()); //Literal is parsed without lookup
+		} catch (UnknownHostException e) {
+			throw new IllegalArgumentException("Not an IP address: " + address, e);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "InMemoryDnsResolver" + hosts.keySet();
+	}
+}
@@ -0,0 +1,24 @@
+package ru.maklas.http.dns;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+/** InetAddress.getAllByName() with the cache of the JVM **/
+final class SystemDnsResolver implements DnsResolver {
+
+	static final SystemDnsResolver INSTANCE = new SystemDnsResolver();
+
+	private SystemDnsResolver() {
+
+	}
+
+	@Override
+	public InetAddress[] resolve(String host) throws UnknownHostException {
+		return InetAddress.getAllByName(host);
+	}
+
+	@Override
+	public String toString() {
+		return "SystemDnsResolver";
+	}
+}
@@ -0,0 +1,106 @@
+package ru.maklas.http.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+import ru.maklas.http.Request;
+import ru.maklas.http.Response;
+import ru.maklas.http.Timings;
+
+/** The only class that depends on jdk.jfr. Must not be loaded if {@link JfrSupport#isAvailable()} is false **/
+@Name("ru.maklas.http.Exchange")
+@Label("HTTP Exchange")
+@Category("HTTP")
+@Description("HTTP request sent with ru.maklas.http, from connection till the body of response is read")
+@StackTrace(false)
+class HttpExchangeEvent extends Event {
+
+	@Label("Method")
+	String method;
+
+	@Label("Host")
+	String host;
+
+	@Label("URL")
+	String url;
+
+	@Label("Status")
+	@Description("Status code of the response or 0 if request failed")
+	int status;
+
+	@Label("Bytes In")
+	@DataAmount
+	long bytesIn;
+
+	@Label("Bytes Out")
+	@DataAmount
+	long bytesOut;
+
+	@Label("DNS")
+	@Timespan
+	long dns;
+
+	@Label("Connect")
+	@Timespan
+	long connect;
+
+	@Label("TLS Handshake")
+	@Timespan
+	long tls;
+
+	@Label("Write")
+	@Timespan
+	long write;
+
+	@Label("Time To First Byte")
+	@Timespan
+	long ttfb;
+
+	@Label("Download")
+	@Timespan
+	long download;
+
+	@Label("Error")
+	@Description("ConnectionException.Type if request failed")
+	String error;
+
+	static Object beginIfEnabled() {
+		HttpExchangeEvent event = new HttpExchangeEvent();
+		if (!event.isEnabled()) return null;
+		event.begin();
+		return event;
+	}
+
+	static void end(Object o, Request request, Response response, String error) {
+		HttpExchangeEvent event = (HttpExchangeEvent) o;
+		event.end();
+		if (!event.shouldCommit()) return;
+		event.method = request.getMethod();
+		if (request.getRequestUrl() != null) {
+			event.host = request.getRequestUrl().getHost();
+			event.url = request.getRequestUrl().toExternalForm();
+		}
+		event.status = response != null ? response.getResponseCode() : 0;
+		event.bytesIn = response != null ? response.getBytesReceived() : 0;
+		event.bytesOut = request.getBytesSent();
+		Timings timings = request.getTimings();
+		event.dns = span(timings.getDnsNanos());
+		event.connect = span(timings.getConnectNanos());
+		event.tls = span(timings.getTlsNanos());
+		event.write = span(timings.getWriteNanos());
+		event.ttfb = span(timings.getTtfbNanos());
+		event.download = span(timings.getDownloadNanos());
+		event.error = error;
+		event.commit();
+	}
+
+	/** Long.MIN_VALUE is shown as N/A by JFR tools **/
+	private static long span(long nanos) {
+		return nanos < 0 ? Long.MIN_VALUE : nanos;
+	}
+}
@@ -0,0 +1,57 @@
+package ru.maklas.http.jfr;
+
+import org.jetbrains.annotations.Nullable;
+import ru.maklas.http.ConnectionException;
+import ru.maklas.http.Request;
+import ru.maklas.http.Response;
+
+/**
+ * <p>
+ * Emits 'ru.maklas.http.Exchange' Java Flight Recorder event for every request:
+ * method, host, status, bytes, duration of each phase (see {@link ru.maklas.http.Timings}) and type of {@link ConnectionException} on failure.
+ * Enable it in the recording settings or with <b>jcmd &lt;pid&gt; JFR.start settings=profile</b>, as custom events are enabled by default.
+ * </p>
+ * <p>
+ * jdk.jfr is not available on Android and older Java 8 runtimes. In that case nothing is recorded and jdk.jfr classes are never loaded.
+ * Events are passed around as Object for the same reason.
+ * </p>
+ */
+public final class JfrSupport {
+
+	private static final boolean available = detect();
+
+	private JfrSupport() {
+
+	}
+
+	private static boolean detect() {
+		try {
+			Class.forName("jdk.jfr.Event", false, JfrSupport.class.getClassLoader());
+			return true;
+		} catch (Throwable e) {
+			return false;
+		}
+	}
+
+	/** Whether jdk.jfr is available in this runtime **/
+	public static boolean isAvailable() {
+		return available;
+	}
+
+	/** Starts an event. @return event or null if JFR is not available or event is disabled in recording **/
+	@Nullable
+	public static Object begin() {
+		if (!available) return null;
+		try {
+			return HttpExchangeEvent.beginIfEnabled();
+		} catch (Throwable e) {
+			return null;
+		}
+	}
+
+	/** Commits event started with {@link #begin()}. Does nothing if event is null **/
+	public static void end(@Nullable Object event, Request request, @Nullable Response response, @Nullable ConnectionException.Type error) {
+		if (event == null) return;
+		HttpExchangeEvent.end(event, request, response, error != null ? error.name() : null);
+	}
+}
@@ -0,0 +1,369 @@
+package ru.maklas.http.log;
+
+import com.badlogic.gdx.utils.Array;
+import org.jetbrains.annotations.NotNull;
+import ru.maklas.http.ConnectionException;
+import ru.maklas.http.FullResponse;
+import ru.maklas.http.Header;
+import ru.maklas.http.HttpCallback;
+import ru.maklas.http.Request;
+import ru.maklas.http.Response;
+import ru.maklas.http.Timings;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.TreeSet;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * <p>
+ * Structured exchange log for production. Unlike {@link Response#printTrace(OutputStream)}, request thread only decides whether
+ * exchange is sampled, copies what's logged into an immutable record and puts it into a lock-free ring buffer.
+ * Formatting and IO happen in a background thread which writes one JSON object per line and sleeps while the ring is empty.
+ * If the ring is full, records are dropped instead of slowing requests down.
+ * </p>
+ * <p>
+ * Record contains time, method, url, status or error type, timings in microseconds, bytes sent and received,
+ * headers with values of sensitive headers replaced by "***" and bodies truncated to {@link #setMaxBodyBytes(int)}.
+ * Only bodies that are already in memory are logged: request bytes and body of {@link FullResponse}.
+ * </p>
+ * <p>ex:
+ * <br>
+ * ExchangeLogger logger = new ExchangeLogger(System.out).setSampleRate(0.01);
+ * <br>
+ * request.send(logger);
+ * </p>
+ * Configure logger before it's used by requests.
+ */
+public class ExchangeLogger implements HttpCallback, Closeable {
+
+	public static final int DEFAULT_CAPACITY = 4096;
+	public static final int DEFAULT_MAX_BODY_BYTES = 1024;
+	private static final String REDACTED = "***";
+
+	private final RecordRing<Entry> ring;
+	private final Writer writer;
+	private final Thread thread;
+	private final TreeSet<String> redacted = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+	private final AtomicLong dropped = new AtomicLong();
+	private final AtomicLong written = new AtomicLong();
+	private volatile boolean closed;
+	private volatile boolean sleeping;
+	private volatile double sampleRate = 1;
+	private volatile boolean alwaysLogErrors = true;
+	private volatile boolean logHeaders = true;
+	private volatile int maxBodyBytes = DEFAULT_MAX_BODY_BYTES;
+
+	/** Writes to stream with ring buffer of default capacity. Stream is flushed, but not closed by {@link #close()} **/
+	public ExchangeLogger(@NotNull OutputStream out) {
+		this(out, DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * @param out where to write UTF-8 JSON lines. Flushed, but not closed by {@link #close()}
+	 * @param capacity max number of exchanges waiting to be written. Rounded up to power of two
+	 */
+	public ExchangeLogger(@NotNull OutputStream out, int capacity) {
+		this.ring = new RecordRing<>(capacity);
+		this.writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 16 * 1024);
+		redact("Authorization", "Proxy-Authorization", "Cookie", Header.SetCookie.key);
+		this.thread = new Thread(this::run, "MHttp-ExchangeLogger");
+		this.thread.setDaemon(true);
+		this.thread.start();
+	}
+
+	/** Part of successful exchanges to log, from 0 to 1. Default is 1 - every exchange **/
+	public ExchangeLogger setSampleRate(double sampleRate) {
+		this.sampleRate = Math.max(0, Math.min(1, sampleRate));
+		return this;
+	}
+
+	/** Whether connection errors and 5xx responses are logged regardless of sample rate. Default is true **/
+	public ExchangeLogger setAlwaysLogErrors(boolean alwaysLogErrors) {
+		this.alwaysLogErrors = alwaysLogErrors;
+		return this;
+	}
+
+	/** Whether request and response headers are logged. Default is true **/
+	public ExchangeLogger setLogHeaders(boolean logHeaders) {
+		this.logHeaders = logHeaders;
+		return this;
+	}
+
+	/** Bodies are truncated to this number of bytes. 0 to not log bodies. Default is {@value #DEFAULT_MAX_BODY_BYTES} **/
+	public ExchangeLogger setMaxBodyBytes(int maxBodyBytes) {
+		this.maxBodyBytes = Math.max(0, maxBodyBytes);
+		return this;
+	}
+
+	/** Values of these headers are replaced with "***". Case-insensitive. Authorization, Proxy-Authorization, Cookie and Set-Cookie are redacted by default **/
+	public ExchangeLogger redact(String... headers) {
+		for (String header : headers) {
+			redacted.add(header);
+		}
+		return this;
+	}
+
+	/** Stops redacting these headers **/
+	public ExchangeLogger unredact(String... headers) {
+		for (String header : headers) {
+			redacted.remove(header);
+		}
+		return this;
+	}
+
+	/** Number of sampled exchanges that were not logged, because ring buffer was full, logger was closed or writing failed **/
+	public long getDropped() {
+		return dropped.get();
+	}
+
+	/** Number of records written so far **/
+	public long getWritten() {
+		return written.get();
+	}
+
+	@Override
+	public void start(Request request) {
+
+	}
+
+	@Override
+	public void wroteBody() {
+
+	}
+
+	@Override
+	public void connecting() {
+
+	}
+
+	@Override
+	public void connected(int responseCode) {
+
+	}
+
+	@Override
+	public void finished(Response response) {
+		boolean error = alwaysLogErrors && response.getResponseCode() >= 500;
+		if (error || sampled()) {
+			offer(new Entry(System.currentTimeMillis(), response.getRequest(), response, null, logHeaders, maxBodyBytes));
+		}
+	}
+
+	@Override
+	public void interrupted(ConnectionException ce) {
+		if (alwaysLogErrors || sampled()) {
+			offer(new Entry(System.currentTimeMillis(), ce.getRequest(), null, ce, logHeaders, maxBodyBytes));
+		}
+	}
+
+	private boolean sampled() {
+		return sampleRate >= 1 || (sampleRate > 0 && ThreadLocalRandom.current().nextDouble() < sampleRate);
+	}
+
+	private void offer(Entry entry) {
+		if (closed || !ring.offer(entry)) {
+			dropped.incrementAndGet();
+		} else if (sleeping) {
+			LockSupport.unpark(thread);
+		}
+	}
+
+	/** Writes remaining records, flushes stream and stops background thread. Records of exchanges that finish after that are dropped **/
+	@Override
+	public void close() throws IOException {
+		if (closed) return;
+		closed = true;
+		LockSupport.unpark(thread);
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void run() {
+		JsonLine json = new JsonLine();
+		char[] chars = new char[1024];
+		boolean unflushed = false;
+		while (true) {
+			Entry entry = ring.poll();
+			if (entry == null) {
+				if (unflushed) {
+					unflushed = !flush();
+				}
+				if (closed) {
+					entry = ring.poll();
+					if (entry == null) return;
+				} else {
+					sleeping = true;
+					entry = ring.poll(); //Producer might have offered before it saw the flag
+					if (entry == null) LockSupport.park(this);
+					sleeping = false;
+					if (entry == null) continue;
+				}
+			}
+			try {
+				StringBuilder line = format(json, entry);
+				if (chars.length < line.length()) chars = new char[Math.max(line.length(), chars.length * 2)];
+				line.getChars(0, line.length(), chars, 0);
+				writer.write(chars, 0, line.length());
+				written.incrementAndGet();
+				unflushed = true;
+			} catch (Exception e) {
+				dropped.incrementAndGet();
+			}
+		}
+	}
+
+	private boolean flush() {
+		try {
+			writer.flush();
+			return true;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	private StringBuilder format(JsonLine json, Entry entry) {
+		json.begin().field("ts", entry.time);
+		json.field("method", entry.method);
+		json.field("url", entry.url);
+		if (entry.status != -1) {
+			json.field("status", entry.status);
+			json.field("ms", entry.ms);
+		}
+		if (entry.error != null) {
+			json.field("error", entry.error.name());
+			json.field("message", entry.message);
+		}
+		if (entry.timings != null) {
+			json.beginObject("us");
+			for (Timings.Phase phase : Timings.Phase.values()) {
+				long nanos = entry.timings[phase.ordinal()];
+				if (nanos >= 0) json.field(phase.name().toLowerCase(Locale.ROOT), TimeUnit.NANOSECONDS.toMicros(nanos));
+			}
+			json.endObject();
+			json.field("out", entry.out);
+		}
+		if (entry.status != -1) {
+			json.field("in", entry.in);
+		}
+		if (entry.reqHeaders != null) headers(json, "reqHeaders", entry.reqHeaders);
+		if (entry.respHeaders != null) headers(json, "respHeaders", entry.respHeaders);
+		if (entry.reqBody != null) {
+			body(json, "reqBody", entry.reqBody, entry.reqBodyLength, StandardCharsets.UTF_8);
+		} else if (entry.multipart) {
+			json.field("reqBody", "<multipart>");
+		}
+		if (entry.respBody != null) {
+			body(json, "respBody", entry.respBody, entry.respBodyLength, entry.charset);
+		}
+		return json.end();
+	}
+
+	private void headers(JsonLine json, String name, Header[] headers) {
+		json.beginArray(name);
+		for (Header header : headers) {
+			json.header(header.key, redacted.contains(header.key) ? REDACTED : header.value);
+		}
+		json.endArray();
+	}
+
+	/** @param bytes beginning of the body, truncated to max body bytes. @param length full length of the body **/
+	private void body(JsonLine json, String name, byte[] bytes, int length, Charset charset) {
+		CharsetDecoder decoder = charset.newDecoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		CharBuffer chars = CharBuffer.allocate((int) Math.ceil(bytes.length * (double) decoder.maxCharsPerByte()));
+		decoder.decode(ByteBuffer.wrap(bytes), chars, bytes.length == length);
+		chars.flip();
+		json.field(name, chars.toString());
+		if (bytes.length < length) {
+			json.field(name + "Truncated", length);
+		}
+	}
+
+	/** Everything that's logged, copied in the request thread, so that request and response are neither shared with logger thread nor kept alive by the ring **/
+	private static class Entry {
+
+		final long time;
+		final String method;
+		final String url;
+		final int status;
+		final int ms;
+		final long in;
+		final ConnectionException.Type error;
+		final String message;
+		final long[] timings;
+		final long out;
+		final Header[] reqHeaders;
+		final Header[] respHeaders;
+		final boolean multipart;
+		final byte[] reqBody;
+		final int reqBodyLength;
+		final byte[] respBody;
+		final int respBodyLength;
+		final Charset charset;
+
+		Entry(long time, Request request, Response response, ConnectionException error, boolean logHeaders, int maxBodyBytes) {
+			this.time = time;
+			this.method = request != null ? request.getMethod() : null;
+			this.url = request != null && request.getRequestUrl() != null ? request.getRequestUrl().toExternalForm() : null;
+			this.status = response != null ? response.getResponseCode() : -1;
+			this.ms = response != null ? response.getResponseTime() : 0;
+			this.in = response != null ? response.getBytesReceived() : 0;
+			this.error = error != null ? error.getType() : null;
+			this.message = error != null && error.getCause() != null ? error.getCause().toString() : null;
+			if (request != null) {
+				Timings timings = request.getTimings();
+				this.timings = new long[Timings.Phase.values().length];
+				for (Timings.Phase phase : Timings.Phase.values()) {
+					this.timings[phase.ordinal()] = timings.get(phase);
+				}
+			} else {
+				this.timings = null;
+			}
+			this.out = request != null ? request.getBytesSent() : 0;
+			this.reqHeaders = logHeaders && request != null ? copy(request.getRequestHeaders()) : null;
+			this.respHeaders = logHeaders && response != null ? copy(response.getHeaders()) : null;
+
+			byte[] output = maxBodyBytes > 0 && request != null ? request.getOutput() : null;
+			this.reqBody = truncate(output, maxBodyBytes);
+			this.reqBodyLength = output != null ? output.length : 0;
+			this.multipart = maxBodyBytes > 0 && output == null && request != null && request.getMultipartWriter() != null;
+			byte[] responseBytes = maxBodyBytes > 0 && response instanceof FullResponse ? ((FullResponse) response).getResponseBytes() : null;
+			this.respBody = truncate(responseBytes, maxBodyBytes);
+			this.respBodyLength = responseBytes != null ? responseBytes.length : 0;
+			this.charset = responseBytes != null ? response.getCharset() : null;
+		}
+
+		private static Header[] copy(Iterable<Header> headers) {
+			if (headers == null) return null;
+			Array<Header> copy = new Array<>(Header.class);
+			for (Header header : headers) {
+				if (header.key != null) copy.add(header);
+			}
+			return copy.toArray();
+		}
+
+		private static byte[] truncate(byte[] bytes, int max) {
+			return bytes != null ? Arrays.copyOf(bytes, Math.min(bytes.length, max)) : null;
+		}
+	}
+}
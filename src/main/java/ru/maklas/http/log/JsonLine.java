@@ -0,0 +1,111 @@
+package ru.maklas.http.log;
+
+/** Minimal writer of a single-line JSON object. Reused by logger thread, so it never allocates after warm up **/
+class JsonLine {
+
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	private final StringBuilder sb = new StringBuilder(1024);
+	private boolean first;
+
+	JsonLine begin() {
+		sb.setLength(0);
+		sb.append('{');
+		first = true;
+		return this;
+	}
+
+	JsonLine beginObject(String key) {
+		key(key);
+		sb.append('{');
+		first = true;
+		return this;
+	}
+
+	JsonLine endObject() {
+		sb.append('}');
+		first = false;
+		return this;
+	}
+
+	JsonLine beginArray(String key) {
+		key(key);
+		sb.append('[');
+		first = true;
+		return this;
+	}
+
+	/** Array element "key: value" **/
+	JsonLine header(String key, String value) {
+		if (!first) sb.append(',');
+		first = false;
+		sb.append('"');
+		escape(key, 0, key.length());
+		sb.append(": ");
+		if (value != null) escape(value, 0, value.length());
+		sb.append('"');
+		return this;
+	}
+
+	JsonLine endArray() {
+		sb.append(']');
+		first = false;
+		return this;
+	}
+
+	JsonLine field(String key, String value) {
+		if (value == null) return this;
+		key(key);
+		string(value, 0, value.length());
+		return this;
+	}
+
+	JsonLine field(String key, long value) {
+		key(key);
+		sb.append(value);
+		return this;
+	}
+
+	JsonLine field(String key, boolean value) {
+		key(key);
+		sb.append(value);
+		return this;
+	}
+
+	/** Completes object and returns the line with trailing '\n' **/
+	StringBuilder end() {
+		return sb.append('}').append('\n');
+	}
+
+	private void key(String key) {
+		if (!first) sb.append(',');
+		first = false;
+		string(key, 0, key.length());
+		sb.append(':');
+	}
+
+	private void string(CharSequence s, int start, int end) {
+		sb.append('"');
+		escape(s, start, end);
+		sb.append('"');
+	}
+
+	private void escape(CharSequence s, int start, int end) {
+		for (int i = start; i < end; i++) {
+			char c = s.charAt(i);
+			switch (c) {
+				case '"': sb.append("\\\""); break;
+				case '\\': sb.append("\\\\"); break;
+				case '\n': sb.append("\\n"); break;
+				case '\r': sb.append("\\r"); break;
+				case '\t': sb.append("\\t"); break;
+				default:
+					if (c < 0x20) {
+						sb.append("\\u00").append(HEX[c >> 4]).append(HEX[c & 0xF]);
+					} else {
+						sb.append(c);
+					}
+			}
+		}
+	}
+}
@@ -0,0 +1,63 @@
+package ru.maklas.http.log;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded lock-free ring buffer for many producers and a single consumer.
+ * Every slot has a sequence number, so producers claim slots with a single CAS and never wait for each other.
+ * When the ring is full, {@link #offer(Object)} fails instead of blocking.
+ */
+class RecordRing<T> {
+
+	private final int mask;
+	private final AtomicReferenceArray<T> items;
+	private final AtomicLongArray sequences;
+	private final AtomicLong tail = new AtomicLong();
+	private long head;
+
+	/** @param capacity rounded up to a power of two **/
+	RecordRing(int capacity) {
+		int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+		mask = size - 1;
+		items = new AtomicReferenceArray<>(size);
+		sequences = new AtomicLongArray(size);
+		for (int i = 0; i < size; i++) {
+			sequences.set(i, i);
+		}
+	}
+
+	int capacity() {
+		return mask + 1;
+	}
+
+	/** @return false if ring is full. Safe to call from any thread **/
+	boolean offer(T item) {
+		while (true) {
+			long position = tail.get();
+			int index = (int) position & mask;
+			long diff = sequences.get(index) - position;
+			if (diff == 0) {
+				if (tail.compareAndSet(position, position + 1)) {
+					items.lazySet(index, item);
+					sequences.set(index, position + 1);
+					return true;
+				}
+			} else if (diff < 0) {
+				return false;
+			}
+		}
+	}
+
+	/** @return next item or null if ring is empty. Must be called only from consumer thread **/
+	T poll() {
+		int index = (int) head & mask;
+		if (sequences.get(index) != head + 1) return null;
+		T item = items.get(index);
+		items.lazySet(index, null);
+		sequences.set(index, head + mask + 1);
+		head++;
+		return item;
+	}
+}
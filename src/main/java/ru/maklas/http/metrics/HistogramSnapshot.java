@@ -0,0 +1,76 @@
+package ru.maklas.http.metrics;
+
+import java.util.Locale;
+
+/** Immutable state of {@link LatencyHistogram}. Values are in the units they were recorded in (nanoseconds for latencies) **/
+public class HistogramSnapshot {
+
+	private final long[] counts;
+	private final long count;
+	private final long sum;
+	private final long max;
+
+	HistogramSnapshot(long[] counts, long sum, long max) {
+		this.counts = counts;
+		long count = 0;
+		for (long c : counts) {
+			count += c;
+		}
+		this.count = count;
+		this.sum = sum;
+		this.max = max;
+	}
+
+	static HistogramSnapshot empty() {
+		return new HistogramSnapshot(new long[LatencyHistogram.BUCKETS], 0, 0);
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	public long getSum() {
+		return sum;
+	}
+
+	public long getMax() {
+		return max;
+	}
+
+	public double getMean() {
+		return count == 0 ? 0 : sum / (double) count;
+	}
+
+	/**
+	 * Value at the percentile, within precision of the histogram
+	 * @param percentile from 0 to 100
+	 */
+	public long getPercentile(double percentile) {
+		if (count == 0) return 0;
+		long rank = (long) Math.ceil(Math.max(0, Math.min(100, percentile)) / 100.0 * count);
+		if (rank < 1) rank = 1;
+		long seen = 0;
+		for (int i = 0; i < counts.length; i++) {
+			seen += counts[i];
+			if (seen >= rank) {
+				return Math.min(LatencyHistogram.highestValue(i), max);
+			}
+		}
+		return max;
+	}
+
+	/** Combined state of both snapshots **/
+	public HistogramSnapshot merge(HistogramSnapshot other) {
+		long[] merged = new long[counts.length];
+		for (int i = 0; i < merged.length; i++) {
+			merged[i] = counts[i] + other.counts[i];
+		}
+		return new HistogramSnapshot(merged, sum + other.sum, Math.max(max, other.max));
+	}
+
+	@Override
+	public String toString() {
+		return String.format(Locale.ROOT, "{count=%d, mean=%.3fms, p50=%.3fms, p95=%.3fms, p99=%.3fms, max=%.3fms}",
+				count, getMean() / 1e6, getPercentile(50) / 1e6, getPercentile(95) / 1e6, getPercentile(99) / 1e6, max / 1e6);
+	}
+}
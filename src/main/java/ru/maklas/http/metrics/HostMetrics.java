@@ -0,0 +1,65 @@
+package ru.maklas.http.metrics;
+
+import ru.maklas.http.ConnectionException;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/** Counters of a single host. All counters are striped, so concurrent requests don't contend on them **/
+class HostMetrics {
+
+	private static final ConnectionException.Type[] TYPES = ConnectionException.Type.values();
+
+	final String host;
+	final LongAdder requests = new LongAdder();
+	final LongAdder[] statusClasses = adders(6); //index is code / 100. 0 for codes out of range
+	final LongAdder bytesIn = new LongAdder();
+	final LongAdder bytesOut = new LongAdder();
+	final LongAdder tlsHandshakes = new LongAdder();
+	final LongAdder tlsResumed = new LongAdder();
+	final LongAdder[] errors = adders(TYPES.length);
+	final LatencyHistogram latency = new LatencyHistogram();
+
+	HostMetrics(String host) {
+		this.host = host;
+	}
+
+	void recordResponse(int responseCode, long latencyNanos, long bytesIn, long bytesOut) {
+		requests.increment();
+		int statusClass = responseCode / 100;
+		statusClasses[statusClass >= 1 && statusClass <= 5 ? statusClass : 0].increment();
+		if (bytesIn > 0) this.bytesIn.add(bytesIn);
+		if (bytesOut > 0) this.bytesOut.add(bytesOut);
+		latency.record(latencyNanos);
+	}
+
+	void recordTls(int handshakes, int resumed) {
+		if (handshakes > 0) tlsHandshakes.add(handshakes);
+		if (resumed > 0) tlsResumed.add(resumed);
+	}
+
+	void recordError(ConnectionException.Type type, long bytesOut) {
+		requests.increment();
+		errors[type.ordinal()].increment();
+		if (bytesOut > 0) this.bytesOut.add(bytesOut);
+	}
+
+	HostSnapshot snapshot() {
+		long[] statusClasses = new long[this.statusClasses.length];
+		for (int i = 0; i < statusClasses.length; i++) {
+			statusClasses[i] = this.statusClasses[i].sum();
+		}
+		long[] errors = new long[this.errors.length];
+		for (int i = 0; i < errors.length; i++) {
+			errors[i] = this.errors[i].sum();
+		}
+		return new HostSnapshot(host, requests.sum(), statusClasses, bytesIn.sum(), bytesOut.sum(), tlsHandshakes.sum(), tlsResumed.sum(), errors, latency.snapshot());
+	}
+
+	private static LongAdder[] adders(int size) {
+		LongAdder[] adders = new LongAdder[size];
+		for (int i = 0; i < size; i++) {
+			adders[i] = new LongAdder();
+		}
+		return adders;
+	}
+}
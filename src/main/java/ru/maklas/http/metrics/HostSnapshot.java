@@ -0,0 +1,127 @@
+package ru.maklas.http.metrics;
+
+import ru.maklas.http.ConnectionException;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/** Immutable state of metrics of a single host, or of all hosts combined **/
+public class HostSnapshot {
+
+	private final String host;
+	private final long requests;
+	private final long[] statusClasses;
+	private final long bytesIn;
+	private final long bytesOut;
+	private final long tlsHandshakes;
+	private final long tlsResumed;
+	private final long[] errors;
+	private final HistogramSnapshot latency;
+
+	HostSnapshot(String host, long requests, long[] statusClasses, long bytesIn, long bytesOut, long tlsHandshakes, long tlsResumed, long[] errors, HistogramSnapshot latency) {
+		this.host = host;
+		this.requests = requests;
+		this.statusClasses = statusClasses;
+		this.bytesIn = bytesIn;
+		this.bytesOut = bytesOut;
+		this.tlsHandshakes = tlsHandshakes;
+		this.tlsResumed = tlsResumed;
+		this.errors = errors;
+		this.latency = latency;
+	}
+
+	/** Host name or '*' for combined snapshot **/
+	public String getHost() {
+		return host;
+	}
+
+	/** Requests that finished with response or with error **/
+	public long getRequests() {
+		return requests;
+	}
+
+	/**
+	 * Responses with status code of the class
+	 * @param statusClass 1 for 1xx, 2 for 2xx ... 5 for 5xx. 0 for codes out of range
+	 */
+	public long getResponses(int statusClass) {
+		return statusClass >= 0 && statusClass < statusClasses.length ? statusClasses[statusClass] : 0;
+	}
+
+	/** Bytes of response bodies, as received **/
+	public long getBytesIn() {
+		return bytesIn;
+	}
+
+	/** Bytes of request bodies **/
+	public long getBytesOut() {
+		return bytesOut;
+	}
+
+	/** Full TLS handshakes **/
+	public long getTlsHandshakes() {
+		return tlsHandshakes;
+	}
+
+	/** TLS handshakes that resumed previous session **/
+	public long getTlsResumed() {
+		return tlsResumed;
+	}
+
+	public long getErrors(ConnectionException.Type type) {
+		return type.ordinal() < errors.length ? errors[type.ordinal()] : 0;
+	}
+
+	/** Total number of errors of all types **/
+	public long getErrors() {
+		long total = 0;
+		for (long error : errors) {
+			total += error;
+		}
+		return total;
+	}
+
+	/** Non-zero error counts by type **/
+	public Map<ConnectionException.Type, Long> getErrorsByType() {
+		EnumMap<ConnectionException.Type, Long> map = new EnumMap<>(ConnectionException.Type.class);
+		ConnectionException.Type[] types = ConnectionException.Type.values();
+		for (int i = 0; i < errors.length; i++) {
+			if (errors[i] > 0) map.put(types[i], errors[i]);
+		}
+		return map;
+	}
+
+	/** Total latency of requests that received response, in nanoseconds **/
+	public HistogramSnapshot getLatency() {
+		return latency;
+	}
+
+	HostSnapshot merge(String host, HostSnapshot other) {
+		long[] statusClasses = new long[this.statusClasses.length];
+		for (int i = 0; i < statusClasses.length; i++) {
+			statusClasses[i] = this.statusClasses[i] + other.statusClasses[i];
+		}
+		long[] errors = new long[this.errors.length];
+		for (int i = 0; i < errors.length; i++) {
+			errors[i] = this.errors[i] + other.errors[i];
+		}
+		return new HostSnapshot(host, requests + other.requests, statusClasses, bytesIn + other.bytesIn, bytesOut + other.bytesOut,
+				tlsHandshakes + other.tlsHandshakes, tlsResumed + other.tlsResumed, errors, latency.merge(other.latency));
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append(host).append(": requests=").append(requests);
+		for (int i = 1; i < statusClasses.length; i++) {
+			if (statusClasses[i] > 0) sb.append(", ").append(i).append("xx=").append(statusClasses[i]);
+		}
+		if (statusClasses[0] > 0) sb.append(", other=").append(statusClasses[0]);
+		sb.append(", in=").append(bytesIn).append("B, out=").append(bytesOut).append('B');
+		if (tlsHandshakes + tlsResumed > 0) sb.append(", tls=").append(tlsHandshakes).append(", resumed=").append(tlsResumed);
+		Map<ConnectionException.Type, Long> errors = getErrorsByType();
+		if (!errors.isEmpty()) sb.append(", errors=").append(errors);
+		sb.append(", latency=").append(latency);
+		return sb.toString();
+	}
+}
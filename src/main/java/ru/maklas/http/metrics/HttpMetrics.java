@@ -0,0 +1,95 @@
+package ru.maklas.http.metrics;
+
+import ru.maklas.http.ConnectionException;
+import ru.maklas.http.HttpCallback;
+import ru.maklas.http.Request;
+import ru.maklas.http.Response;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <p>
+ * Metrics of requests by host: count of requests and responses by status class, bytes in and out,
+ * full and resumed TLS handshakes, errors by {@link ConnectionException.Type} and latency histogram.
+ * Recording is lock-free. It's an {@link HttpCallback} without state, so a single instance can be used for all requests from all threads.
+ * </p>
+ * <p>ex:
+ * <br>
+ * HttpMetrics metrics = new HttpMetrics();
+ * <br>
+ * request.send(metrics);
+ * <br>
+ * System.out.println(metrics.snapshot());
+ * </p>
+ */
+public class HttpMetrics implements HttpCallback {
+
+	private static final String UNKNOWN_HOST = "unknown";
+	private static final String ALL_HOSTS = "*";
+
+	private final ConcurrentHashMap<String, HostMetrics> hosts = new ConcurrentHashMap<>();
+
+	@Override
+	public void start(Request request) {
+
+	}
+
+	@Override
+	public void wroteBody() {
+
+	}
+
+	@Override
+	public void connecting() {
+
+	}
+
+	@Override
+	public void connected(int responseCode) {
+
+	}
+
+	@Override
+	public void finished(Response response) {
+		Request request = response.getRequest();
+		HostMetrics host = host(request);
+		host.recordResponse(response.getResponseCode(), response.getTimings().getTotalNanos(), response.getBytesReceived(), request.getBytesSent());
+		host.recordTls(request.getTlsHandshakes(), request.getTlsResumed());
+	}
+
+	@Override
+	public void interrupted(ConnectionException ce) {
+		Request request = ce.getRequest();
+		HostMetrics host = host(request);
+		host.recordError(ce.getType(), request != null ? request.getBytesSent() : 0);
+		if (request != null) host.recordTls(request.getTlsHandshakes(), request.getTlsResumed());
+	}
+
+	private HostMetrics host(Request request) {
+		String host = request != null && request.getRequestUrl() != null ? request.getRequestUrl().getHost().toLowerCase() : UNKNOWN_HOST;
+		HostMetrics metrics = hosts.get(host);
+		if (metrics == null) {
+			metrics = hosts.computeIfAbsent(host, HostMetrics::new);
+		}
+		return metrics;
+	}
+
+	/** Current state of all metrics **/
+	public MetricsSnapshot snapshot() {
+		Map<String, HostSnapshot> snapshots = new TreeMap<>();
+		HostSnapshot total = new HostSnapshot(ALL_HOSTS, 0, new long[6], 0, 0, 0, 0, new long[ConnectionException.Type.values().length], HistogramSnapshot.empty());
+		for (HostMetrics metrics : hosts.values()) {
+			HostSnapshot snapshot = metrics.snapshot();
+			snapshots.put(metrics.host, snapshot);
+			total = total.merge(ALL_HOSTS, snapshot);
+		}
+		return new MetricsSnapshot(System.currentTimeMillis(), snapshots, total);
+	}
+
+	/** Forgets all hosts and their metrics **/
+	public void reset() {
+		hosts.clear();
+	}
+}
@@ -0,0 +1,79 @@
+package ru.maklas.http.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free log-linear histogram in the style of HdrHistogram.
+ * Every power of two is split into 32 linear sub-buckets, so recorded values are kept with ~3% precision
+ * in the range from 0 to 2^41 (about 36 minutes in nanoseconds). Larger values are recorded as the max of the range.
+ * Buckets are striped by thread, so threads that record at the same time rarely touch the same counters.
+ */
+public class LatencyHistogram {
+
+	static final int SUB_BITS = 5;
+	static final int SUB_BUCKETS = 1 << SUB_BITS;
+	static final int MAX_EXPONENT = 40;
+	public static final long MAX_VALUE = (1L << (MAX_EXPONENT + 1)) - 1;
+	static final int BUCKETS = index(MAX_VALUE) + 1;
+
+	private final AtomicLongArray[] stripes;
+	private final LongAdder sum = new LongAdder();
+	private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+	public LatencyHistogram() {
+		int stripes = Integer.highestOneBit(Math.max(1, Math.min(8, Runtime.getRuntime().availableProcessors())));
+		this.stripes = new AtomicLongArray[stripes];
+		for (int i = 0; i < stripes; i++) {
+			this.stripes[i] = new AtomicLongArray(BUCKETS);
+		}
+	}
+
+	/** Records a value. Negative values are recorded as 0 **/
+	public void record(long value) {
+		if (value < 0) value = 0;
+		if (value > MAX_VALUE) value = MAX_VALUE;
+		AtomicLongArray stripe = stripes[(int) Thread.currentThread().getId() & (stripes.length - 1)];
+		stripe.incrementAndGet(index(value));
+		sum.add(value);
+		max.accumulate(value);
+	}
+
+	/** Copy of current state. Values recorded during the copy may or may not be included **/
+	public HistogramSnapshot snapshot() {
+		long[] counts = new long[BUCKETS];
+		for (AtomicLongArray stripe : stripes) {
+			for (int i = 0; i < BUCKETS; i++) {
+				counts[i] += stripe.get(i);
+			}
+		}
+		return new HistogramSnapshot(counts, sum.sum(), max.get());
+	}
+
+	public void reset() {
+		for (AtomicLongArray stripe : stripes) {
+			for (int i = 0; i < BUCKETS; i++) {
+				stripe.set(i, 0);
+			}
+		}
+		sum.reset();
+		max.reset();
+	}
+
+	/** Values below 64 have their own buckets. Above that, 32 buckets per power of two **/
+	static int index(long value) {
+		if (value < SUB_BUCKETS * 2) return (int) value;
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int shift = exponent - SUB_BITS;
+		return (shift + 1) * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+	}
+
+	/** Largest value that is recorded into the bucket **/
+	static long highestValue(int index) {
+		if (index < SUB_BUCKETS * 2) return index;
+		int shift = index / SUB_BUCKETS - 1;
+		long sub = index % SUB_BUCKETS + SUB_BUCKETS;
+		return ((sub + 1) << shift) - 1;
+	}
+}
@@ -0,0 +1,48 @@
+package ru.maklas.http.metrics;
+
+import java.util.Collections;
+import java.util.Map;
+
+/** Immutable state of {@link HttpMetrics} at the moment of {@link HttpMetrics#snapshot()} **/
+public class MetricsSnapshot {
+
+	private final long timestamp;
+	private final Map<String, HostSnapshot> hosts;
+	private final HostSnapshot total;
+
+	MetricsSnapshot(long timestamp, Map<String, HostSnapshot> hosts, HostSnapshot total) {
+		this.timestamp = timestamp;
+		this.hosts = Collections.unmodifiableMap(hosts);
+		this.total = total;
+	}
+
+	/** System.currentTimeMillis() of the snapshot **/
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	/** Snapshots by host, sorted by host name **/
+	public Map<String, HostSnapshot> getHosts() {
+		return hosts;
+	}
+
+	/** Snapshot of the host or null if there were no requests to it **/
+	public HostSnapshot getHost(String host) {
+		return hosts.get(host.toLowerCase());
+	}
+
+	/** All hosts combined **/
+	public HostSnapshot getTotal() {
+		return total;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append(total).append('\n');
+		for (HostSnapshot host : hosts.values()) {
+			sb.append("  ").append(host).append('\n');
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,183 @@
+package ru.maklas.http;
+
+import ru.maklas.http.metrics.HistogramSnapshot;
+import ru.maklas.http.metrics.LatencyHistogram;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>
+ * Sends requests at fixed concurrency for a fixed time and reports throughput and latency percentiles.
+ * Every thread sends requests one after another, so concurrency is the number of requests in flight.
+ * Latency is measured from building of request till body of response is read.
+ * </p>
+ * <p>ex:
+ * <br>
+ * LoadDriver.Report report = new LoadDriver(16).warmup(1000).duration(5000).run(() -&gt; ConnectionBuilder.get(url).send());
+ * </p>
+ */
+public class LoadDriver {
+
+	/** Single exchange, executed by driver in a loop **/
+	public interface Exchange {
+		Response execute() throws Exception;
+	}
+
+	private final int concurrency;
+	private long warmupMillis = 0;
+	private long durationMillis = 5000;
+
+	public LoadDriver(int concurrency) {
+		this.concurrency = concurrency;
+	}
+
+	/** Time to send requests before measurement starts. 0 by default **/
+	public LoadDriver warmup(long millis) {
+		this.warmupMillis = millis;
+		return this;
+	}
+
+	/** Time of measurement. 5 seconds by default **/
+	public LoadDriver duration(long millis) {
+		this.durationMillis = millis;
+		return this;
+	}
+
+	public Report run(Exchange exchange) throws InterruptedException {
+		LatencyHistogram histogram = new LatencyHistogram();
+		ConcurrentHashMap<String, LongAdder> outcomes = new ConcurrentHashMap<>();
+		AtomicLong bytes = new AtomicLong();
+		long start = System.nanoTime();
+		long measureFrom = start + TimeUnit.MILLISECONDS.toNanos(warmupMillis);
+		long measureTo = measureFrom + TimeUnit.MILLISECONDS.toNanos(durationMillis);
+		CountDownLatch done = new CountDownLatch(concurrency);
+		for (int i = 0; i < concurrency; i++) {
+			Thread thread = new Thread(() -> {
+				try {
+					long now;
+					while ((now = System.nanoTime()) < measureTo) {
+						String outcome;
+						long received = 0;
+						try {
+							Response response = exchange.execute();
+							outcome = String.valueOf(response.getResponseCode());
+							received = response.getBytesReceived();
+						} catch (ConnectionException e) {
+							outcome = e.getType().name();
+						} catch (Exception e) {
+							outcome = e.getClass().getSimpleName();
+						}
+						long end = System.nanoTime();
+						if (now >= measureFrom && end <= measureTo) {
+							histogram.record(end - now);
+							outcomes.computeIfAbsent(outcome, k -> new LongAdder()).increment();
+							bytes.addAndGet(received);
+						}
+					}
+				} finally {
+					done.countDown();
+				}
+			}, "LoadDriver-" + i);
+			thread.setDaemon(true);
+			thread.start();
+		}
+		done.await();
+		Map<String, Long> result = new TreeMap<>();
+		outcomes.forEach((k, v) -> result.put(k, v.sum()));
+		return new Report(concurrency, durationMillis, histogram.snapshot(), result, bytes.get());
+	}
+
+	public static class Report {
+
+		private final int concurrency;
+		private final long durationMillis;
+		private final HistogramSnapshot latency;
+		private final Map<String, Long> outcomes;
+		private final long bytesReceived;
+
+		Report(int concurrency, long durationMillis, HistogramSnapshot latency, Map<String, Long> outcomes, long bytesReceived) {
+			this.concurrency = concurrency;
+			this.durationMillis = durationMillis;
+			this.latency = latency;
+			this.outcomes = outcomes;
+			this.bytesReceived = bytesReceived;
+		}
+
+		/** Number of exchanges completed during measurement **/
+		public long getCount() {
+			return latency.getCount();
+		}
+
+		/** Completed exchanges per second **/
+		public double getThroughput() {
+			return getCount() * 1000d / durationMillis;
+		}
+
+		/** Latency in nanoseconds **/
+		public HistogramSnapshot getLatency() {
+			return latency;
+		}
+
+		/** Number of exchanges by status code or error type **/
+		public Map<String, Long> getOutcomes() {
+			return outcomes;
+		}
+
+		/** Number of exchanges that ended with status code **/
+		public long getOutcome(int status) {
+			Long count = outcomes.get(String.valueOf(status));
+			return count == null ? 0 : count;
+		}
+
+		/** Number of exchanges that ended with ConnectionException of this type **/
+		public long getOutcome(ConnectionException.Type type) {
+			Long count = outcomes.get(type.name());
+			return count == null ? 0 : count;
+		}
+
+		/** Bytes of response bodies received during measurement **/
+		public long getBytesReceived() {
+			return bytesReceived;
+		}
+
+		@Override
+		public String toString() {
+			return String.format(Locale.ROOT, "concurrency=%d, requests=%d, throughput=%.1f/s, p50=%.3fms, p90=%.3fms, p99=%.3fms, max=%.3fms, received=%dKB, outcomes=%s",
+					concurrency, getCount(), getThroughput(),
+					latency.getPercentile(50) / 1e6, latency.getPercentile(90) / 1e6, latency.getPercentile(99) / 1e6, latency.getMax() / 1e6,
+					bytesReceived / 1024, outcomes);
+		}
+	}
+
+	/**
+	 * End-to-end throughput benchmark against {@link LoadTestServer}.
+	 * Arguments: concurrency, seconds, body size, latency millis, gzip, chunked, cookies
+	 */
+	public static void main(String[] args) throws Exception {
+		int concurrency = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+		int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+		int bodySize = args.length > 2 ? Integer.parseInt(args[2]) : 16 * 1024;
+		int latency = args.length > 3 ? Integer.parseInt(args[3]) : 0;
+		boolean gzip = args.length > 4 && Boolean.parseBoolean(args[4]);
+		boolean chunked = args.length > 5 && Boolean.parseBoolean(args[5]);
+		int cookies = args.length > 6 ? Integer.parseInt(args[6]) : 0;
+
+		Http.setDefaultKeepAlive(true);
+		try (LoadTestServer server = new LoadTestServer(concurrency)) {
+			server.bodySize(bodySize).latency(latency).gzip(gzip).chunked(chunked).cookies(cookies);
+			String url = server.url("/load");
+			Report report = new LoadDriver(concurrency)
+					.warmup(Math.min(3000, seconds * 300L))
+					.duration(seconds * 1000L)
+					.run(() -> ConnectionBuilder.get(url).h(Header.AcceptEncoding.gzip).send());
+			System.out.println(report);
+		}
+	}
+}
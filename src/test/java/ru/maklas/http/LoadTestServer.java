@@ -0,0 +1,189 @@
+package ru.maklas.http;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * <p>
+ * Embedded Http server on loopback for offline and repeatable tests and load tests.
+ * Every response is controlled by settings of the server which can be changed while it's running:
+ * latency, body size, chunked transfer, gzip compression, number of Set-Cookie headers and injection of errors.
+ * </p>
+ * Error injection: part of responses can be replaced with {@link #errorStatus(int)},
+ * and part of connections can be dropped before response is sent.
+ */
+public class LoadTestServer implements AutoCloseable {
+
+	private final HttpServer server;
+	private final ExecutorService executor;
+	private final AtomicLong requests = new AtomicLong();
+	private volatile long latencyMillis;
+	private volatile long latencyJitterMillis;
+	private volatile byte[] body = new byte[0];
+	private volatile byte[] gzippedBody;
+	private volatile boolean chunked;
+	private volatile boolean gzip;
+	private volatile int cookies;
+	private volatile double errorRate;
+	private volatile int errorStatus = 503;
+	private volatile double dropRate;
+
+	public LoadTestServer() throws IOException {
+		this(Math.max(4, Runtime.getRuntime().availableProcessors() * 2));
+	}
+
+	/** @param threads number of threads that handle requests. Limits server concurrency **/
+	public LoadTestServer(int threads) throws IOException {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 1024);
+		executor = Executors.newFixedThreadPool(threads);
+		server.setExecutor(executor);
+		server.createContext("/", this::handle);
+		server.start();
+	}
+
+	/** Url of this server with given path **/
+	public String url(String path) {
+		return "http://127.0.0.1:" + server.getAddress().getPort() + (path.startsWith("/") ? path : "/" + path);
+	}
+
+	/** Number of requests received **/
+	public long getRequests() {
+		return requests.get();
+	}
+
+	/** Delay before sending response **/
+	public LoadTestServer latency(long millis) {
+		return latency(millis, 0);
+	}
+
+	/** Delay before sending response: millis plus random value from 0 to jitterMillis **/
+	public LoadTestServer latency(long millis, long jitterMillis) {
+		this.latencyMillis = millis;
+		this.latencyJitterMillis = jitterMillis;
+		return this;
+	}
+
+	/** Size of response body. Body is ascii text split in lines **/
+	public LoadTestServer bodySize(int size) {
+		byte[] body = new byte[size];
+		Arrays.fill(body, (byte) 'a');
+		for (int i = 63; i < size; i += 64) {
+			body[i] = '\n';
+		}
+		this.body = body;
+		this.gzippedBody = null;
+		return this;
+	}
+
+	/** Whether body is sent with Transfer-Encoding: chunked instead of Content-Length **/
+	public LoadTestServer chunked(boolean chunked) {
+		this.chunked = chunked;
+		return this;
+	}
+
+	/** Whether body is compressed with gzip. Applied only if client accepts gzip **/
+	public LoadTestServer gzip(boolean gzip) {
+		this.gzip = gzip;
+		return this;
+	}
+
+	/** Number of Set-Cookie headers in every response **/
+	public LoadTestServer cookies(int cookies) {
+		this.cookies = cookies;
+		return this;
+	}
+
+	/** Part of responses, from 0 to 1, replaced by error status **/
+	public LoadTestServer errorRate(double errorRate) {
+		this.errorRate = errorRate;
+		return this;
+	}
+
+	/** Status of injected errors. 503 by default **/
+	public LoadTestServer errorStatus(int errorStatus) {
+		this.errorStatus = errorStatus;
+		return this;
+	}
+
+	/** Part of requests, from 0 to 1, for which connection is closed without response **/
+	public LoadTestServer dropRate(double dropRate) {
+		this.dropRate = dropRate;
+		return this;
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		requests.incrementAndGet();
+		try (InputStream is = exchange.getRequestBody()) {
+			byte[] buffer = new byte[8192];
+			while (is.read(buffer) != -1) { }
+		}
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		long delay = latencyMillis + (latencyJitterMillis > 0 ? random.nextLong(latencyJitterMillis + 1) : 0);
+		if (delay > 0) {
+			try {
+				TimeUnit.MILLISECONDS.sleep(delay);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		if (dropRate > 0 && random.nextDouble() < dropRate) {
+			exchange.close();
+			return;
+		}
+
+		int status = errorRate > 0 && random.nextDouble() < errorRate ? errorStatus : 200;
+		byte[] body = this.body;
+		String acceptEncoding = exchange.getRequestHeaders().getFirst(Header.AcceptEncoding.key);
+		if (gzip && acceptEncoding != null && acceptEncoding.contains("gzip")) {
+			body = gzippedBody();
+			exchange.getResponseHeaders().add(Header.ContentEncoding.key, "gzip");
+		}
+		exchange.getResponseHeaders().add(Header.ContentType.key, "text/plain; charset=UTF-8");
+		for (int i = 0; i < cookies; i++) {
+			exchange.getResponseHeaders().add(Header.SetCookie.key, "cookie" + i + "=value" + random.nextInt() + "; Path=/; Max-Age=3600; HttpOnly");
+		}
+		exchange.sendResponseHeaders(status, chunked ? 0 : (body.length == 0 ? -1 : body.length));
+		try (OutputStream os = exchange.getResponseBody()) {
+			if (chunked) {
+				for (int offset = 0; offset < body.length; offset += 4096) {
+					os.write(body, offset, Math.min(4096, body.length - offset));
+					os.flush();
+				}
+			} else {
+				os.write(body);
+			}
+		}
+	}
+
+	private byte[] gzippedBody() throws IOException {
+		byte[] gzipped = this.gzippedBody;
+		if (gzipped == null) {
+			ByteArrayOutputStream bos = new ByteArrayOutputStream();
+			try (GZIPOutputStream gos = new GZIPOutputStream(bos)) {
+				gos.write(body);
+			}
+			gzipped = bos.toByteArray();
+			this.gzippedBody = gzipped;
+		}
+		return gzipped;
+	}
+
+	@Override
+	public void close() {
+		server.stop(0);
+		executor.shutdownNow();
+	}
+}
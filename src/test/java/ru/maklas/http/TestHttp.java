@@ -2,18 +2,63 @@ package ru.maklas.http;
 
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import com.sun.net.httpserver.HttpsConfigurator;
+import com.sun.net.httpserver.HttpsServer;
 import org.jetbrains.annotations.NotNull;
 import org.junit.Before;
 import org.junit.Test;
+import ru.maklas.http.dns.CachingDnsResolver;
+import ru.maklas.http.dns.InMemoryDnsResolver;
+import ru.maklas.http.log.ExchangeLogger;
+import ru.maklas.http.metrics.HistogramSnapshot;
+import ru.maklas.http.metrics.HostSnapshot;
+import ru.maklas.http.metrics.HttpMetrics;
+import ru.maklas.http.metrics.LatencyHistogram;
 import ru.maklas.http.receivers.FileResponseReceiver;
 import ru.maklas.http.receivers.StreamResponseReceiver;
 import ru.maklas.http.receivers.StringResponseReceiver;
 import ru.maklas.http.receivers.TrackedStreamResponseReceiver;
 
 import javax.imageio.ImageIO;
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManagerFactory;
 import java.awt.image.BufferedImage;
 import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.ProxySelector;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.URI;
 import java.net.URL;
+import java.net.URLEncoder;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.Assert.*;
 
@@ -273,6 +318,962 @@ public class TestHttp {
 		assertEquals("{\"data\":[100, \"abc\", false], \"key\":\"Value\"}", cs.getCookie("json"));
 	}
 
+	@Test
+	public void testPublicSuffix() throws Exception {
+		PublicSuffixList psl = PublicSuffixList.getDefault();
+		assertTrue(psl.isPublicSuffix("co.uk"));
+		assertTrue(psl.isPublicSuffix("github.io"));
+		assertFalse(psl.isPublicSuffix("example.co.uk"));
+		assertEquals("example.co.uk", psl.getRegistrableDomain("www.example.co.uk"));
+		assertEquals("user.github.io", psl.getRegistrableDomain("user.github.io"));
+		assertEquals("city.kawasaki.jp", psl.getRegistrableDomain("www.city.kawasaki.jp"));
+		assertNull(psl.getRegistrableDomain("foo.kawasaki.jp"));
+		assertNull(psl.getRegistrableDomain("127.0.0.1"));
+
+		URL url = new URL("https://www.example.co.uk/path");
+		assertEquals("example.co.uk", Cookie.fromSetCookieValue(url, "key=val; Domain=.co.uk").getDomain());
+		assertEquals("example.co.uk", Cookie.fromSetCookieValue(url, "key=val; Domain=other.co.uk").getDomain());
+		assertEquals("user.github.io", Cookie.fromSetCookieValue(new URL("https://user.github.io"), "key=val; Domain=github.io").getDomain());
+		assertEquals("www.co.uk", Cookie.fromSetCookieValue(new URL("http://www.co.uk"), "key=val").getDomain());
+
+		CookieStore cs = new CookieStore();
+		cs.setCookie(new Cookie("a", "1", "example.co.uk"));
+		cs.setCookie(new Cookie("b", "2", "other.co.uk"));
+		cs.setCookie(new Cookie("c", "3"));
+		assertEquals(2, cs.getCookiesFor("www.example.co.uk").size);
+		assertEquals(1, cs.getCookiesFor("unrelated.com").size);
+
+		cs.getCookieFull("b").setDomain("unrelated.com");
+		assertEquals(2, cs.getCookiesFor("unrelated.com").size);
+		ConnectionBuilder builder = ConnectionBuilder.get("https://www.example.co.uk/").assignCookieStore(cs).addCookie("c", "4");
+		assertEquals("a=1; c=4", builder.buildCookieHeader(url).value);
+
+		CookieStore other = new CookieStore();
+		Cookie shared = cs.getCookieFull("a");
+		other.addCookie(shared);
+		shared.setDomain("unrelated.com");
+		assertEquals(3, cs.getCookiesFor("unrelated.com").size);
+		assertEquals(1, other.getCookiesFor("unrelated.com").size);
+		cs.remove("a");
+		shared.setDomain("example.co.uk");
+		assertEquals(2, cs.getCookiesFor("unrelated.com").size);
+		assertEquals(1, other.getCookiesFor("example.co.uk").size);
+		assertNull(PublicSuffixList.getDefaultLoadError());
+	}
+
+	@Test
+	public void testHeaderList() {
+		HeaderList headers = new HeaderList()
+				.add(new Header("Set-Cookie", "a=1"))
+				.add(Header.ContentType.textPlain)
+				.add(new Header("set-cookie", "b=2"));
+		assertEquals("a=1", headers.getHeaderValue("SET-COOKIE"));
+		assertNull(headers.getHeader("SET-COOKIE", true));
+		assertEquals("b=2", headers.getHeaderValue("set-cookie", true));
+		assertEquals(2, headers.getHeaders(Header.SetCookie.key, false).size);
+
+		headers.addUnique(new Header("content-type", "application/json"));
+		assertEquals(3, headers.size());
+		assertEquals("application/json", headers.getHeaderValue(Header.ContentType.key));
+
+		headers.remove("SET-cookie");
+		assertEquals("b=2", headers.getHeaderValue(Header.SetCookie.key));
+		assertEquals("content-type", headers.iterator().next().key);
+
+		assertSame(Header.ContentType.key, new Header(new StringBuilder("Content-").append("Type").toString(), "text/plain").key);
+		assertEquals("content-type: application/json\nset-cookie: b=2\n", headers.toString());
+
+		for (int i = 0; i < 20; i++) {
+			headers.add(new Header("X-" + i, String.valueOf(i)));
+		}
+		for (int i = 0; i < 19; i++) {
+			headers.remove("x-" + i);
+		}
+		headers.addUnique(new Header("X-19", "last"));
+		assertEquals(3, headers.size());
+		assertEquals("last", headers.getHeaderValue("x-19"));
+		assertEquals("content-type: application/json\nset-cookie: b=2\nX-19: last\n", headers.toString());
+	}
+
+	@Test
+	public void testRequestTemplate() throws Exception {
+		RequestTemplate template = ConnectionBuilder.get("https://api.example.com/users/{id}/posts?v=2")
+				.h(Header.Accept.appJson)
+				.toTemplate();
+		Request request = template.call()
+				.param("id", "a b")
+				.query(new UrlEncoder().add("page", 3))
+				.h(Header.AcceptLanguage.ru)
+				.build();
+		assertEquals(new URL("https://api.example.com/users/a%20b/posts?v=2&page=3"), request.getRequestUrl());
+		assertEquals("application/json", request.getRequestHeaders().getHeaderValue(Header.Accept.key));
+		assertEquals("ru", request.getRequestHeaders().getHeaderValue(Header.AcceptLanguage.key));
+		assertEquals(new URL("https://api.example.com/users/1/posts?v=2"), template.call().param("id", 1).buildUrl());
+
+		CookieStore store = new CookieStore();
+		store.setCookie(new Cookie("session", "1", "example.com"));
+		for (int i = 0; i < 50; i++) {
+			store.setCookie(new Cookie("other" + i, "1", "other" + i + ".com"));
+		}
+		RequestTemplate shared = ConnectionBuilder.get("https://api.example.com/").assignCookieStore(store).addCookie("lang", "en").toTemplate();
+		URL url = new URL("https://api.example.com/");
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<?>> futures = new ArrayList<>();
+			futures.add(executor.submit(() -> {
+				for (int i = 0; i < 20_000; i++) {
+					store.getCookieFull("other" + (i % 50)).setDomain("other" + i + ".com");
+				}
+			}));
+			for (int t = 0; t < 3; t++) {
+				futures.add(executor.submit(() -> {
+					for (int i = 0; i < 20_000; i++) {
+						assertEquals("session=1; lang=en", shared.call().toBuilder().buildCookieHeader(url).value);
+					}
+					return null;
+				}));
+			}
+			for (Future<?> future : futures) {
+				future.get(10, TimeUnit.SECONDS);
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testUrlBuilder() throws Exception {
+		assertEquals("http://api.example.com/v1/users/John%20Doe?page=2", UrlBuilder.of("api.example.com/v1")
+				.path("users")
+				.path("John Doe")
+				.query(new UrlEncoder().add("page", 2))
+				.build().toString());
+		assertSame(UrlBuilder.parse("https://example.com:8443/a"), UrlBuilder.parse("https://example.com:8443/a"));
+		assertEquals(new URL("https://example.com:8443/a?b=c"), UrlBuilder.parse("https://example.com:8443/a?b=c"));
+		assertEquals(new URL("https://example.com:8443/a?b=d#top"), UrlBuilder.parse("https://example.com:8443/a?b=d#top"));
+		assertEquals(new URL("http://example.com?b=c"), UrlBuilder.parse("example.com?b=c"));
+		assertEquals(new URL("http://user@example.com/"), UrlBuilder.parse("http://user@example.com/"));
+
+		Request request = ConnectionBuilder.get("example.com/search/", null, new UrlEncoder().add("q", "a b")).build();
+		assertEquals("http://example.com/search?q=a+b", request.getRequestUrl().toString());
+		request = ConnectionBuilder.get("example.com/search?lang=en", null, new UrlEncoder().add("q", "a")).build();
+		assertEquals("http://example.com/search?lang=en&q=a", request.getRequestUrl().toString());
+	}
+
+	@Test
+	public void testUrlEncoder() throws Exception {
+		String[] samples = {"", "abcXYZ019", "a b+c&d=e", "*-._!~'()", "Привет, мир", "\uD83D\uDE00 emoji", "lone \uD800 \uDC00 surrogates", "%/?#[]@"};
+		for (String s : samples) {
+			String expected = URLEncoder.encode(s, "UTF-8");
+			assertEquals(expected, UrlEncoder.encodeJavaUrl(s));
+			String jsPlus = expected.replace("%21", "!").replace("%7E", "~").replace("%27", "'").replace("%28", "(").replace("%29", ")");
+			assertEquals(jsPlus, UrlEncoder.encodeURIComponentPlus(s));
+			assertEquals(jsPlus.replace("+", "%20"), UrlEncoder.encodeURIComponent(s));
+		}
+		UrlEncoder encoder = new UrlEncoder().add("name", "Иван Петров").add("tags", "a,b").usingJsEncoding();
+		assertEquals("name=%D0%98%D0%B2%D0%B0%D0%BD%20%D0%9F%D0%B5%D1%82%D1%80%D0%BE%D0%B2&tags=a%2Cb", encoder.encode());
+		assertArrayEquals(encoder.encode().getBytes(HttpUtils.utf_8), encoder.encode(HttpUtils.utf_8));
+	}
+
+	@Test
+	public void testFormBody() throws Exception {
+		UrlEncoder encoder = new UrlEncoder();
+		for (int i = 0; i < 20_000; i++) {
+			encoder.add("field" + i, "значение " + i + " \uD83D\uDE00");
+		}
+		for (UrlEncoder e : new UrlEncoder[]{encoder, new UrlEncoder().add("a", "b c").usingJsEncoding(), new UrlEncoder()}) {
+			byte[] expected = e.encode(HttpUtils.utf_8);
+			ByteArrayOutputStream bos = new ByteArrayOutputStream();
+			e.encodeTo(bos);
+			assertArrayEquals(expected, bos.toByteArray());
+			assertEquals(expected.length, e.encodedLength());
+		}
+
+		Request request = ConnectionBuilder.post("http://example.com/form").writeUrlEncoded(new UrlEncoder().add("a", "b c")).build();
+		assertTrue(request.getBody() instanceof FormBody);
+		assertNull(request.getOutput());
+		assertEquals("a=b+c", request.getOutputAsString());
+		assertEquals(Header.ContentType.form_urlencoded.value, request.getRequestHeaders().getHeaderValue(Header.ContentType.key));
+	}
+
+	@Test
+	public void testMultipartLength() throws Exception {
+		String boundary = HttpUtils.generateMultipartBoundary();
+		byte[] file = new byte[10_000];
+		MultipartWriter writer = new MultipartWriter()
+				.add("name", "Иван")
+				.add("file", new ByteArrayInputStream(file), "файл.bin", "application/octet-stream", file.length);
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		writer.encode(bos, boundary);
+		assertEquals(bos.size(), writer.contentLength(boundary));
+
+		assertEquals(-1, new MultipartWriter().add("file", new ByteArrayInputStream(file)).contentLength(boundary));
+
+		for (boolean keep : new boolean[]{true, false}) {
+			MultipartWriter once = new MultipartWriter().add("file", new FilterInputStream(new ByteArrayInputStream(file)) {
+				@Override
+				public boolean markSupported() {
+					return false;
+				}
+			});
+			once.keepForReplay(keep);
+			once.encode(new ByteArrayOutputStream(), boundary);
+			assertEquals(keep, once.isReplayable());
+			try {
+				once.encode(new ByteArrayOutputStream(), boundary);
+				assertTrue(keep);
+			} catch (IOException e) {
+				assertFalse(keep);
+			}
+			once.release();
+		}
+
+		Path path = Files.createTempFile("multipart", ".bin");
+		try {
+			Files.write(path, file);
+			MultipartWriter fileWriter = new MultipartWriter()
+					.add("file", path, "application/octet-stream")
+					.add("bytes", new byte[]{1, 2, 3}, "bytes.bin", null)
+					.add("buffer", ByteBuffer.allocateDirect(100), null, null);
+			ByteArrayOutputStream streamed = new ByteArrayOutputStream();
+			fileWriter.encode(streamed, boundary);
+			ByteArrayOutputStream transferred = new ByteArrayOutputStream();
+			fileWriter.encode(Channels.newChannel(transferred), boundary);
+			assertArrayEquals(streamed.toByteArray(), transferred.toByteArray());
+			assertEquals(streamed.size(), fileWriter.contentLength(boundary));
+
+			Files.write(path, new byte[100_000]);
+			WritableByteChannel truncating = new WritableByteChannel() {
+				long written;
+
+				@Override
+				public int write(ByteBuffer src) throws IOException {
+					if (written > 1000) {
+						try (FileChannel fc = FileChannel.open(path, StandardOpenOption.WRITE)) {
+							fc.truncate(10);
+						}
+					}
+					int remaining = src.remaining();
+					written += remaining;
+					src.position(src.limit());
+					return remaining;
+				}
+
+				@Override
+				public boolean isOpen() {
+					return true;
+				}
+
+				@Override
+				public void close() {
+				}
+			};
+			try {
+				new MultipartWriter().add("file", path, "application/octet-stream").encode(truncating, boundary);
+				fail();
+			} catch (IOException expected) {
+				assertTrue(expected.getMessage().contains("truncated"));
+			}
+		} finally {
+			Files.delete(path);
+		}
+	}
+
+	@Test
+	public void testStreamedRedirect() throws Exception {
+		HttpServer server = startServer(false, exchange -> {
+			byte[] received = readFully(exchange.getRequestBody());
+			String path = exchange.getRequestURI().getPath();
+			if (path.equals("/old")) {
+				exchange.getResponseHeaders().add("Location", "/new");
+				exchange.sendResponseHeaders(307, -1);
+			} else if (path.equals("/see-other") || path.equals("/moved")) {
+				exchange.getResponseHeaders().add("Location", "/done");
+				exchange.sendResponseHeaders(path.equals("/moved") ? 302 : 303, -1);
+			} else if (path.equals("/done")) {
+				byte[] summary = (exchange.getRequestMethod() + ":" + received.length + ":" + exchange.getRequestHeaders().containsKey("Content-Type")).getBytes(HttpUtils.ascii);
+				exchange.sendResponseHeaders(200, summary.length);
+				exchange.getResponseBody().write(summary);
+			} else {
+				byte[] summary = (received.length + ":" + Arrays.hashCode(received)).getBytes(HttpUtils.ascii);
+				exchange.sendResponseHeaders(200, summary.length);
+				exchange.getResponseBody().write(summary);
+			}
+			exchange.close();
+		});
+		Http.setStreamingThreshold(0);
+		try {
+			byte[] data = new byte[100_000];
+			new Random(1).nextBytes(data);
+			InputStream once = new FilterInputStream(new ByteArrayInputStream(data)) {
+				@Override
+				public boolean markSupported() {
+					return false;
+				}
+			};
+			String boundary = HttpUtils.generateMultipartBoundary();
+			MultipartWriter writer = new MultipartWriter().add("file", once, "data.bin", "application/octet-stream");
+			FullResponse response = ConnectionBuilder.post(url(server) + "/old")
+					.writeMultipartFormData(boundary, writer)
+					.send();
+			assertEquals(200, response.getResponseCode());
+			assertTrue(response.getResponseUrl().toString().endsWith("/new"));
+			Timings timings = response.getTimings();
+			assertEquals(-1, timings.getDnsNanos());
+			assertEquals(-1, timings.getTlsNanos());
+			assertTrue(timings.getConnectNanos() >= 0);
+			assertTrue(timings.getWriteNanos() > 0);
+			assertTrue(timings.getTtfbNanos() > 0);
+			assertTrue(timings.getDownloadNanos() > 0);
+
+			ByteArrayOutputStream expected = new ByteArrayOutputStream();
+			new MultipartWriter().add("file", new ByteArrayInputStream(data), "data.bin", "application/octet-stream").encode(expected, boundary);
+			assertEquals(expected.size() + ":" + Arrays.hashCode(expected.toByteArray()), response.getBodyAsIs());
+
+			SpillBuffer spill = SpillBuffer.of(new ByteArrayInputStream(data), 1000);
+			assertFalse(spill.isInMemory());
+			ByteArrayOutputStream replayed = new ByteArrayOutputStream();
+			spill.writeTo(replayed);
+			spill.writeTo(replayed);
+			spill.close();
+			assertEquals(data.length * 2, replayed.size());
+
+			Http.setStreamingThreshold(1024 * 1024);
+			InputStream part = new FilterInputStream(new ByteArrayInputStream(data)) {
+				@Override
+				public boolean markSupported() {
+					return false;
+				}
+			};
+			response = ConnectionBuilder.post(url(server) + "/see-other")
+					.writeMultipartFormData(null, new MultipartWriter().add("file", part, "data.bin", "application/octet-stream"))
+					.send();
+			assertEquals(200, response.getResponseCode());
+			assertEquals("GET:0:false", response.getBodyAsIs());
+
+			File file = File.createTempFile("redirect", ".bin");
+			try {
+				Files.write(file.toPath(), new byte[2 * 1024 * 1024]);
+				response = ConnectionBuilder.post(url(server) + "/moved")
+						.write(Header.ContentType.octetStream, new FileBody(file.toPath()))
+						.send();
+				assertEquals(200, response.getResponseCode());
+				assertEquals("GET:0:false", response.getBodyAsIs());
+				assertEquals(Http.GET, response.getRequest().getMethod());
+			} finally {
+				file.delete();
+			}
+		} finally {
+			Http.setStreamingThreshold(1024 * 1024);
+			server.stop(0);
+		}
+	}
+
+	@Test
+	public void testMetrics() throws Exception {
+		HttpServer server = startServer(false, exchange -> {
+			readFully(exchange.getRequestBody());
+			byte[] body = "ok".getBytes(HttpUtils.ascii);
+			exchange.sendResponseHeaders(exchange.getRequestURI().getPath().equals("/missing") ? 404 : 200, body.length);
+			exchange.getResponseBody().write(body);
+			exchange.close();
+		});
+		try {
+			HttpMetrics metrics = new HttpMetrics();
+			String base = url(server);
+			for (int i = 0; i < 3; i++) {
+				ConnectionBuilder.post(base + "/ok").write("body").build().send(metrics);
+			}
+			ConnectionBuilder.get(base + "/missing").build().send(metrics);
+
+			HostSnapshot host = metrics.snapshot().getHost("127.0.0.1");
+			assertEquals(4, host.getRequests());
+			assertEquals(3, host.getResponses(2));
+			assertEquals(1, host.getResponses(4));
+			assertEquals(12, host.getBytesOut());
+			assertEquals(8, host.getBytesIn());
+			assertEquals(4, host.getLatency().getCount());
+			assertEquals(4, metrics.snapshot().getTotal().getRequests());
+		} finally {
+			server.stop(0);
+		}
+
+		LatencyHistogram histogram = new LatencyHistogram();
+		for (int i = 1; i <= 1000; i++) {
+			histogram.record(i * 1_000_000L);
+		}
+		HistogramSnapshot snapshot = histogram.snapshot();
+		assertEquals(1000, snapshot.getCount());
+		assertEquals(500_000_000L, snapshot.getPercentile(50), 500_000_000L * 0.04);
+		assertEquals(990_000_000L, snapshot.getPercentile(99), 990_000_000L * 0.04);
+		assertEquals(1_000_000_000L, snapshot.getMax());
+	}
+
+	@Test
+	public void testExchangeLogger() throws Exception {
+		HttpServer server = startServer(false, exchange -> {
+			readFully(exchange.getRequestBody());
+			byte[] body = "0123456789\"\n".getBytes(HttpUtils.ascii);
+			exchange.getResponseHeaders().add("Set-Cookie", "session=secret");
+			exchange.sendResponseHeaders(200, body.length);
+			exchange.getResponseBody().write(body);
+			exchange.close();
+		});
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		ExchangeLogger logger = new ExchangeLogger(bos).setMaxBodyBytes(11);
+		try {
+			String base = url(server);
+			ConnectionBuilder.post(base + "/ok").header("Authorization", "Bearer token").write("body").build().send(logger);
+			long wakeDeadline = System.currentTimeMillis() + 5000;
+			while (logger.getWritten() == 0 && System.currentTimeMillis() < wakeDeadline) Thread.sleep(1); //Sleeping logger thread is woken up by the record
+			assertEquals(1, logger.getWritten());
+			try {
+				ConnectionBuilder.get("http://127.0.0.1:1/refused").build().send(logger);
+				fail();
+			} catch (ConnectionException expected) { }
+		} finally {
+			server.stop(0);
+			logger.close();
+		}
+		String[] lines = new String(bos.toByteArray(), HttpUtils.utf_8).split("\n");
+		assertEquals(2, lines.length);
+		assertEquals(2, logger.getWritten());
+		assertTrue(lines[0], lines[0].contains("\"method\":\"POST\"") && lines[0].contains("\"status\":200"));
+		assertTrue(lines[0], lines[0].contains("\"Authorization: ***\"") && lines[0].toLowerCase().contains("\"set-cookie: ***\""));
+		assertTrue(lines[0], lines[0].contains("\"reqBody\":\"body\"") && lines[0].contains("\"respBody\":\"0123456789\\\"\",\"respBodyTruncated\":12"));
+		assertFalse(lines[0].contains("secret") || lines[0].contains("token"));
+		assertTrue(lines[1], lines[1].contains("\"error\":\"CONNECTION_ERROR\""));
+	}
+
+	@Test
+	public void testLoadServer() throws Exception {
+		try (LoadTestServer server = new LoadTestServer(8)) {
+			server.bodySize(10_000).gzip(true).chunked(true).cookies(20);
+			String url = server.url("/load");
+			FullResponse response = ConnectionBuilder.get(url).h(Header.AcceptEncoding.gzip).send();
+			assertEquals(200, response.getResponseCode());
+			assertEquals(10_000, response.getResponseBytes().length);
+			assertEquals("gzip", response.getHeaders().getHeaderValue(Header.ContentEncoding.key));
+			assertEquals(20, response.getHeaders().getHeaders(Header.SetCookie.key, false).size);
+
+			server.errorRate(0.5).dropRate(0.1).latency(1, 2);
+			RequestBody chunked = new RequestBody() { //HttpUrlConnection silently retries dropped requests unless they are streamed
+				@Override
+				public long contentLength() {
+					return -1;
+				}
+
+				@Override
+				public void writeTo(OutputStream os) throws IOException {
+					os.write('x');
+				}
+			};
+			LoadDriver.Report report = new LoadDriver(4).warmup(100).duration(500)
+					.run(() -> ConnectionBuilder.post(url).h(Header.AcceptEncoding.gzip).write(chunked).send());
+			System.out.println(report);
+			assertTrue(report.getCount() > 0);
+			assertTrue(report.getOutcome(200) > 0);
+			assertTrue(report.getOutcome(503) > 0);
+			assertTrue(report.getCount() > report.getOutcome(200) + report.getOutcome(503));
+			assertTrue(report.getLatency().getPercentile(50) >= TimeUnit.MILLISECONDS.toNanos(1));
+		}
+	}
+
+	@Test
+	public void testRetry() throws Exception {
+		AtomicInteger counter = new AtomicInteger();
+		HttpServer server = startServer(false, exchange -> {
+			readFully(exchange.getRequestBody());
+			boolean fail = counter.incrementAndGet() % 3 != 0;
+			byte[] body = (fail ? "busy" : "ok").getBytes(HttpUtils.ascii);
+			if (fail) exchange.getResponseHeaders().add("Retry-After", "0");
+			exchange.sendResponseHeaders(fail ? 503 : 200, body.length);
+			exchange.getResponseBody().write(body);
+			exchange.close();
+		});
+		try {
+			String url = url(server) + "/";
+			RetryPolicy policy = new RetryPolicy().maxAttempts(3).backoff(1, 5).budget(RetryBudget.unlimited());
+
+			Request request = ConnectionBuilder.get(url).retry(policy).build();
+			FullResponse response = request.send();
+			assertEquals(200, response.getResponseCode());
+			assertEquals("ok", response.getBodyAsIs());
+			assertEquals(3, request.getAttempts());
+
+			counter.set(0);
+			request = ConnectionBuilder.post(url).write("data").retry(policy).build();
+			assertEquals(503, request.send().getResponseCode());
+			assertEquals(1, request.getAttempts());
+
+			counter.set(0);
+			request = ConnectionBuilder.post(url).header(RetryPolicy.IDEMPOTENCY_KEY, "1").write("data").retry(policy).build();
+			assertEquals(200, request.send().getResponseCode());
+			assertEquals(3, request.getAttempts());
+			assertEquals(12, request.getBytesSent());
+
+			counter.set(0);
+			request = ConnectionBuilder.get(url).retry(new RetryPolicy().maxAttempts(3).budget(new RetryBudget(0, 1))).build();
+			assertEquals(503, request.send().getResponseCode());
+			assertEquals(2, request.getAttempts());
+		} finally {
+			server.stop(0);
+		}
+
+		Request request = ConnectionBuilder.post("http://127.0.0.1:1/refused").write("data").retry(new RetryPolicy().backoff(1, 5)).build();
+		try {
+			request.send();
+			fail();
+		} catch (ConnectionException e) {
+			assertEquals(3, request.getAttempts());
+		}
+
+		RetryPolicy policy = new RetryPolicy().backoff(100, 1000).maxRetryAfter(5000);
+		for (long delay = 0, i = 0; i < 20; i++) {
+			delay = policy.nextDelay(delay);
+			assertTrue(delay >= 100 && delay <= 1000);
+		}
+		assertEquals(3000, policy.retryAfter("3"));
+		assertEquals(Long.MAX_VALUE, policy.retryAfter("10"));
+		assertEquals(-1, policy.retryAfter("soon"));
+		assertEquals(0, policy.retryAfter("Wed, 21 Oct 2015 07:28:00 GMT"));
+	}
+
+	@Test
+	public void testCancelAndHedge() throws Exception {
+		AtomicInteger counter = new AtomicInteger();
+		HttpServer server = startServer(true, exchange -> {
+			readFully(exchange.getRequestBody());
+			boolean slow = exchange.getRequestURI().getPath().equals("/slow") || counter.incrementAndGet() == 1;
+			try {
+				if (slow) Thread.sleep(2000);
+			} catch (InterruptedException ignored) { }
+			byte[] body = (slow ? "slow" : "fast").getBytes(HttpUtils.ascii);
+			exchange.sendResponseHeaders(200, body.length);
+			exchange.getResponseBody().write(body);
+			exchange.close();
+		});
+		try {
+			String base = url(server);
+			Request request = ConnectionBuilder.get(base + "/slow").build();
+			new Thread(() -> {
+				try {
+					Thread.sleep(100);
+				} catch (InterruptedException ignored) { }
+				request.cancel();
+			}).start();
+			long start = System.nanoTime();
+			try {
+				request.send();
+				fail();
+			} catch (ConnectionException e) {
+				assertEquals(ConnectionException.Type.CANCELLED, e.getType());
+				assertTrue(request.isCancelled());
+				assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(1500));
+			}
+
+			Hedger hedger = new Hedger().initialDelay(50).budget(RetryBudget.unlimited());
+			start = System.nanoTime();
+			FullResponse response = hedger.send(ConnectionBuilder.get(base + "/hedged"));
+			assertEquals("fast", response.getBodyAsIs());
+			assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(1500));
+			assertEquals(1, hedger.getHedged());
+			assertEquals(1, hedger.getHedgeWins());
+			assertEquals(50, hedger.getDelay("127.0.0.1"));
+
+			response = hedger.send(ConnectionBuilder.get(base + "/hedged"));
+			assertEquals("fast", response.getBodyAsIs());
+			assertEquals(1, hedger.getHedged());
+
+			RequestBody once = new RequestBody() {
+				@Override
+				public long contentLength() {
+					return 1;
+				}
+
+				@Override
+				public void writeTo(OutputStream os) throws IOException {
+					os.write('x');
+				}
+
+				@Override
+				public boolean isReplayable() {
+					return false;
+				}
+			};
+			counter.set(0);
+			response = hedger.send(ConnectionBuilder.post(base + "/hedged").header(RetryPolicy.IDEMPOTENCY_KEY, "1").write(once)); //Copy would share the body
+			assertEquals("slow", response.getBodyAsIs());
+			assertEquals(1, hedger.getHedged());
+		} finally {
+			server.stop(0);
+		}
+	}
+
+	@Test
+	public void testCircuitBreaker() throws Exception {
+		try (LoadTestServer server = new LoadTestServer(2)) {
+			server.errorRate(1).errorStatus(503);
+			CircuitBreakers breakers = new CircuitBreakers(name -> new CircuitBreaker(name).minimumCalls(4).windowSize(10).openDuration(200).halfOpenCalls(1));
+			String url = server.url("/breaker");
+			for (int i = 0; i < 4; i++) {
+				assertEquals(503, ConnectionBuilder.get(url).circuitBreakers(breakers).send().getResponseCode());
+			}
+			CircuitBreaker breaker = breakers.get("127.0.0.1");
+			assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+			try {
+				ConnectionBuilder.get(url).circuitBreakers(breakers).send();
+				fail();
+			} catch (ConnectionException e) {
+				assertEquals(ConnectionException.Type.CIRCUIT_OPEN, e.getType());
+			}
+			assertEquals(4, server.getRequests());
+
+			Thread.sleep(250);
+			assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+			RequestBody broken = new RequestBody() {
+				@Override
+				public long contentLength() {
+					return 1;
+				}
+
+				@Override
+				public void writeTo(OutputStream os) {
+					throw new IllegalStateException();
+				}
+			};
+			try {
+				ConnectionBuilder.post(url).write(broken).circuitBreakers(breakers).send();
+				fail();
+			} catch (IllegalStateException expected) { } //Permit of the only half-open call is released
+			server.errorRate(0);
+			assertEquals(200, ConnectionBuilder.get(url).circuitBreakers(breakers).send().getResponseCode());
+			assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+			assertEquals(0, breaker.getFailureRate(), 0);
+		}
+	}
+
+	@Test
+	public void testRateLimiter() throws Exception {
+		AtomicInteger status = new AtomicInteger(200);
+		HttpServer server = startServer(false, exchange -> {
+			readFully(exchange.getRequestBody());
+			if (status.get() == 429) exchange.getResponseHeaders().add("Retry-After", "1");
+			exchange.sendResponseHeaders(status.get(), -1);
+			exchange.close();
+		});
+		try {
+			String url = url(server) + "/";
+			RateLimiters limiters = new RateLimiters(key -> new RateLimiter(20, 1));
+			long start = System.nanoTime();
+			for (int i = 0; i < 5; i++) {
+				assertEquals(200, ConnectionBuilder.get(url).rateLimiters(limiters).send().getResponseCode());
+			}
+			assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(190));
+
+			RateLimiters failFast = new RateLimiters().global(new RateLimiter(1, 1)).mode(RateLimiters.Mode.FAIL_FAST);
+			assertEquals(200, ConnectionBuilder.get(url).rateLimiters(failFast).send().getResponseCode());
+			try {
+				ConnectionBuilder.get(url).rateLimiters(failFast).send();
+				fail();
+			} catch (ConnectionException e) {
+				assertEquals(ConnectionException.Type.RATE_LIMITED, e.getType());
+			}
+
+			RateLimiters slow = new RateLimiters(key -> new RateLimiter(2, 1));
+			assertEquals(200, ConnectionBuilder.get(url).rateLimiters(slow).send().getResponseCode());
+			Request waiting = ConnectionBuilder.get(url).rateLimiters(slow).build();
+			new Thread(() -> {
+				try {
+					Thread.sleep(100);
+				} catch (InterruptedException ignored) { }
+				waiting.cancel();
+			}).start();
+			try {
+				waiting.send();
+				fail();
+			} catch (ConnectionException e) {
+				assertEquals(ConnectionException.Type.CANCELLED, e.getType());
+			}
+			Thread.sleep(450);
+			assertTrue(slow.get("127.0.0.1").tryAcquire()); //Permit of cancelled request is given back
+
+			status.set(429);
+			RateLimiters adaptive = new RateLimiters(100).mode(RateLimiters.Mode.FAIL_FAST);
+			assertEquals(429, ConnectionBuilder.get(url).rateLimiters(adaptive).send().getResponseCode());
+			RateLimiter limiter = adaptive.get("127.0.0.1");
+			assertEquals(50, limiter.getCurrentRate(), 0.001);
+			assertFalse(limiter.tryAcquire());
+		} finally {
+			server.stop(0);
+		}
+	}
+
+	@Test
+	public void testConcurrencyLimiter() throws Exception {
+		try (LoadTestServer server = new LoadTestServer(8)) {
+			server.latency(100);
+			String url = server.url("/limited");
+			ExecutorService executor = Executors.newFixedThreadPool(4);
+			try {
+				ConcurrencyLimiters rejecting = new ConcurrencyLimiters(name -> new ConcurrencyLimiter(name).limits(2, 1, 2).maxQueue(0));
+				List<Future<ConnectionException.Type>> results = new ArrayList<>();
+				for (int i = 0; i < 4; i++) {
+					results.add(executor.submit(() -> {
+						try {
+							ConnectionBuilder.get(url).concurrencyLimiters(rejecting).send();
+							return null;
+						} catch (ConnectionException e) {
+							return e.getType();
+						}
+					}));
+				}
+				int rejected = 0;
+				for (Future<ConnectionException.Type> result : results) {
+					if (result.get() == ConnectionException.Type.CONCURRENCY_LIMITED) rejected++;
+				}
+				assertTrue(rejected >= 1 && rejected <= 2);
+				assertEquals(0, rejecting.get("127.0.0.1").getInFlight());
+
+				ConcurrencyLimiters queueing = new ConcurrencyLimiters(name -> new ConcurrencyLimiter(name).limits(1, 1, 1));
+				results.clear();
+				for (int i = 0; i < 3; i++) {
+					results.add(executor.submit(() -> {
+						ConnectionBuilder.get(url).concurrencyLimiters(queueing).send();
+						return null;
+					}));
+				}
+				long start = System.nanoTime();
+				for (Future<ConnectionException.Type> result : results) {
+					assertNull(result.get());
+				}
+				assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(250));
+			} finally {
+				executor.shutdown();
+			}
+
+			server.latency(0).errorRate(1).errorStatus(503);
+			ConcurrencyLimiter aimd = new ConcurrencyLimiter("aimd").algorithm(ConcurrencyLimiter.Algorithm.AIMD).limits(10, 1, 10).backoffRatio(0.5);
+			ConcurrencyLimiters limiters = new ConcurrencyLimiters(name -> aimd);
+			assertEquals(503, ConnectionBuilder.get(url).concurrencyLimiters(limiters).send().getResponseCode());
+			assertEquals(5, aimd.getLimit());
+		}
+
+		ConcurrencyLimiter single = new ConcurrencyLimiter("single").limits(1, 1, 1).maxWait(5000);
+		assertTrue(single.acquire(() -> false));
+		AtomicBoolean cancelled = new AtomicBoolean();
+		ExecutorService waiters = Executors.newFixedThreadPool(2);
+		try {
+			Future<Boolean> first = waiters.submit(() -> single.acquire(cancelled::get));
+			while (single.getQueued() < 1) Thread.sleep(1);
+			Future<Boolean> second = waiters.submit(() -> single.acquire(() -> false));
+			while (single.getQueued() < 2) Thread.sleep(1);
+			cancelled.set(true);
+			single.release();
+			assertFalse(first.get());
+			assertTrue(second.get(1, TimeUnit.SECONDS)); //Cancelled request passes the place on
+		} finally {
+			waiters.shutdown();
+		}
+	}
+
+	@Test
+	public void testDeadline() throws Exception {
+		HttpServer server = startServer(true, exchange -> {
+			readFully(exchange.getRequestBody());
+			String path = exchange.getRequestURI().getPath();
+			try {
+				if (path.equals("/headers")) Thread.sleep(2000);
+				exchange.sendResponseHeaders(200, 0);
+				if (path.equals("/drip")) {
+					for (int i = 0; i < 20; i++) {
+						exchange.getResponseBody().write('a');
+						exchange.getResponseBody().flush();
+						Thread.sleep(100);
+					}
+				} else {
+					exchange.getResponseBody().write("ok".getBytes(HttpUtils.ascii));
+				}
+			} catch (InterruptedException | IOException ignored) {
+			} finally {
+				exchange.close();
+			}
+		});
+		try {
+			String base = url(server);
+			assertEquals("ok", ConnectionBuilder.get(base + "/fast").deadline(1000).send().getBodyAsIs());
+
+			for (String path : new String[]{"/headers", "/drip"}) {
+				Request request = ConnectionBuilder.get(base + path).deadline(300).build();
+				long start = System.nanoTime();
+				try {
+					request.send(1000, 1000);
+					fail();
+				} catch (ConnectionException e) {
+					assertEquals(ConnectionException.Type.TIME_OUT, e.getType());
+					assertTrue(request.isExpired());
+					assertFalse(request.isCancelled());
+					assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(800));
+				}
+			}
+		} finally {
+			server.stop(0);
+		}
+	}
+
+	@Test
+	public void testDnsResolver() throws Exception {
+		InMemoryDnsResolver memory = new InMemoryDnsResolver().put("api.test", "10.0.0.1", "10.0.0.2");
+		CachingDnsResolver cache = new CachingDnsResolver(memory, Runnable::run).ttl(200).negativeTtl(200).refreshAfter(0.5);
+		InetAddress first = cache.resolve("api.test")[0];
+		InetAddress second = cache.resolve("API.test")[0];
+		assertNotEquals(first, second);
+		assertEquals("api.test", first.getHostName());
+		assertEquals(1, memory.getLookups());
+
+		for (int i = 0; i < 2; i++) {
+			try {
+				cache.resolve("missing.test");
+				fail();
+			} catch (UnknownHostException expected) {
+			}
+		}
+		assertEquals(2, memory.getLookups());
+
+		Thread.sleep(120);
+		memory.put("api.test", "10.0.0.3");
+		assertEquals(2, cache.resolve("api.test").length); //Stale while refreshing
+		assertEquals(3, memory.getLookups());
+		assertArrayEquals(new byte[]{10, 0, 0, 3}, cache.resolve("api.test")[0].getAddress());
+		assertEquals(2, cache.getMisses());
+
+		CachingDnsResolver prefetching = new CachingDnsResolver(memory, Runnable::run);
+		prefetching.prefetch("api.test");
+		prefetching.prefetch("API.test");
+		assertEquals(4, memory.getLookups());
+		assertArrayEquals(new byte[]{10, 0, 0, 3}, prefetching.resolve("api.test")[0].getAddress());
+		assertEquals(0, prefetching.getMisses());
+
+		try {
+			ConnectionBuilder.get("http://missing.test/").send();
+			fail();
+		} catch (ConnectionException e) {
+			assertEquals(ConnectionException.Type.UNKNOWN_ADDRESS, e.getType());
+		}
+
+		ProxySelector jvmSelector = ProxySelector.getDefault();
+		int closedPort;
+		try (ServerSocket closed = new ServerSocket(0)) {
+			closedPort = closed.getLocalPort();
+		}
+		Proxy proxy = new Proxy(Proxy.Type.HTTP, new InetSocketAddress("127.0.0.1", closedPort));
+		ProxySelector.setDefault(new ProxySelector() {
+			@Override
+			public List<Proxy> select(URI uri) {
+				return Collections.singletonList(proxy);
+			}
+
+			@Override
+			public void connectFailed(URI uri, SocketAddress address, IOException e) {
+			}
+		});
+		try {
+			ConnectionBuilder.get("http://localhost:" + closedPort + "/").send();
+			fail();
+		} catch (ConnectionException e) {
+			assertEquals(-1, e.getRequest().getTimings().getDnsNanos()); //Proxy resolves host
+		} finally {
+			ProxySelector.setDefault(jvmSelector);
+		}
+	}
+
+	@Test
+	public void testTlsConfig() throws Exception {
+		String cipher = "TLS_ECDHE_RSA_WITH_AES_128_GCM_SHA256";
+		TlsConfig tls = new TlsConfig().protocols("TLSv1.2").cipherSuites(cipher);
+		assertEquals(20_000, tls.getSessionContext().getSessionCacheSize());
+		assertSame(tls.getSocketFactory(), tls.getSocketFactory());
+
+		try (ServerSocket server = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+			 Socket plain = new Socket("127.0.0.1", server.getLocalPort());
+			 SSLSocket socket = (SSLSocket) tls.getSocketFactory().createSocket(plain, "localhost", server.getLocalPort(), true)) {
+			assertArrayEquals(new String[]{"TLSv1.2"}, socket.getEnabledProtocols());
+			assertArrayEquals(new String[]{cipher}, socket.getEnabledCipherSuites());
+		}
+		assertEquals(0, tls.getHandshakes() + tls.getResumed());
+
+		HttpsURLConnection javaCon = (HttpsURLConnection) ConnectionBuilder.get("https://localhost/").tls(tls)
+				.prepareConnection(new URL("https://localhost/"), new HeaderList());
+		assertSame(tls.getSocketFactory(), javaCon.getSSLSocketFactory());
+		Http.setDefaultTls(tls);
+		try {
+			javaCon = (HttpsURLConnection) ConnectionBuilder.get("https://localhost/").prepareConnection(new URL("https://localhost/"), new HeaderList());
+			assertSame(tls.getSocketFactory(), javaCon.getSSLSocketFactory());
+		} finally {
+			Http.setDefaultTls(null);
+		}
+
+		KeyStore keyStore = KeyStore.getInstance("PKCS12");
+		try (InputStream is = TestHttp.class.getResourceAsStream("/localhost.p12")) {
+			keyStore.load(is, "changeit".toCharArray());
+		}
+		KeyManagerFactory keys = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+		keys.init(keyStore, "changeit".toCharArray());
+		TrustManagerFactory trust = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+		trust.init(keyStore);
+		SSLContext serverContext = SSLContext.getInstance("TLS");
+		serverContext.init(keys.getKeyManagers(), null, null);
+		SSLContext clientContext = SSLContext.getInstance("TLS");
+		clientContext.init(null, trust.getTrustManagers(), null);
+
+		HttpsServer server = HttpsServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.setHttpsConfigurator(new HttpsConfigurator(serverContext));
+		server.createContext("/", exchange -> {
+			exchange.getResponseHeaders().add("Connection", "close"); //Every request makes a new handshake
+			exchange.sendResponseHeaders(200, -1);
+			exchange.close();
+		});
+		server.start();
+		try {
+			TlsConfig counting = new TlsConfig(clientContext);
+			HttpMetrics metrics = new HttpMetrics();
+			String url = "https://localhost:" + server.getAddress().getPort() + "/";
+			for (int i = 0; i < 3; i++) {
+				Request request = ConnectionBuilder.get(url).tls(counting).build();
+				request.send(metrics);
+				assertTrue(request.getTimings().getTlsNanos() > 0);
+				assertEquals(i == 0 ? 1 : 0, request.getTlsHandshakes());
+				assertEquals(i == 0 ? 0 : 1, request.getTlsResumed());
+			}
+			assertEquals(1, counting.getHandshakes());
+			assertEquals(2, counting.getResumed());
+			HostSnapshot snapshot = metrics.snapshot().getHost("localhost");
+			assertEquals(1, snapshot.getTlsHandshakes());
+			assertEquals(2, snapshot.getTlsResumed());
+		} finally {
+			server.stop(0);
+		}
+	}
+
+	private static byte[] readFully(InputStream is) throws IOException {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		HttpUtils.copy(is, bos, new byte[8192]);
+		return bos.toByteArray();
+	}
+
+	/** Local server with a single handler for every path. Must be stopped by the test **/
+	private static HttpServer startServer(boolean concurrent, HttpHandler handler) throws IOException {
+		HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		if (concurrent) server.setExecutor(Executors.newCachedThreadPool());
+		server.createContext("/", handler);
+		server.start();
+		return server;
+	}
+
+	private static String url(HttpServer server) {
+		return "http://127.0.0.1:" + server.getAddress().getPort();
+	}
+
 	@Test
 	public void testFileUpload() throws Exception {
 		File uploadFile = new File(".\\src\\test\\resources\\uploadTestFile_РусТест.jpg");